@@ -0,0 +1,81 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.exception.AllSlotsOccupiedException;
+import com.kunal.coffeemachine.exception.PreparationException;
+import com.kunal.coffeemachine.pojo.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of keeping the available beverages up to date as the menu grows. Every drink_i needs i + 1 units of
+ * hot_water and one unit of its own ingredient. An order of drink_0 takes one unit of hot_water from a huge stock
+ * and crosses no drink's quantity, while emptying and refilling hot_water flips the whole menu.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AvailabilityBenchmark {
+    @Param({"10", "1000", "10000"})
+    public int menuSize;
+
+    private Config config;
+    private CoffeeMachineService machine;
+    private String lastDrink;
+    private boolean empty;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, Integer> items = new LinkedHashMap<>();
+        Map<String, Map<String, Integer>> beverages = new LinkedHashMap<>();
+        items.put("hot_water", BenchmarkConfigs.STOCK);
+        for (int i = 0; i < menuSize; i++) {
+            items.put("ingredient_" + i, BenchmarkConfigs.STOCK);
+            Map<String, Integer> recipe = new LinkedHashMap<>();
+            recipe.put("hot_water", i + 1);
+            recipe.put("ingredient_" + i, 1);
+            beverages.put("drink_" + i, recipe);
+        }
+        config = BenchmarkConfigs.config(1, items, beverages);
+        machine = new CoffeeMachineService(config);
+        lastDrink = "drink_" + (menuSize - 1);
+    }
+
+    @Setup(Level.Iteration)
+    public void refill() {
+        BenchmarkConfigs.refillAll(machine, config);
+        empty = false;
+    }
+
+    @Benchmark
+    public boolean isAvailable() {
+        return machine.isAvailable(lastDrink);
+    }
+
+    @Benchmark
+    public String orderWithoutCrossing() throws PreparationException, AllSlotsOccupiedException {
+        return machine.getBeverage("drink_0");
+    }
+
+    @Benchmark
+    public void flipWholeMenu() {
+        empty = !empty;
+        machine.refillIngredient("hot_water", empty ? 0 : BenchmarkConfigs.STOCK);
+    }
+}
@@ -0,0 +1,71 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.exception.AllSlotsOccupiedException;
+import com.kunal.coffeemachine.exception.PreparationException;
+import com.kunal.coffeemachine.pojo.BatchMode;
+import com.kunal.coffeemachine.pojo.Config;
+import com.kunal.coffeemachine.pojo.OrderResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-cup cost of a 12 drink meeting order, placed as one batch or as 12 single orders.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchOrderBenchmark {
+    private static final int CUPS = 12;
+
+    private Config config;
+    private CoffeeMachineService machine;
+    private List<String> order;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        config = BenchmarkConfigs.defaultMachine(CUPS);
+        machine = new CoffeeMachineService(config);
+        order = new ArrayList<>(CUPS);
+        String[] beverages = {"hot_tea", "hot_coffee", "black_tea"};
+        for (int i = 0; i < CUPS; i++) {
+            order.add(beverages[i % beverages.length]);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void refill() {
+        BenchmarkConfigs.refillAll(machine, config);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CUPS)
+    public List<OrderResult> batch() {
+        return machine.getBeverages(order, BatchMode.ALL_OR_NOTHING);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CUPS)
+    public void singleOrders(Blackhole blackhole) throws PreparationException, AllSlotsOccupiedException {
+        for (int i = 0; i < CUPS; i++) {
+            blackhole.consume(machine.getBeverage(order.get(i)));
+        }
+    }
+}
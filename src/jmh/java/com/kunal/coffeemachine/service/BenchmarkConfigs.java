@@ -0,0 +1,84 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.pojo.Config;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Machine configs used by the benchmarks. Brewing takes no time so the benchmarks measure the machine itself, and
+ * every recipe uses one unit per ingredient so the stock lasts for billions of orders between refills.
+ */
+final class BenchmarkConfigs {
+    static final int STOCK = Integer.MAX_VALUE;
+
+    private BenchmarkConfigs() {
+    }
+
+    /**
+     * @return the default machine: hot_tea, hot_coffee and black_tea sharing the same five ingredients
+     */
+    static Config defaultMachine(int outlets) {
+        Map<String, Integer> items = new LinkedHashMap<>();
+        items.put("hot_water", STOCK);
+        items.put("hot_milk", STOCK);
+        items.put("ginger_syrup", STOCK);
+        items.put("sugar_syrup", STOCK);
+        items.put("tea_leaves_syrup", STOCK);
+        Map<String, Map<String, Integer>> beverages = new LinkedHashMap<>();
+        beverages.put("hot_tea", recipe("hot_water", "hot_milk", "ginger_syrup", "sugar_syrup", "tea_leaves_syrup"));
+        beverages.put("hot_coffee", recipe("hot_water", "hot_milk", "ginger_syrup", "sugar_syrup", "tea_leaves_syrup"));
+        beverages.put("black_tea", recipe("hot_water", "ginger_syrup", "sugar_syrup", "tea_leaves_syrup"));
+        return config(outlets, items, beverages);
+    }
+
+    /**
+     * @return a machine where every beverage cold_i uses its own ingredients, so orders of different beverages never
+     * touch the same stock
+     */
+    static Config disjointMachine(int outlets, int beverageCount) {
+        Map<String, Integer> items = new LinkedHashMap<>();
+        Map<String, Map<String, Integer>> beverages = new LinkedHashMap<>();
+        for (int i = 0; i < beverageCount; i++) {
+            Map<String, Integer> recipe = new LinkedHashMap<>();
+            for (int j = 0; j < 3; j++) {
+                items.put("ingredient_" + i + "_" + j, STOCK);
+                recipe.put("ingredient_" + i + "_" + j, 1);
+            }
+            beverages.put("cold_" + i, recipe);
+        }
+        return config(outlets, items, beverages);
+    }
+
+    /**
+     * puts every configured ingredient back to its full stock
+     */
+    static void refillAll(CoffeeMachineService machine, Config config) {
+        for (String ingredient : config.getMachineConfig().getTotalItemsConfig().keySet()) {
+            machine.refillIngredient(ingredient, STOCK);
+        }
+    }
+
+    static Config config(int outlets, Map<String, Integer> items, Map<String, Map<String, Integer>> beverages) {
+        Config.OutletConfig outletConfig = new Config.OutletConfig();
+        outletConfig.setCount(outlets);
+        Config.MachineConfig machineConfig = new Config.MachineConfig();
+        machineConfig.setOutletConfig(outletConfig);
+        machineConfig.setTotalItemsConfig(items);
+        machineConfig.setBeverages(beverages);
+        machineConfig.setBrewTimes(new HashMap<>());
+        machineConfig.setDefaultBrewTime(0L);
+        Config config = new Config();
+        config.setMachineConfig(machineConfig);
+        return config;
+    }
+
+    private static Map<String, Integer> recipe(String... ingredients) {
+        Map<String, Integer> recipe = new LinkedHashMap<>();
+        for (String ingredient : ingredients) {
+            recipe.put(ingredient, 1);
+        }
+        return recipe;
+    }
+}
@@ -0,0 +1,143 @@
+package com.kunal.coffeemachine.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kunal.coffeemachine.pojo.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup of a machine with a menu of 100k beverages over 500 ingredients: its config bound by Jackson into maps,
+ * streamed token by token, or mapped from a precompiled catalog image. The score is the time from the file to a
+ * machine taking orders; the bytes allocated, the peak heap and the heap the machine retains are printed for every
+ * load.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+@State(Scope.Benchmark)
+public class CatalogLoadBenchmark {
+    private static final int INGREDIENTS = 500;
+
+    @Param({"bind", "stream", "image"})
+    public String loader;
+
+    @Param({"100000"})
+    public int beverages;
+
+    private Path directory;
+    private Path json;
+    private Path image;
+    private Path imageJson;
+    private CoffeeMachineService machine;
+    private long allocatedBefore;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("catalog-load");
+        json = directory.resolve("machine.json");
+        Random random = new Random(3);
+        try (BufferedWriter out = Files.newBufferedWriter(json, StandardCharsets.UTF_8)) {
+            out.write("{\"machine\":{\"outlets\":{\"count_n\":4},\"default_brew_time_ms\":0,\"total_items_quantity\":{");
+            for (int i = 0; i < INGREDIENTS; i++) {
+                out.write((i == 0 ? "" : ",") + "\"ingredient_" + i + "\":" + BenchmarkConfigs.STOCK);
+            }
+            out.write("},\"beverages\":{");
+            for (int b = 0; b < beverages; b++) {
+                out.write((b == 0 ? "" : ",") + "\"beverage_" + b + "\":{");
+                int uses = 3 + random.nextInt(5);
+                for (int i = 0; i < uses; i++) {
+                    out.write((i == 0 ? "" : ",") + "\"ingredient_" + random.nextInt(INGREDIENTS) + "\":" + (10 + random.nextInt(500)));
+                }
+                out.write("}");
+            }
+            out.write("}}}");
+        }
+        image = directory.resolve("menu.bin");
+        ConfigLoader.load(json).getMenu().write(image);
+        imageJson = directory.resolve("machine-image.json");
+        Files.write(imageJson, ("{\"machine\":{\"outlets\":{\"count_n\":4},\"default_brew_time_ms\":0,\"catalog_image\":\""
+                + image.toString().replace("\\", "\\\\") + "\"}}").getBytes(StandardCharsets.UTF_8));
+        System.out.printf("%nconfig of %d beverages: %d bytes, image %d bytes%n", beverages, Files.size(json),
+                Files.size(image));
+    }
+
+    @Setup(Level.Iteration)
+    public void clear() {
+        machine = null;
+        usedHeap();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        allocatedBefore = allocatedBytes();
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() {
+        long allocated = allocatedBytes() - allocatedBefore;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        long retained = usedHeap();
+        System.out.printf("%n%s: allocated %d MB, peak heap %d MB, retained %d MB for %d beverages%n", loader,
+                allocated >> 20, peak >> 20, retained >> 20, machine.getRecipes().size());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(json);
+        Files.deleteIfExists(image);
+        Files.deleteIfExists(imageJson);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public CoffeeMachineService load() throws IOException {
+        if ("bind".equals(loader)) {
+            machine = new CoffeeMachineService(new ObjectMapper().readValue(json.toFile(), Config.class));
+        } else {
+            ConfigLoader.Loaded loaded = ConfigLoader.load("stream".equals(loader) ? json : imageJson);
+            machine = new CoffeeMachineService(loaded.getConfig(), loaded.getMenu(), BrewScheduler.shared());
+        }
+        return machine;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
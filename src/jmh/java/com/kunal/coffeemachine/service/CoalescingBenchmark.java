@@ -0,0 +1,54 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.pojo.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cups of hot_tea prepared per second by 2 outlets brewing for 10 ms, with 16 clients each waiting for its cup before
+ * ordering the next. A batch size of 1 brews every order on its own outlet, larger sizes coalesce the orders arriving
+ * within 2 ms into one brew.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class CoalescingBenchmark {
+    @Param({"1", "4", "8"})
+    public int batchSize;
+
+    private CoffeeMachineService machine;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Config config = BenchmarkConfigs.defaultMachine(2);
+        config.getMachineConfig().setDefaultBrewTime(10L);
+        config.getMachineConfig().getOutletConfig().setQueueDepth(1000);
+        Config.CoalescingConfig coalescing = new Config.CoalescingConfig();
+        coalescing.setWindowMillis(2L);
+        coalescing.setDefaultBatchSize(batchSize);
+        config.getMachineConfig().setCoalescingConfig(coalescing);
+        machine = new CoffeeMachineService(config);
+    }
+
+    @Benchmark
+    public String cup() {
+        return machine.getBeverageAsync("hot_tea").join();
+    }
+}
@@ -0,0 +1,73 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.pojo.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap and full GC pause of an estate of machines, held as one {@link CoffeeMachineService} per machine or as a
+ * {@link MachineEstate}. The heap retained per machine is printed once the estate is built, the score is the time of
+ * a full collection with the estate live. A million machines only fit as a compact estate:
+ * {@code -p model=compact -p machines=1000000}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class EstateFootprintBenchmark {
+    @Param({"objects", "compact"})
+    public String model;
+
+    @Param({"10000"})
+    public int machines;
+
+    private List<CoffeeMachineService> services;
+    private MachineEstate estate;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        long before = usedHeap();
+        Config config = BenchmarkConfigs.defaultMachine(4);
+        if ("objects".equals(model)) {
+            services = new ArrayList<>(machines);
+            for (int i = 0; i < machines; i++) {
+                services.add(new CoffeeMachineService(config));
+            }
+        } else {
+            estate = new MachineEstate(config, machines, BrewScheduler.shared());
+        }
+        long retained = usedHeap() - before;
+        System.out.printf("%n%s estate of %d machines retains %d bytes per machine%n", model, machines,
+                retained / machines);
+    }
+
+    @Benchmark
+    public Object fullGc() {
+        System.gc();
+        return "objects".equals(model) ? services : estate;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,65 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.exception.AllSlotsOccupiedException;
+import com.kunal.coffeemachine.exception.PreparationException;
+import com.kunal.coffeemachine.pojo.Config;
+import com.kunal.coffeemachine.pojo.OrderResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of orders failing because hot_milk ran out, reported by exception through getBeverage and by result
+ * through tryGetBeverage, next to successful black_tea orders which do not need hot_milk.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FailurePathBenchmark {
+    private Config config;
+    private CoffeeMachineService machine;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        config = BenchmarkConfigs.defaultMachine(3);
+        machine = new CoffeeMachineService(config);
+    }
+
+    @Setup(Level.Iteration)
+    public void refill() {
+        BenchmarkConfigs.refillAll(machine, config);
+        machine.refillIngredient("hot_milk", 0);
+    }
+
+    @Benchmark
+    public Object failureThrown() {
+        try {
+            return machine.getBeverage("hot_tea");
+        } catch (PreparationException | AllSlotsOccupiedException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public OrderResult failureResult() {
+        return machine.tryGetBeverage("hot_tea");
+    }
+
+    @Benchmark
+    public OrderResult success() {
+        return machine.tryGetBeverage("black_tea");
+    }
+}
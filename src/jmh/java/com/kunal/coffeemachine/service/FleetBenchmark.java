@@ -0,0 +1,97 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.exception.AllSlotsOccupiedException;
+import com.kunal.coffeemachine.exception.PreparationException;
+import com.kunal.coffeemachine.pojo.Config;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Prepared beverages per second of a fleet as machines are added. Every machine has two outlets and brews hot_tea
+ * in one millisecond, so a machine serves at most 2000 orders per second and the fleet is only as fast as the
+ * machines the router spreads the 32 clients over. Rejected clients back off for a brew time before ordering
+ * again.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(32)
+public class FleetBenchmark {
+    static final int OUTLETS = 2;
+    static final long BREW_TIME_MILLIS = 1;
+    static final long BACK_OFF_NANOS = 1_000_000;
+
+    @State(Scope.Benchmark)
+    public static class Fleet {
+        @Param({"1", "2", "4", "8", "16"})
+        public int machineCount;
+
+        List<Config> configs;
+        List<CoffeeMachineService> machines;
+        CoffeeMachineFleet fleet;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            configs = new ArrayList<>();
+            machines = new ArrayList<>();
+            for (int i = 0; i < machineCount; i++) {
+                Config config = BenchmarkConfigs.defaultMachine(OUTLETS);
+                config.getMachineConfig().setDefaultBrewTime(BREW_TIME_MILLIS);
+                config.getMachineConfig().getOutletConfig().setQueueDepth(0);
+                configs.add(config);
+                machines.add(new CoffeeMachineService(config));
+            }
+            fleet = new CoffeeMachineFleet(machines);
+        }
+
+        @Setup(Level.Iteration)
+        public void refill() {
+            for (int i = 0; i < machineCount; i++) {
+                BenchmarkConfigs.refillAll(machines.get(i), configs.get(i));
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Outcomes {
+        public long prepared;
+        public long rejected;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            prepared = 0;
+            rejected = 0;
+        }
+    }
+
+    @Benchmark
+    public void order(Fleet fleet, Outcomes outcomes) throws PreparationException {
+        try {
+            fleet.fleet.getBeverage("hot_tea");
+            outcomes.prepared++;
+        } catch (AllSlotsOccupiedException e) {
+            outcomes.rejected++;
+            LockSupport.parkNanos(BACK_OFF_NANOS);
+        }
+    }
+}
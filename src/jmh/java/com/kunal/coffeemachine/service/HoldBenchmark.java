@@ -0,0 +1,86 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.exception.AllSlotsOccupiedException;
+import com.kunal.coffeemachine.exception.PreparationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of order holds as the number of open holds grows: a hold placed and released while the others stay open, and
+ * a whole set of holds expiring over half a minute of simulated time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HoldBenchmark {
+    private static final long HOUR_MILLIS = 3_600_000;
+
+    @Param({"0", "10000", "100000"})
+    public int openHolds;
+
+    private CoffeeMachineService machine;
+
+    @Setup(Level.Trial)
+    public void setUp() throws PreparationException, AllSlotsOccupiedException {
+        machine = new CoffeeMachineService(BenchmarkConfigs.defaultMachine(openHolds + 1));
+        for (int i = 0; i < openHolds; i++) {
+            machine.reserve("hot_tea", HOUR_MILLIS + i);
+        }
+    }
+
+    @Benchmark
+    public boolean reserveAndRelease() throws PreparationException, AllSlotsOccupiedException {
+        return machine.release(machine.reserve("hot_tea", 60_000));
+    }
+
+    /**
+     * A machine on a virtual clock with every hold placed at once, their time to live spread over half a minute.
+     */
+    @State(Scope.Thread)
+    public static class Expiring {
+        private VirtualClock clock;
+        private CoffeeMachineService machine;
+
+        @Setup(Level.Iteration)
+        public void setUp(HoldBenchmark benchmark) throws PreparationException, AllSlotsOccupiedException {
+            clock = new VirtualClock();
+            machine = new CoffeeMachineService(BenchmarkConfigs.defaultMachine(benchmark.openHolds + 1), clock);
+            for (int i = 0; i < benchmark.openHolds; i++) {
+                machine.reserve("hot_tea", 1 + i % 30_000);
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void check() {
+            if (machine.getOpenHolds() != 0 || machine.getUsedOutlets().get() != 0) {
+                throw new IllegalStateException(machine.getOpenHolds() + " holds did not expire");
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    public long expireAll(Expiring expiring) {
+        expiring.clock.advanceTo(30_000 + HoldWheel.DEFAULT_TICK_MILLIS);
+        return expiring.clock.millis();
+    }
+}
@@ -0,0 +1,66 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.exception.AllSlotsOccupiedException;
+import com.kunal.coffeemachine.exception.PreparationException;
+import com.kunal.coffeemachine.pojo.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of journaling the stock on the order path: the same hot_tea order, which changes five ingredients, with and
+ * without a journal.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JournalOverheadBenchmark {
+    @Param({"true", "false"})
+    public boolean journal;
+
+    private Config config;
+    private CoffeeMachineService machine;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        config = BenchmarkConfigs.defaultMachine(3);
+        if (journal) {
+            Config.JournalConfig journalConfig = new Config.JournalConfig();
+            journalConfig.setDirectory(Files.createTempDirectory("stock-journal").toString());
+            config.getMachineConfig().setJournalConfig(journalConfig);
+        }
+        machine = new CoffeeMachineService(config);
+    }
+
+    @Setup(Level.Iteration)
+    public void refill() {
+        BenchmarkConfigs.refillAll(machine, config);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        machine.close();
+    }
+
+    @Benchmark
+    public String getBeverage() throws PreparationException, AllSlotsOccupiedException {
+        return machine.getBeverage("hot_tea");
+    }
+}
@@ -0,0 +1,51 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.pojo.Config;
+import com.kunal.coffeemachine.pojo.Ingredient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of getIngredientsRunningLow as the number of ingredients grows, with one in a hundred ingredients running low.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LowStockBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int ingredientCount;
+
+    private CoffeeMachineService machine;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, Integer> items = new LinkedHashMap<>();
+        for (int i = 0; i < ingredientCount; i++) {
+            items.put("ingredient_" + i, i % 100 == 0 ? 10 : 1000);
+        }
+        Config config = BenchmarkConfigs.config(1, items, new LinkedHashMap<>());
+        machine = new CoffeeMachineService(config);
+    }
+
+    @Benchmark
+    public Map<String, Ingredient> getIngredientsRunningLow() {
+        return machine.getIngredientsRunningLow(50);
+    }
+}
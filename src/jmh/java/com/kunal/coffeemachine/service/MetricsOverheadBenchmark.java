@@ -0,0 +1,62 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.exception.AllSlotsOccupiedException;
+import com.kunal.coffeemachine.exception.PreparationException;
+import com.kunal.coffeemachine.pojo.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the built-in metrics: the same hot_tea order with metrics enabled and disabled, from one thread and from
+ * several threads recording into the same counters.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsOverheadBenchmark {
+    @Param({"true", "false"})
+    public boolean metrics;
+
+    private Config config;
+    private CoffeeMachineService machine;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        config = BenchmarkConfigs.defaultMachine(OrderThroughputBenchmark.MAX_THREADS);
+        config.getMachineConfig().setMetricsEnabled(metrics);
+        machine = new CoffeeMachineService(config);
+    }
+
+    @Setup(Level.Iteration)
+    public void refill() {
+        BenchmarkConfigs.refillAll(machine, config);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String singleThread() throws PreparationException, AllSlotsOccupiedException {
+        return machine.getBeverage("hot_tea");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String fourThreads() throws PreparationException, AllSlotsOccupiedException {
+        return machine.getBeverage("hot_tea");
+    }
+}
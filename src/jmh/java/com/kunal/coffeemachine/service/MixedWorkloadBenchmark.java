@@ -0,0 +1,66 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.pojo.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Orders racing with refills of the ingredients they use: seven ordering threads and one refilling thread.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class MixedWorkloadBenchmark {
+    private static final String[] BEVERAGES = {"hot_tea", "hot_coffee", "black_tea"};
+    private static final String[] INGREDIENTS = {"hot_water", "hot_milk", "ginger_syrup", "sugar_syrup", "tea_leaves_syrup"};
+
+    private Config config;
+    private CoffeeMachineService machine;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        config = BenchmarkConfigs.defaultMachine(8);
+        machine = new CoffeeMachineService(config);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(7)
+    public Object order(Cursor cursor) {
+        String beverage = BEVERAGES[cursor.next++ % BEVERAGES.length];
+        try {
+            return machine.getBeverage(beverage);
+        } catch (Exception e) {
+            // slots occupied by the other order threads
+            return e;
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void refill(Cursor cursor) {
+        machine.refillIngredient(INGREDIENTS[cursor.next++ % INGREDIENTS.length], BenchmarkConfigs.STOCK);
+    }
+}
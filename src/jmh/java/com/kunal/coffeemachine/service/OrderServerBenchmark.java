@@ -0,0 +1,186 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.pojo.Config;
+import com.kunal.coffeemachine.pojo.HistogramSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the {@link OrderServer} on loopback: thousands of connections each keep a number of hot_tea orders in
+ * flight until they placed their share of the round, all driven by one client selector thread. The score is the time
+ * of a round, the requests per second and the latency percentiles of every round are printed.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OrderServerBenchmark {
+    private static final int REQUESTS_PER_CONNECTION = 32;
+
+    @Param({"1000", "4000"})
+    public int connections;
+
+    @Param({"1", "16"})
+    public int pipeline;
+
+    private Config config;
+    private CoffeeMachineService machine;
+    private OrderServer server;
+    private Selector selector;
+    private Client[] clients;
+    private byte[] template;
+    private long[] sentAt;
+    private LatencyHistogram histogram;
+    private long roundStartedAt;
+    private int failures;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        config = BenchmarkConfigs.defaultMachine(4);
+        machine = new CoffeeMachineService(config);
+        server = new OrderServer(machine, new InetSocketAddress("127.0.0.1", 0), OrderServer.DEFAULT_BATCH_THREADS);
+        server.start();
+        selector = Selector.open();
+        clients = new Client[connections];
+        for (int i = 0; i < connections; i++) {
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", server.getPort()));
+            channel.configureBlocking(false);
+            clients[i] = new Client(i, channel);
+            clients[i].key = channel.register(selector, SelectionKey.OP_READ, clients[i]);
+        }
+        ByteBuffer order = OrderProtocol.order(0, "hot_tea", null);
+        template = new byte[order.remaining()];
+        order.get(template);
+        sentAt = new long[connections * REQUESTS_PER_CONNECTION];
+    }
+
+    @Setup(Level.Iteration)
+    public void refill() {
+        BenchmarkConfigs.refillAll(machine, config);
+        histogram = new LatencyHistogram();
+        failures = 0;
+        roundStartedAt = System.nanoTime();
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() {
+        double seconds = (System.nanoTime() - roundStartedAt) / 1e9;
+        HistogramSnapshot latency = histogram.snapshot();
+        System.out.printf("%n%d connections, %d in flight each: %.0f requests/s, p50 %d us, p99 %d us, %d failed%n",
+                connections, pipeline, latency.getCount() / seconds, latency.getPercentile(50) / 1000,
+                latency.getPercentile(99) / 1000, failures);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (Client client : clients) {
+            client.channel.close();
+        }
+        selector.close();
+        server.close();
+    }
+
+    @Benchmark
+    public int round() throws IOException {
+        int outstanding = connections * REQUESTS_PER_CONNECTION;
+        for (Client client : clients) {
+            client.sent = 0;
+            client.received = 0;
+            client.topUp();
+        }
+        while (outstanding > 0) {
+            selector.select();
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Client client = (Client) key.attachment();
+                if (key.isReadable()) {
+                    outstanding -= client.read();
+                }
+                client.topUp();
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * One client connection keeping up to the pipeline depth of orders in flight.
+     */
+    private final class Client {
+        private final int index;
+        private final SocketChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocate(16 * 1024);
+        private final ByteBuffer out = ByteBuffer.allocate(16 * 1024);
+        private SelectionKey key;
+        private int sent;
+        private int received;
+
+        Client(int index, SocketChannel channel) {
+            this.index = index;
+            this.channel = channel;
+        }
+
+        /**
+         * places orders until the pipeline is full and writes what the socket takes
+         */
+        void topUp() throws IOException {
+            while (sent - received < pipeline && sent < REQUESTS_PER_CONNECTION && out.remaining() >= template.length) {
+                int id = index * REQUESTS_PER_CONNECTION + sent++;
+                int start = out.position();
+                out.put(template).putInt(start + Integer.BYTES, id);
+                sentAt[id] = System.nanoTime();
+            }
+            out.flip();
+            channel.write(out);
+            out.compact();
+            key.interestOps(out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        /**
+         * @return the number of responses read
+         */
+        int read() throws IOException {
+            if (channel.read(in) < 0) {
+                throw new IOException("server closed connection " + index);
+            }
+            long now = System.nanoTime();
+            int responses = 0;
+            in.flip();
+            ByteBuffer frame;
+            while ((frame = OrderProtocol.nextFrame(in)) != null) {
+                int id = frame.getInt();
+                if (frame.get() != OrderProtocol.OK) {
+                    failures++;
+                }
+                histogram.record(now - sentAt[id]);
+                responses++;
+            }
+            in.compact();
+            received += responses;
+            return responses;
+        }
+    }
+}
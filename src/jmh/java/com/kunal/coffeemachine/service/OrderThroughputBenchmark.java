@@ -0,0 +1,97 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.exception.AllSlotsOccupiedException;
+import com.kunal.coffeemachine.exception.PreparationException;
+import com.kunal.coffeemachine.pojo.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Order throughput from 1 to 64 threads. With hot ingredients every thread orders hot_tea, so all threads contend
+ * on the same five ingredient slots. With cold ingredients every thread orders its own beverage made of its own
+ * ingredients, which leaves the outlet counter as the only shared write. With sharded stock the hot ingredients are
+ * taken from per-thread shards once their locks are found contended.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderThroughputBenchmark {
+    static final int MAX_THREADS = 64;
+
+    @State(Scope.Benchmark)
+    public static class Machine {
+        @Param({"hot", "cold"})
+        public String ingredients;
+
+        @Param({"locked", "sharded"})
+        public String stock;
+
+        Config config;
+        CoffeeMachineService machine;
+        final AtomicInteger threadIds = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            config = "hot".equals(ingredients)
+                    ? BenchmarkConfigs.defaultMachine(MAX_THREADS)
+                    : BenchmarkConfigs.disjointMachine(MAX_THREADS, MAX_THREADS);
+            config.getMachineConfig().setShardedStock("sharded".equals(stock));
+            machine = new CoffeeMachineService(config);
+        }
+
+        @Setup(Level.Iteration)
+        public void refill() {
+            BenchmarkConfigs.refillAll(machine, config);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Order {
+        String beverage;
+
+        @Setup(Level.Trial)
+        public void setUp(Machine machine) {
+            beverage = "hot".equals(machine.ingredients) ? "hot_tea" : "cold_" + machine.threadIds.getAndIncrement();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String threads01(Machine machine, Order order) throws PreparationException, AllSlotsOccupiedException {
+        return machine.machine.getBeverage(order.beverage);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String threads04(Machine machine, Order order) throws PreparationException, AllSlotsOccupiedException {
+        return machine.machine.getBeverage(order.beverage);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String threads16(Machine machine, Order order) throws PreparationException, AllSlotsOccupiedException {
+        return machine.machine.getBeverage(order.beverage);
+    }
+
+    @Benchmark
+    @Threads(MAX_THREADS)
+    public String threads64(Machine machine, Order order) throws PreparationException, AllSlotsOccupiedException {
+        return machine.machine.getBeverage(order.beverage);
+    }
+}
@@ -0,0 +1,68 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.pojo.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of walk-up orders on a machine saturated by catering orders: 2 outlets brewing for 1 ms, 8 catering clients
+ * each keeping one order queued and 1 walk-up client. With the walk-up client ordering as catering every order waits
+ * its turn in one FIFO queue, with its own class of weight 4 it gets the next free outlet.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class PriorityBenchmark {
+    @Param({"catering", "walk_up"})
+    public String walkUpClass;
+
+    private CoffeeMachineService machine;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Config config = BenchmarkConfigs.defaultMachine(2);
+        config.getMachineConfig().setDefaultBrewTime(1L);
+        Config.OutletConfig outletConfig = config.getMachineConfig().getOutletConfig();
+        outletConfig.setOrderClasses(Arrays.asList(orderClass("walk_up", 4), orderClass("catering", 1)));
+        machine = new CoffeeMachineService(config);
+    }
+
+    @Benchmark
+    @Group("saturated")
+    @GroupThreads(1)
+    public String walkUp() {
+        return machine.getBeverageAsync("hot_tea", walkUpClass).join();
+    }
+
+    @Benchmark
+    @Group("saturated")
+    @GroupThreads(8)
+    public String catering() {
+        return machine.getBeverageAsync("black_tea", "catering").join();
+    }
+
+    private static Config.OrderClassConfig orderClass(String name, int weight) {
+        Config.OrderClassConfig orderClass = new Config.OrderClassConfig();
+        orderClass.setName(name);
+        orderClass.setWeight(weight);
+        return orderClass;
+    }
+}
@@ -0,0 +1,93 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.pojo.Config;
+import com.kunal.coffeemachine.pojo.ProductionPlan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to plan the production of a random menu with demand weights from a snapshot of the stock, as done after
+ * every refill, for menus up to hundreds of beverages and fork-join pools of one or more workers. The value of the
+ * plan and the nodes searched are printed once per trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductionPlannerBenchmark {
+    private static final int INGREDIENTS = 12;
+
+    @Param({"10", "100", "300"})
+    public int beverages;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    @Param({"0.001"})
+    public double tolerance;
+
+    private CoffeeMachineService machine;
+    private ForkJoinPool pool;
+    private ProductionPlanner planner;
+    private Map<String, Double> weights;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(5);
+        Map<String, Integer> items = new LinkedHashMap<>();
+        for (int i = 0; i < INGREDIENTS; i++) {
+            items.put("ingredient_" + i, 5_000 + random.nextInt(20_000));
+        }
+        Map<String, Map<String, Integer>> menu = new LinkedHashMap<>();
+        weights = new HashMap<>();
+        for (int b = 0; b < beverages; b++) {
+            Map<String, Integer> recipe = new LinkedHashMap<>();
+            for (int i = 0; i < INGREDIENTS; i++) {
+                if (random.nextInt(4) == 0 || i == b % INGREDIENTS) {
+                    recipe.put("ingredient_" + i, 10 + random.nextInt(200));
+                }
+            }
+            menu.put("beverage_" + b, recipe);
+            weights.put("beverage_" + b, 1.0 + random.nextInt(400) / 100.0);
+        }
+        Config config = BenchmarkConfigs.config(4, items, menu);
+        machine = new CoffeeMachineService(config);
+        pool = new ForkJoinPool(parallelism);
+        planner = new ProductionPlanner(pool, ProductionPlanner.DEFAULT_NODE_LIMIT, tolerance);
+        ProductionPlan plan = plan();
+        System.out.printf("%n%d beverages: value %.2f of at most %.2f after %d nodes%n", beverages, plan.getValue(),
+                plan.getUpperBound(), plan.getNodes());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public ProductionPlan plan() {
+        int[] stock = machine.stockStore.snapshot(() -> {
+        });
+        return planner.plan(machine.getRecipes().values(), stock, weights);
+    }
+}
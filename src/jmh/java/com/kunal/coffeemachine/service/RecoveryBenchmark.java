@@ -0,0 +1,59 @@
+package com.kunal.coffeemachine.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to recover the stock of a machine with 100 ingredients from its journal, by number of changes journaled
+ * since the last snapshot. Segments are 16 MB, so the largest tail spans several segments and is cut short by the
+ * snapshots written when a segment fills up.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecoveryBenchmark {
+    static final int INGREDIENTS = 100;
+
+    @Param({"1000", "100000", "10000000"})
+    public int changes;
+
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("stock-journal");
+        StockStore store = new StockStore();
+        for (int i = 0; i < INGREDIENTS; i++) {
+            store.set("ingredient_" + i, BenchmarkConfigs.STOCK);
+        }
+        StockJournal journal = StockJournal.open(directory, store, null, null, null);
+        for (int i = 0; i < changes; i++) {
+            store.set("ingredient_" + (i % INGREDIENTS), i);
+        }
+        journal.close();
+    }
+
+    @Benchmark
+    public Map<String, Integer> recover() throws IOException {
+        return StockJournal.recover(directory);
+    }
+}
@@ -0,0 +1,68 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.pojo.Config;
+import com.kunal.coffeemachine.pojo.InventorySnapshot;
+import com.kunal.coffeemachine.pojo.OrderResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of hot_tea orders from 3 threads while a dashboard polls inventory snapshots: not at all, once a
+ * millisecond, or back to back. The snapshot writes nothing the orders use, so polling should not move the order
+ * latency.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class SnapshotBenchmark {
+    @Param({"none", "every_ms", "busy"})
+    public String polling;
+
+    private Config config;
+    private CoffeeMachineService machine;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        config = BenchmarkConfigs.defaultMachine(OrderThroughputBenchmark.MAX_THREADS);
+        machine = new CoffeeMachineService(config);
+    }
+
+    @Setup(Level.Iteration)
+    public void refill() {
+        BenchmarkConfigs.refillAll(machine, config);
+    }
+
+    @Benchmark
+    @Group("dashboard")
+    @GroupThreads(3)
+    public OrderResult order() {
+        return machine.tryGetBeverage("hot_tea");
+    }
+
+    @Benchmark
+    @Group("dashboard")
+    @GroupThreads(1)
+    public InventorySnapshot poll() throws InterruptedException {
+        if (!"busy".equals(polling)) {
+            Thread.sleep(1);
+        }
+        return "none".equals(polling) ? null : machine.getInventorySnapshot();
+    }
+}
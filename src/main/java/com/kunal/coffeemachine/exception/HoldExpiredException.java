@@ -0,0 +1,16 @@
+package com.kunal.coffeemachine.exception;
+
+/**
+ * This exception thrown by Coffee Machine when an order is committed after its hold expired or was released.
+ */
+public class HoldExpiredException extends Exception {
+
+    /**
+     * Create a new HoldExpiredException.
+     *
+     * @param beverageName The name of the beverage requested.
+     */
+    public HoldExpiredException(final String beverageName) {
+        super(beverageName + " cannot be prepared because its hold expired or was released");
+    }
+}
@@ -0,0 +1,16 @@
+package com.kunal.coffeemachine.exception;
+
+/**
+ * This exception thrown by Coffee Machine when a queued order does not get a free slot before its deadline.
+ */
+public class OrderTimeoutException extends Exception {
+
+    /**
+     * Create a new OrderTimeoutException.
+     *
+     * @param beverageName The name of the beverage requested.
+     */
+    public OrderTimeoutException(final String beverageName) {
+        super(beverageName + " cannot be prepared because no slot was free before the order deadline");
+    }
+}
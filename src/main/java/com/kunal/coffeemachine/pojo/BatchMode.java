@@ -0,0 +1,15 @@
+package com.kunal.coffeemachine.pojo;
+
+/**
+ * How a batch of beverages is reserved when the stock does not cover all of them.
+ */
+public enum BatchMode {
+    /**
+     * either every beverage of the batch is prepared or none is
+     */
+    ALL_OR_NOTHING,
+    /**
+     * beverages are reserved in order and the ones which do not fit the remaining stock are skipped
+     */
+    BEST_EFFORT
+}
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -27,6 +28,26 @@ public class Config {
         private Map<String, Integer> totalItemsConfig;
         @JsonProperty("beverages")
         private Map<String, Map<String, Integer>> beverages;
+        @JsonProperty("brew_time_ms")
+        private Map<String, Long> brewTimes;
+        @JsonProperty("default_brew_time_ms")
+        private Long defaultBrewTime;
+        @JsonProperty("metrics_enabled")
+        private Boolean metricsEnabled;
+        @JsonProperty("journal")
+        private JournalConfig journalConfig;
+        @JsonProperty("coalescing")
+        private CoalescingConfig coalescingConfig;
+        /**
+         * shards the stock of contended ingredients so orders take it without shared writes
+         */
+        @JsonProperty("sharded_stock")
+        private Boolean shardedStock;
+        /**
+         * path of a precompiled catalog image holding the stock and beverages instead of this config
+         */
+        @JsonProperty("catalog_image")
+        private String catalogImage;
     }
 
     @Data
@@ -35,5 +56,64 @@ public class Config {
     public static class OutletConfig {
         @JsonProperty("count_n")
         private Integer count;
+        @JsonProperty("queue_depth")
+        private Integer queueDepth;
+        @JsonProperty("order_timeout_ms")
+        private Long orderTimeoutMillis;
+        /**
+         * classes of orders sharing the outlets, from the highest priority to the lowest
+         */
+        @JsonProperty("classes")
+        private List<OrderClassConfig> orderClasses;
+        /**
+         * outlets only the highest priority class may use
+         */
+        @JsonProperty("reserved_outlets")
+        private Integer reservedOutlets;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class OrderClassConfig {
+        @JsonProperty("name")
+        private String name;
+        /**
+         * share of the outlets the class gets while every class has orders waiting
+         */
+        @JsonProperty("weight")
+        private Integer weight;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class JournalConfig {
+        @JsonProperty("directory")
+        private String directory;
+        @JsonProperty("segment_bytes")
+        private Integer segmentBytes;
+        @JsonProperty("flush_ms")
+        private Long flushMillis;
+        @JsonProperty("snapshot_interval_ms")
+        private Long snapshotIntervalMillis;
+    }
+
+    /**
+     * Identical asynchronous orders arriving within the window are brewed together as one multi-cup batch
+     */
+    @Data
+    @NoArgsConstructor
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class CoalescingConfig {
+        @JsonProperty("window_ms")
+        private Long windowMillis;
+        /**
+         * most cups of a beverage brewed together by one outlet
+         */
+        @JsonProperty("batch_size")
+        private Map<String, Integer> batchSizes;
+        @JsonProperty("default_batch_size")
+        private Integer defaultBatchSize;
     }
 }
@@ -0,0 +1,32 @@
+package com.kunal.coffeemachine.pojo;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Point in time copy of a latency histogram: the non-empty buckets in ascending order, each with the upper bound
+ * of its range in nanoseconds and the number of values recorded in it.
+ */
+@Getter
+@AllArgsConstructor
+public class HistogramSnapshot {
+    long count;
+    long[] upperBounds;
+    long[] counts;
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return upper bound of the bucket holding the percentile in nanoseconds, 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return upperBounds[i];
+            }
+        }
+        return 0;
+    }
+}
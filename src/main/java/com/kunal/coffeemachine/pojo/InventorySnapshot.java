@@ -0,0 +1,26 @@
+package com.kunal.coffeemachine.pojo;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Map;
+
+/**
+ * Stock of every ingredient and occupancy of the outlets of a coffee machine, all as they were at one point in time.
+ */
+@Getter
+@AllArgsConstructor
+public class InventorySnapshot {
+    /**
+     * stock of every ingredient the machine holds, including what the shards of a sharded ingredient hold
+     */
+    Map<String, Integer> stock;
+    int numOutlets;
+    int usedOutlets;
+    int queuedOrders;
+    /**
+     * orders holding an outlet and their ingredients until they are committed or released, their ingredients are not
+     * part of the stock
+     */
+    int heldOrders;
+}
@@ -0,0 +1,37 @@
+package com.kunal.coffeemachine.pojo;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Map;
+
+/**
+ * Point in time copy of the metrics of a coffee machine.
+ */
+@Getter
+@AllArgsConstructor
+public class MetricsSnapshot {
+    long uptimeNanos;
+    int numOutlets;
+    int usedOutlets;
+    /**
+     * time weighted share of outlet capacity used since the machine started, between 0 and 1
+     */
+    double outletUtilization;
+    long unknownBeverageOrders;
+    long outletRetries;
+    long stockLockRetries;
+    Map<String, BeverageStats> beverages;
+    /**
+     * time prepared orders waited for an outlet, by order class from the highest priority to the lowest
+     */
+    Map<String, HistogramSnapshot> classQueueWait;
+
+    @Getter
+    @AllArgsConstructor
+    public static class BeverageStats {
+        Map<OrderStatus, Long> outcomes;
+        HistogramSnapshot queueWait;
+        HistogramSnapshot brewTime;
+    }
+}
@@ -0,0 +1,61 @@
+package com.kunal.coffeemachine.pojo;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * Result of one beverage order: its status and, for ingredient failures, the ingredient which failed it. Results
+ * are immutable, so the machine hands out the same instance for every order with the same outcome.
+ */
+@Getter
+public class OrderResult {
+    String beverageName;
+    OrderStatus status;
+    String ingredientName;
+    @Getter(AccessLevel.NONE)
+    String message;
+
+    public OrderResult(String beverageName, OrderStatus status, String ingredientName) {
+        this.beverageName = beverageName;
+        this.status = status;
+        this.ingredientName = ingredientName;
+    }
+
+    public boolean isPrepared() {
+        return status == OrderStatus.PREPARED;
+    }
+
+    /**
+     * @return the message the throwing API reports for the same outcome, built on first use
+     */
+    public String getMessage() {
+        String built = message;
+        if (built == null) {
+            built = isPrepared() ? beverageName + " is prepared" : beverageName + " cannot be prepared because " + getReason();
+            message = built;
+        }
+        return built;
+    }
+
+    /**
+     * @return why the beverage cannot be prepared, null if it was prepared
+     */
+    public String getReason() {
+        switch (status) {
+            case PREPARED:
+                return null;
+            case BEVERAGE_NOT_FOUND:
+                return "beverage not found";
+            case INGREDIENT_NOT_FOUND:
+                return ingredientName + " is not available";
+            case INSUFFICIENT_QUANTITY:
+                return ingredientName + " is not sufficient";
+            case ALL_SLOTS_OCCUPIED:
+                return "all slots are occupied";
+            case TIMED_OUT:
+                return "no slot was free before the order deadline";
+            default:
+                return "the rest of its batch cannot be prepared";
+        }
+    }
+}
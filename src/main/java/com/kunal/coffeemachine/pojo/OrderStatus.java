@@ -0,0 +1,20 @@
+package com.kunal.coffeemachine.pojo;
+
+/**
+ * Outcome of a single beverage order.
+ */
+public enum OrderStatus {
+    PREPARED,
+    BEVERAGE_NOT_FOUND,
+    INGREDIENT_NOT_FOUND,
+    INSUFFICIENT_QUANTITY,
+    ALL_SLOTS_OCCUPIED,
+    /**
+     * the order waited in the queue until its deadline without getting a slot
+     */
+    TIMED_OUT,
+    /**
+     * the beverage could be prepared on its own, but not the all-or-nothing batch it was ordered in
+     */
+    BATCH_REJECTED
+}
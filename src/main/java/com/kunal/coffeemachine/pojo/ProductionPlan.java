@@ -0,0 +1,39 @@
+package com.kunal.coffeemachine.pojo;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Map;
+
+/**
+ * Mix of beverages the stock of a coffee machine can still produce which maximizes the weighted number of cups.
+ */
+@Getter
+@AllArgsConstructor
+public class ProductionPlan {
+    /**
+     * cups of every beverage in the mix, beverages left out have none
+     */
+    Map<String, Integer> cups;
+    long totalCups;
+    /**
+     * the cups of the mix weighted by the demand weights
+     */
+    double value;
+    /**
+     * no mix is worth more than this, equal to the value when the plan is optimal
+     */
+    double upperBound;
+    /**
+     * true if no mix is worth more, false if the search stopped at its node limit or its tolerance
+     */
+    boolean optimal;
+    /**
+     * cups of every beverage the stock could produce if nothing else was made
+     */
+    Map<String, Integer> maxCups;
+    /**
+     * nodes of the search explored
+     */
+    long nodes;
+}
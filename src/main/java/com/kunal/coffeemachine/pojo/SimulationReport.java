@@ -0,0 +1,48 @@
+package com.kunal.coffeemachine.pojo;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Map;
+
+/**
+ * Outcome of replaying an order trace against a coffee machine in simulated time.
+ */
+@Getter
+@AllArgsConstructor
+public class SimulationReport {
+    /**
+     * simulated time from the start of the trace until the last order was settled
+     */
+    long simulatedMillis;
+    long orders;
+    long prepared;
+    /**
+     * beverages prepared per simulated second
+     */
+    double throughputPerSecond;
+    /**
+     * share of the orders not prepared, between 0 and 1
+     */
+    double rejectionRate;
+    /**
+     * orders not prepared, by cause
+     */
+    Map<OrderStatus, Long> rejections;
+    /**
+     * time weighted share of outlet capacity used over the simulation, between 0 and 1
+     */
+    double outletUtilization;
+    /**
+     * simulated times the stock was sampled at, in milliseconds
+     */
+    long[] sampleTimesMillis;
+    /**
+     * stock of every configured ingredient at every sample time
+     */
+    Map<String, int[]> stockCurves;
+    /**
+     * the metrics of the machine at the end of the simulation, latencies in simulated time
+     */
+    MetricsSnapshot metrics;
+}
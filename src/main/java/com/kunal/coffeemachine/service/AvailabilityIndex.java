@@ -0,0 +1,227 @@
+package com.kunal.coffeemachine.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Live set of the beverages the stock is sufficient for. Every beverage counts its ingredients with less stock than
+ * it needs and is available while that count is zero. A reverse index lists, for each ingredient, the beverages using
+ * it sorted by the quantity they need, so a stock change only visits the beverages whose quantity lies between the
+ * old and the new stock, usually none. A lookup is a single set read, but the stock of sharded ingredients reaches
+ * the index only when it is published, so the machine publishes it before every read at a cost growing with the
+ * sharded ingredients and their shards.
+ */
+class AvailabilityIndex implements StockStore.Observer {
+    private static final int[] UNUSED = new int[0];
+
+    private final BrewScheduler notifier;
+    private final Map<String, Integer> ids;
+    private final String[] names;
+    private final AtomicIntegerArray deficient;
+    private final Set<String> available;
+    private final int[][] quantitiesBySlot;
+    private final int[][] recipesBySlot;
+    /**
+     * whether the stock of the slot is counted yet, only read and written under the slot lock
+     */
+    private final boolean[] counted;
+    private volatile AvailabilityListener[] listeners;
+    private volatile boolean retired;
+
+    AvailabilityIndex(StockStore store, Collection<Recipe> recipes, BrewScheduler notifier) {
+        this.notifier = notifier;
+        this.ids = new HashMap<>(recipes.size() * 2);
+        this.names = new String[recipes.size()];
+        this.deficient = new AtomicIntegerArray(recipes.size());
+        this.available = ConcurrentHashMap.newKeySet();
+        this.listeners = new AvailabilityListener[0];
+
+        List<List<int[]>> uses = new ArrayList<>();
+        int id = 0;
+        for (Recipe recipe : recipes) {
+            names[id] = recipe.getName();
+            ids.put(recipe.getName(), id);
+            int[] slots = recipe.getSlots();
+            int[] quantities = recipe.getQuantities();
+            for (int i = 0; i < slots.length; i++) {
+                while (uses.size() <= slots[i]) {
+                    uses.add(new ArrayList<>());
+                }
+                uses.get(slots[i]).add(new int[]{quantities[i], id});
+            }
+            id++;
+        }
+        quantitiesBySlot = new int[uses.size()][];
+        recipesBySlot = new int[uses.size()][];
+        counted = new boolean[uses.size()];
+        for (int slot = 0; slot < uses.size(); slot++) {
+            List<int[]> slotUses = uses.get(slot);
+            slotUses.sort((a, b) -> Integer.compare(a[0], b[0]));
+            quantitiesBySlot[slot] = slotUses.isEmpty() ? UNUSED : new int[slotUses.size()];
+            recipesBySlot[slot] = slotUses.isEmpty() ? UNUSED : new int[slotUses.size()];
+            for (int i = 0; i < slotUses.size(); i++) {
+                quantitiesBySlot[slot][i] = slotUses.get(i)[0];
+                recipesBySlot[slot][i] = slotUses.get(i)[1];
+            }
+        }
+        store.addObserver(this);
+        // the index may be built while orders run, so each slot is counted under its lock: changes before are part
+        // of the stock read, changes after reach stockChanged once the slot is counted
+        for (int slot = 0; slot < quantitiesBySlot.length; slot++) {
+            if (quantitiesBySlot[slot] == UNUSED) {
+                continue;
+            }
+            store.lock(slot);
+            try {
+                int stock = store.observed(slot);
+                for (int i = 0; i < quantitiesBySlot[slot].length; i++) {
+                    if (!sufficient(stock, quantitiesBySlot[slot][i])) {
+                        deficient.incrementAndGet(recipesBySlot[slot][i]);
+                    }
+                }
+                counted[slot] = true;
+            } finally {
+                store.unlock(slot);
+            }
+        }
+        for (int recipe = 0; recipe < names.length; recipe++) {
+            reconcile(recipe);
+        }
+    }
+
+    @Override
+    public void stockChanged(int slot, int oldStock, int newStock) {
+        if (slot >= quantitiesBySlot.length || oldStock == newStock || !counted[slot]) {
+            return;
+        }
+        int[] quantities = quantitiesBySlot[slot];
+        int[] recipes = recipesBySlot[slot];
+        // the beverages needing more than the lower and at most the higher stock changed sides
+        int from = firstAbove(quantities, Math.min(oldStock, newStock));
+        int to = firstAbove(quantities, Math.max(oldStock, newStock));
+        int delta = newStock < oldStock ? 1 : -1;
+        for (int i = from; i < to; i++) {
+            int recipe = recipes[i];
+            int count = deficient.addAndGet(recipe, delta);
+            if (count == 0 || (count == 1 && delta > 0)) {
+                publish(recipe);
+            }
+        }
+    }
+
+    /**
+     * @param beverageName The name of the beverage requested.
+     * @return true if the stock is sufficient for the beverage, false for unknown beverages
+     */
+    boolean isAvailable(String beverageName) {
+        return available.contains(beverageName);
+    }
+
+    /**
+     * @return the beverages the stock is currently sufficient for
+     */
+    Set<String> availableBeverages() {
+        return Collections.unmodifiableSet(available);
+    }
+
+    /**
+     * registers a listener called, on a scheduler thread, whenever a beverage becomes available or unavailable
+     *
+     * @param listener the listener
+     */
+    synchronized void addListener(AvailabilityListener listener) {
+        AvailabilityListener[] grown = Arrays.copyOf(listeners, listeners.length + 1);
+        grown[listeners.length] = listener;
+        listeners = grown;
+    }
+
+    /**
+     * takes the listeners over from the index of the previous catalog of the machine and tells them the availability
+     * of every beverage of either catalog, so beverages added or removed by the new catalog are announced too. The
+     * previous index stops notifying.
+     *
+     * @param previous the index replaced by this one
+     */
+    synchronized void takeOver(AvailabilityIndex previous) {
+        AvailabilityListener[] inherited;
+        synchronized (previous) {
+            previous.retired = true;
+            inherited = previous.listeners;
+            previous.listeners = new AvailabilityListener[0];
+        }
+        AvailabilityListener[] grown = Arrays.copyOf(listeners, listeners.length + inherited.length);
+        System.arraycopy(inherited, 0, grown, listeners.length, inherited.length);
+        listeners = grown;
+        Set<String> beverages = new HashSet<>(Arrays.asList(names));
+        beverages.addAll(Arrays.asList(previous.names));
+        for (String name : beverages) {
+            notifyListeners(name);
+        }
+    }
+
+    /**
+     * brings the available set in line with the count of the beverage and notifies the listeners
+     */
+    private void publish(int recipe) {
+        reconcile(recipe);
+        notifyListeners(names[recipe]);
+    }
+
+    /**
+     * brings the available set in line with the count of the beverage. Changes of different ingredients race, so the
+     * count is read again after the set is updated until both agree, the last thread to touch the set leaves it right.
+     */
+    private void reconcile(int recipe) {
+        String name = names[recipe];
+        boolean isAvailable;
+        do {
+            isAvailable = deficient.get(recipe) == 0;
+            if (isAvailable) {
+                available.add(name);
+            } else {
+                available.remove(name);
+            }
+        } while (isAvailable != (deficient.get(recipe) == 0));
+    }
+
+    private void notifyListeners(String name) {
+        for (AvailabilityListener listener : listeners) {
+            // the listener gets the state when it runs, so the last notification of a beverage is always right
+            notifier.execute(() -> {
+                if (!retired) {
+                    listener.onAvailabilityChanged(name, available.contains(name));
+                }
+            });
+        }
+    }
+
+    private static boolean sufficient(int stock, int quantity) {
+        return stock != StockStore.ABSENT && stock >= quantity;
+    }
+
+    /**
+     * @return index of the first quantity greater than the stock
+     */
+    private static int firstAbove(int[] quantities, int stock) {
+        int low = 0;
+        int high = quantities.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (quantities[middle] <= stock) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,14 @@
+package com.kunal.coffeemachine.service;
+
+/**
+ * Listener notified when a beverage becomes available or unavailable.
+ */
+@FunctionalInterface
+interface AvailabilityListener {
+
+    /**
+     * @param beverageName The name of the beverage.
+     * @param available    whether the beverage can be prepared from the current stock when the listener is called
+     */
+    void onAvailabilityChanged(String beverageName, boolean available);
+}
@@ -0,0 +1,44 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.pojo.MetricsSnapshot;
+import com.kunal.coffeemachine.pojo.OrderStatus;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of one beverage: orders by outcome, time spent waiting for an outlet and time spent brewing.
+ */
+class BeverageMetrics {
+    private final LongAdder[] outcomes;
+    private final LatencyHistogram queueWait;
+    private final LatencyHistogram brewTime;
+
+    BeverageMetrics() {
+        outcomes = new LongAdder[OrderStatus.values().length];
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = new LongAdder();
+        }
+        queueWait = new LatencyHistogram();
+        brewTime = new LatencyHistogram();
+    }
+
+    void outcome(OrderStatus status) {
+        outcomes[status.ordinal()].increment();
+    }
+
+    void prepared(long queueWaitNanos, long brewNanos) {
+        outcomes[OrderStatus.PREPARED.ordinal()].increment();
+        queueWait.record(queueWaitNanos);
+        brewTime.record(brewNanos);
+    }
+
+    MetricsSnapshot.BeverageStats snapshot() {
+        Map<OrderStatus, Long> counts = new EnumMap<>(OrderStatus.class);
+        for (OrderStatus status : OrderStatus.values()) {
+            counts.put(status, outcomes[status.ordinal()].sum());
+        }
+        return new MetricsSnapshot.BeverageStats(counts, queueWait.snapshot(), brewTime.snapshot());
+    }
+}
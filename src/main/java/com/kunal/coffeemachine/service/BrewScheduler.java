@@ -0,0 +1,112 @@
+package com.kunal.coffeemachine.service;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives the timed events of coffee machines, brewing completions and order deadlines. A beverage being brewed is
+ * only a pending event, no thread waits for it, so a few scheduler threads serve every outlet of every machine. It is
+ * also the clock of the machines it drives, which lets {@link VirtualClock} replace both time and threads.
+ */
+class BrewScheduler {
+    private static final BrewScheduler SHARED = new BrewScheduler(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    BrewScheduler(int threads) {
+        this("brew-scheduler", threads);
+    }
+
+    BrewScheduler(String name, int threads) {
+        executor = new ScheduledThreadPoolExecutor(threads, daemonThreads(name));
+        // cancelled order deadlines are dropped straight away instead of piling up until they are due
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * for schedulers which run the events themselves instead of on threads of their own
+     */
+    BrewScheduler() {
+        executor = null;
+    }
+
+    /**
+     * @return the scheduler shared by all coffee machines of this process
+     */
+    static BrewScheduler shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return the current time of the machines driven by this scheduler in nanoseconds, only meaningful as a
+     * difference
+     */
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * @return true if events only run once the clock is advanced, so no thread may wait for them
+     */
+    boolean isVirtual() {
+        return false;
+    }
+
+    /**
+     * runs the task once the delay has passed, tasks without delay are run by the calling thread
+     *
+     * @param task        the task to run
+     * @param delayMillis delay in milliseconds
+     */
+    void schedule(Runnable task, long delayMillis) {
+        if (delayMillis <= 0) {
+            task.run();
+        } else {
+            executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * runs the task on a scheduler thread as soon as possible
+     *
+     * @param task the task to run
+     */
+    void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * runs the task once the delay has passed unless cancelled before
+     *
+     * @param task        the task to run
+     * @param delayMillis delay in milliseconds
+     * @return handle to cancel the task
+     */
+    ScheduledFuture<?> scheduleCancellable(Runnable task, long delayMillis) {
+        return executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * runs the task repeatedly with the given delay between the end of a run and the start of the next, until
+     * cancelled
+     *
+     * @param task         the task to run
+     * @param periodMillis delay between runs in milliseconds
+     * @return handle to cancel the task
+     */
+    ScheduledFuture<?> scheduleRepeating(Runnable task, long periodMillis) {
+        return executor.scheduleWithFixedDelay(task, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger(0);
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
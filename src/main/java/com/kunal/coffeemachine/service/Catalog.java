@@ -0,0 +1,104 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.pojo.Beverage;
+import com.kunal.coffeemachine.pojo.Config;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The beverages a coffee machine offers, compiled against its stock store, with the index of the ones its stock is
+ * sufficient for. A catalog never changes once built: a new config is loaded by building a new catalog and swapping
+ * the reference, so orders read it without locking and an order in flight keeps the recipe it started with. Only the
+ * recipes are compiled up front, the beverages as the config named them are rebuilt from the menu when asked for.
+ */
+@Getter
+class Catalog {
+    @Getter(AccessLevel.NONE)
+    private final Menu menu;
+    @Getter(AccessLevel.NONE)
+    private volatile Map<String, Beverage> beverages;
+    private final Map<String, Recipe> recipes;
+    private final AvailabilityIndex availabilityIndex;
+
+    private Catalog(Menu menu, Map<String, Recipe> recipes, AvailabilityIndex availabilityIndex) {
+        this.menu = menu;
+        this.recipes = Collections.unmodifiableMap(recipes);
+        this.availabilityIndex = availabilityIndex;
+    }
+
+    /**
+     * compiles the beverages of the menu, interning every ingredient they use in the store
+     *
+     * @param machineConfig config of the machine, for its brew times and batch sizes
+     * @param menu          the beverages of the machine
+     * @param store         stock store of the machine
+     * @param notifier      runs the availability listeners
+     * @param previous      the catalog being replaced, whose beverages keep their metrics, or null
+     * @return the compiled catalog, its availability index already follows the stock
+     */
+    static Catalog compile(Config.MachineConfig machineConfig, Menu menu, StockStore store, BrewScheduler notifier,
+                           Catalog previous) {
+        Map<String, Recipe> recipes = compileRecipes(machineConfig, menu, store);
+        if (Objects.nonNull(previous)) {
+            for (Recipe recipe : recipes.values()) {
+                Recipe replaced = previous.recipes.get(recipe.getName());
+                if (Objects.nonNull(replaced)) {
+                    recipe.shareMetrics(replaced);
+                }
+            }
+        }
+        return new Catalog(menu, recipes, new AvailabilityIndex(store, recipes.values(), notifier));
+    }
+
+    /**
+     * compiles the beverages of the menu with the brew times and batch sizes of the config, interning every
+     * ingredient they use in the store
+     *
+     * @param machineConfig config of the machine
+     * @param menu          the beverages of the machine
+     * @param store         store interning the ingredients
+     * @return the recipes by beverage name
+     */
+    static Map<String, Recipe> compileRecipes(Config.MachineConfig machineConfig, Menu menu, StockStore store) {
+        Map<String, Long> brewTimes = Objects.isNull(machineConfig.getBrewTimes()) ? new HashMap<>() : machineConfig.getBrewTimes();
+        long defaultBrewTime = Objects.isNull(machineConfig.getDefaultBrewTime())
+                ? CoffeeMachineService.DEFAULT_BREW_TIME_MILLIS : machineConfig.getDefaultBrewTime();
+        Config.CoalescingConfig coalescing = machineConfig.getCoalescingConfig();
+        Map<String, Integer> batchSizes = Objects.isNull(coalescing) || Objects.isNull(coalescing.getBatchSizes())
+                ? new HashMap<>() : coalescing.getBatchSizes();
+        int defaultBatchSize = Objects.isNull(coalescing) ? 1 : Objects.isNull(coalescing.getDefaultBatchSize())
+                ? OrderCoalescer.DEFAULT_BATCH_SIZE : coalescing.getDefaultBatchSize();
+        int[] slotOf = new int[menu.ingredientCount()];
+        for (int i = 0; i < slotOf.length; i++) {
+            slotOf[i] = store.slot(menu.getIngredientNames()[i]);
+        }
+        Map<String, Recipe> recipes = new HashMap<>(menu.beverageCount() * 2);
+        for (int b = 0; b < menu.beverageCount(); b++) {
+            String name = menu.getBeverageNames()[b];
+            recipes.put(name, Recipe.compile(menu, b, slotOf, brewTimes.getOrDefault(name, defaultBrewTime),
+                    Math.max(1, batchSizes.getOrDefault(name, defaultBatchSize))));
+        }
+        return recipes;
+    }
+
+    /**
+     * @return the beverages of the catalog by name, built from the menu on first use
+     */
+    Map<String, Beverage> getBeverages() {
+        Map<String, Beverage> current = beverages;
+        if (Objects.isNull(current)) {
+            Map<String, Beverage> built = new HashMap<>(menu.beverageCount() * 2);
+            for (int b = 0; b < menu.beverageCount(); b++) {
+                built.put(menu.getBeverageNames()[b], new Beverage(menu.getBeverageNames()[b], menu.recipe(b)));
+            }
+            current = Collections.unmodifiableMap(built);
+            beverages = current;
+        }
+        return current;
+    }
+}
@@ -0,0 +1,168 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.exception.AllSlotsOccupiedException;
+import com.kunal.coffeemachine.exception.PreparationException;
+import com.kunal.coffeemachine.pojo.OrderResult;
+import com.kunal.coffeemachine.pojo.OrderStatus;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Routes orders over many coffee machines. Every beverage has a route listing the machines whose stock is sufficient
+ * for it, kept up to date by the availability listeners of the machines, so an order never looks at machines which
+ * cannot make it. Of the machines on the route two are picked at random and the one with the shorter expected wait
+ * gets the order, which spreads load almost as well as asking every machine while reading only two.
+ * <p>
+ * An order failing on its machine, because its outlets filled up or its stock ran out since the route was updated,
+ * is tried on at most {@link #MAX_ATTEMPTS} machines in total, so a saturated fleet answers quickly instead of
+ * multiplying the load with retries.
+ */
+@Getter
+class CoffeeMachineFleet {
+    static final int MAX_ATTEMPTS = 3;
+
+    private final List<CoffeeMachineService> machines;
+    private final Map<String, Route> routes;
+
+    CoffeeMachineFleet(List<CoffeeMachineService> machines) {
+        this.machines = new ArrayList<>(machines);
+        this.routes = new ConcurrentHashMap<>();
+        for (int id = 0; id < this.machines.size(); id++) {
+            CoffeeMachineService machine = this.machines.get(id);
+            int machineId = id;
+            machine.addAvailabilityListener((beverage, available) -> update(machineId, beverage, available));
+            for (String beverage : machine.getRecipes().keySet()) {
+                update(machineId, beverage, machine.isAvailable(beverage));
+            }
+        }
+    }
+
+    /**
+     * prepares the beverage on the machine expected to serve it first, failing over to other machines able to
+     * prepare it
+     *
+     * @param beverageName The name of the beverage requested.
+     * @return Success Message if beverage is prepared
+     * @throws PreparationException,AllSlotsOccupiedException if no machine tried could prepare the beverage
+     */
+    String getBeverage(String beverageName) throws PreparationException, AllSlotsOccupiedException {
+        Route route = routes.get(beverageName);
+        if (Objects.isNull(route)) {
+            throw new PreparationException(beverageName, "beverage not found");
+        }
+        int[] candidates = route.machines;
+        if (candidates.length == 0) {
+            throw new PreparationException(beverageName, "no machine has sufficient ingredients");
+        }
+        int attempts = Math.min(MAX_ATTEMPTS, candidates.length);
+        int[] tried = new int[attempts];
+        OrderResult result = null;
+        for (int attempt = 0; attempt < attempts; attempt++) {
+            int machine = choose(beverageName, candidates, tried, attempt);
+            tried[attempt] = machine;
+            // failed attempts are only reported once the last one failed, so failing over builds no exceptions
+            result = machines.get(machine).tryGetBeverage(beverageName);
+            if (result.isPrepared()) {
+                return result.getMessage();
+            }
+        }
+        if (result.getStatus() == OrderStatus.ALL_SLOTS_OCCUPIED) {
+            throw new AllSlotsOccupiedException(beverageName);
+        }
+        throw new PreparationException(beverageName, result.getReason());
+    }
+
+    /**
+     * @return the machines whose stock is currently sufficient for the beverage
+     */
+    int[] machinesFor(String beverageName) {
+        Route route = routes.get(beverageName);
+        return Objects.isNull(route) ? new int[0] : route.machines.clone();
+    }
+
+    /**
+     * picks the better of two random candidates not tried yet, or the first untried one after a random start when
+     * the sample only found tried ones
+     */
+    private int choose(String beverageName, int[] candidates, int[] tried, int triedCount) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = candidates[random.nextInt(candidates.length)];
+        int second = candidates[random.nextInt(candidates.length)];
+        boolean firstTried = contains(tried, triedCount, first);
+        boolean secondTried = contains(tried, triedCount, second);
+        if (!firstTried && !secondTried) {
+            return expectedWait(first, beverageName) <= expectedWait(second, beverageName) ? first : second;
+        }
+        if (!firstTried) {
+            return first;
+        }
+        if (!secondTried) {
+            return second;
+        }
+        int start = random.nextInt(candidates.length);
+        for (int i = 0; i < candidates.length; i++) {
+            int candidate = candidates[(start + i) % candidates.length];
+            if (!contains(tried, triedCount, candidate)) {
+                return candidate;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * @return time in milliseconds until the machine would have brewed the beverage, assuming every busy or queued
+     * order brews as long as it
+     */
+    private double expectedWait(int machineId, String beverageName) {
+        CoffeeMachineService machine = machines.get(machineId);
+        OutletScheduler outlets = machine.getOutletScheduler();
+        int busy = outlets.getUsedOutlets().get() + outlets.getQueuedOrders().get();
+        Recipe recipe = machine.getRecipes().get(beverageName);
+        long brewTime = Objects.isNull(recipe) ? 0 : recipe.getBrewTimeMillis();
+        // machines which brew instantly are still told apart by how busy they are
+        return (busy + 1) * (double) Math.max(brewTime, 1) / outlets.getNumOutlets();
+    }
+
+    private synchronized void update(int machineId, String beverageName, boolean available) {
+        Route route = routes.computeIfAbsent(beverageName, name -> new Route());
+        int[] current = route.machines;
+        boolean listed = contains(current, current.length, machineId);
+        if (available && !listed) {
+            int[] grown = new int[current.length + 1];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            grown[current.length] = machineId;
+            route.machines = grown;
+        } else if (!available && listed) {
+            int[] shrunk = new int[current.length - 1];
+            int n = 0;
+            for (int machine : current) {
+                if (machine != machineId) {
+                    shrunk[n++] = machine;
+                }
+            }
+            route.machines = shrunk;
+        }
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Machines able to prepare one beverage, replaced as a whole on every change so orders read it without locking.
+     */
+    private static class Route {
+        volatile int[] machines = new int[0];
+    }
+}
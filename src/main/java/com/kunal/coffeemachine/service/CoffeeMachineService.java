@@ -1,33 +1,58 @@
 package com.kunal.coffeemachine.service;
 
 import com.kunal.coffeemachine.exception.AllSlotsOccupiedException;
-import com.kunal.coffeemachine.exception.IngredientNotFoundException;
-import com.kunal.coffeemachine.exception.InsufficientQuantityException;
+import com.kunal.coffeemachine.exception.HoldExpiredException;
+import com.kunal.coffeemachine.exception.OrderTimeoutException;
 import com.kunal.coffeemachine.exception.PreparationException;
+import com.kunal.coffeemachine.pojo.BatchMode;
 import com.kunal.coffeemachine.pojo.Beverage;
 import com.kunal.coffeemachine.pojo.Config;
 import com.kunal.coffeemachine.pojo.Ingredient;
+import com.kunal.coffeemachine.pojo.InventorySnapshot;
+import com.kunal.coffeemachine.pojo.MetricsSnapshot;
+import com.kunal.coffeemachine.pojo.OrderResult;
+import com.kunal.coffeemachine.pojo.OrderStatus;
+import com.kunal.coffeemachine.pojo.ProductionPlan;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.util.StringUtils;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 
 /**
- * This class is used to initialize a coffee Machine and use all its functions
+ * This class is used to initialize a coffee Machine and use all its functions. The beverages offered are held in an
+ * immutable catalog which {@link #reload(Config)} swaps while orders are in flight. Orders needing a confirmation step
+ * {@link #reserve(String, long) hold} their ingredients and an outlet until they are committed or released.
  */
 @Slf4j
 @Getter
 class CoffeeMachineService {
-    Map<String, Ingredient> ingredientsMap;
-    Map<String, Beverage> beveragesMap;
-    Integer numOutlets;
+    static final long DEFAULT_BREW_TIME_MILLIS = 1000;
+
+    StockStore stockStore;
+    LowStockIndex lowStockIndex;
+    volatile Catalog catalog;
     AtomicInteger usedOutlets;
+    ReservationEngine reservationEngine;
+    OutletScheduler outletScheduler;
+    BrewScheduler brewScheduler;
+    MachineMetrics metrics;
+    StockJournal journal;
+    OrderCoalescer coalescer;
+    ProductionPlanner productionPlanner;
+    HoldWheel holdWheel;
 
     /**
      * checks the available stock with the requested quantity for the ingredient
@@ -35,20 +60,126 @@ class CoffeeMachineService {
      * @param config initialises a coffee machine with given config
      */
     CoffeeMachineService(Config config) {
+        this(config, BrewScheduler.shared());
+    }
+
+    /**
+     * @param config        initialises a coffee machine with given config
+     * @param brewScheduler drives the brews and deadlines of the machine and is its clock, a {@link VirtualClock}
+     *                      runs the machine in simulated time
+     */
+    CoffeeMachineService(Config config, BrewScheduler brewScheduler) {
+        this(config, Menu.of(config.getMachineConfig()), brewScheduler);
+    }
+
+    /**
+     * @param config        initialises a coffee machine with given config, its stock and beverages are not read
+     * @param menu          the stock and beverages of the machine, as streamed by {@link ConfigLoader} or mapped from a
+     *                      catalog image
+     * @param brewScheduler drives the brews and deadlines of the machine and is its clock
+     */
+    CoffeeMachineService(Config config, Menu menu, BrewScheduler brewScheduler) {
         Config.MachineConfig machineConfig = config.getMachineConfig();
-        numOutlets = machineConfig.getOutletConfig().getCount();
         usedOutlets = new AtomicInteger(0);
+        this.brewScheduler = brewScheduler;
+        metrics = new MachineMetrics(!Boolean.FALSE.equals(machineConfig.getMetricsEnabled()), brewScheduler);
+        outletScheduler = new OutletScheduler(machineConfig.getOutletConfig(), usedOutlets, brewScheduler, metrics);
 
-        ingredientsMap = new HashMap<>(machineConfig.getTotalItemsConfig().size());
-        for (Map.Entry<String, Integer> entry : machineConfig.getTotalItemsConfig().entrySet()) {
-            Ingredient ingredient = new Ingredient(entry.getKey(), entry.getValue());
-            ingredientsMap.put(entry.getKey(), ingredient);
+        stockStore = new StockStore();
+        if (Boolean.TRUE.equals(machineConfig.getShardedStock())) {
+            stockStore.enableSharding(2 * Runtime.getRuntime().availableProcessors());
+        }
+        lowStockIndex = new LowStockIndex(stockStore, brewScheduler);
+        Map<String, Integer> stock = new HashMap<>();
+        for (int i = 0; i < menu.ingredientCount(); i++) {
+            if (menu.getStock()[i] != StockStore.ABSENT) {
+                stock.put(menu.getIngredientNames()[i], menu.getStock()[i]);
+            }
+        }
+        Config.JournalConfig journalConfig = machineConfig.getJournalConfig();
+        if (Objects.nonNull(journalConfig)) {
+            // the journal has the stock left when the machine stopped, the config only adds new ingredients
+            stock.putAll(recoverStock(journalConfig));
         }
+        for (Map.Entry<String, Integer> entry : stock.entrySet()) {
+            stockStore.set(entry.getKey(), entry.getValue());
+        }
+        if (Objects.nonNull(journalConfig)) {
+            journal = openJournal(journalConfig);
+        }
+        reservationEngine = new ReservationEngine(stockStore);
+        productionPlanner = new ProductionPlanner();
+        holdWheel = new HoldWheel(brewScheduler, this::expireHold);
+        catalog = Catalog.compile(machineConfig, menu, stockStore, brewScheduler, null);
+        Config.CoalescingConfig coalescingConfig = machineConfig.getCoalescingConfig();
+        if (Objects.nonNull(coalescingConfig)) {
+            coalescer = new OrderCoalescer(coalescingConfig.getWindowMillis(), brewScheduler, this::brewCups,
+                    outletScheduler.getClasses().length);
+        }
+    }
 
-        beveragesMap = new HashMap<>(machineConfig.getBeverages().size());
-        for (Map.Entry<String, Map<String, Integer>> entry : machineConfig.getBeverages().entrySet()) {
-            Beverage beverage = new Beverage(entry.getKey(), entry.getValue());
-            beveragesMap.put(entry.getKey(), beverage);
+    /**
+     * Loads a new version of the config while orders are in flight, without pausing them. Recipes, brew times and
+     * outlets are replaced as a whole, ingredients new to the machine get their configured stock and ingredients it
+     * already holds keep their current stock, so nothing ordered or refilled is lost. Orders already started finish
+     * with the recipe they started with. Metrics, the journal and the order classes stay as the machine was started.
+     *
+     * @param config the new config of the machine
+     */
+    synchronized void reload(Config config) {
+        Config.MachineConfig machineConfig = config.getMachineConfig();
+        Config.OutletConfig outletConfig = machineConfig.getOutletConfig();
+        // checks the outlets first, so an invalid config changes nothing else
+        outletScheduler.reconfigure(outletConfig);
+        Menu menu = Menu.of(machineConfig);
+        for (int i = 0; i < menu.ingredientCount(); i++) {
+            if (menu.getStock()[i] != StockStore.ABSENT) {
+                stockStore.setIfAbsent(menu.getIngredientNames()[i], menu.getStock()[i]);
+            }
+        }
+        Catalog previous = catalog;
+        Catalog next = Catalog.compile(machineConfig, menu, stockStore, brewScheduler, previous);
+        catalog = next;
+        next.getAvailabilityIndex().takeOver(previous.getAvailabilityIndex());
+        stockStore.removeObserver(previous.getAvailabilityIndex());
+        log.info("Reloaded config with {} beverages and {} outlets", next.getRecipes().size(), outletConfig.getCount());
+    }
+
+    /**
+     * @return the compiled beverages of the current catalog
+     */
+    Map<String, Recipe> getRecipes() {
+        return catalog.getRecipes();
+    }
+
+    /**
+     * @return the beverages of the current catalog
+     */
+    Map<String, Beverage> getBeveragesMap() {
+        return catalog.getBeverages();
+    }
+
+    /**
+     * @return the number of outlets of the machine
+     */
+    int getNumOutlets() {
+        return outletScheduler.getNumOutlets();
+    }
+
+    private Map<String, Integer> recoverStock(Config.JournalConfig journalConfig) {
+        try {
+            return StockJournal.recover(Paths.get(journalConfig.getDirectory()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot recover stock from " + journalConfig.getDirectory(), e);
+        }
+    }
+
+    private StockJournal openJournal(Config.JournalConfig journalConfig) {
+        try {
+            return StockJournal.open(Paths.get(journalConfig.getDirectory()), stockStore, journalConfig.getSegmentBytes(),
+                    journalConfig.getFlushMillis(), journalConfig.getSnapshotIntervalMillis());
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot open stock journal in " + journalConfig.getDirectory(), e);
         }
     }
 
@@ -60,130 +191,593 @@ class CoffeeMachineService {
      * @throws PreparationException,AllSlotsOccupiedException if unable to prepare beverage
      */
     String getBeverage(String beverageName) throws PreparationException, AllSlotsOccupiedException {
-        Beverage requestedBeverage = beveragesMap.get(beverageName);
-        if (Objects.isNull(requestedBeverage)) {
-            throw new PreparationException(beverageName, "beverage not found");
+        return getBeverage(beverageName, null);
+    }
+
+    /**
+     * checks if it is possible to prepare the requested beverage for an order of the given class
+     *
+     * @param beverageName The name of the beverage requested.
+     * @param orderClass   The name of the order class, null for the default class.
+     * @return Success Message if beverage is prepared
+     * @throws PreparationException,AllSlotsOccupiedException if unable to prepare beverage
+     * @throws IllegalArgumentException                        if the order class is not configured
+     */
+    String getBeverage(String beverageName, String orderClass) throws PreparationException, AllSlotsOccupiedException {
+        OrderResult result = tryGetBeverage(beverageName, outletScheduler.orderClass(orderClass));
+        switch (result.getStatus()) {
+            case PREPARED:
+                return result.getMessage();
+            case ALL_SLOTS_OCCUPIED:
+                throw new AllSlotsOccupiedException(beverageName);
+            default:
+                throw new PreparationException(beverageName, result.getReason());
         }
-        incrementParallelRequests(beverageName);
-        try {
-            checkIngredientsAndStock(requestedBeverage);
-            prepareBeverage(requestedBeverage);
-            return requestedBeverage.getName() + " is prepared";
-        } catch (IngredientNotFoundException | InsufficientQuantityException e) {
-            throw new PreparationException(beverageName, e.getMessage());
-        } finally {
-            decrementParallelRequests();
+    }
+
+    /**
+     * prepares the requested beverage if possible and reports the outcome without throwing. Known beverages always
+     * get a result built when the machine started, so neither outcome allocates.
+     *
+     * @param beverageName The name of the beverage requested.
+     * @return result of the order, its status tells whether the beverage was prepared and if not why
+     */
+    OrderResult tryGetBeverage(String beverageName) {
+        return tryGetBeverage(beverageName, outletScheduler.getDefaultClass());
+    }
+
+    /**
+     * prepares the requested beverage for an order of the given class if possible and reports the outcome without
+     * throwing
+     *
+     * @param beverageName The name of the beverage requested.
+     * @param orderClass   The name of the order class, null for the default class.
+     * @return result of the order
+     * @throws IllegalArgumentException if the order class is not configured
+     */
+    OrderResult tryGetBeverage(String beverageName, String orderClass) {
+        return tryGetBeverage(beverageName, outletScheduler.orderClass(orderClass));
+    }
+
+    private OrderResult tryGetBeverage(String beverageName, OrderClass orderClass) {
+        Recipe recipe = catalog.getRecipes().get(beverageName);
+        if (Objects.isNull(recipe)) {
+            metrics.unknownBeverage();
+            return new OrderResult(beverageName, OrderStatus.BEVERAGE_NOT_FOUND, null);
+        }
+        if (recipe.getBrewTimeMillis() > 0 && brewScheduler.isVirtual()) {
+            throw new IllegalStateException(beverageName + " cannot be awaited on a virtual clock, order it asynchronously");
+        }
+        if (!outletScheduler.tryAcquire(orderClass)) {
+            metrics.outcome(recipe, OrderStatus.ALL_SLOTS_OCCUPIED);
+            return recipe.getAllSlotsOccupiedResult();
         }
+        OrderResult reserved = reservationEngine.tryReserve(recipe);
+        if (!reserved.isPrepared()) {
+            reservationFailed(recipe, reserved.getStatus());
+            return reserved;
+        }
+        if (recipe.getBrewTimeMillis() <= 0) {
+            // nothing to wait for, keep the order path free of allocations and, as synchronous orders never queue,
+            // of clock reads
+            decrementParallelRequests(0, 0);
+            metrics.prepared(recipe, orderClass, 0, 0, 0);
+            return reserved;
+        }
+        long startedAt = metrics.now();
+        CompletableFuture<String> prepared = new CompletableFuture<>();
+        brewBeverage(recipe, orderClass, prepared, startedAt, startedAt);
+        // the synchronous API waits for the brew, the brew itself does not occupy this thread. A brew which cannot
+        // end fails the future, so join throws rather than waits forever.
+        prepared.join();
+        return reserved;
     }
 
     /**
-     * checks if all ingredients required for beverage are present and are sufficient
+     * queues the requested beverage for the next free outlet. With coalescing configured, identical orders arriving
+     * within the window are brewed together as one multi-cup order.
      *
-     * @param beverage The beverage requested.
-     * @throws IngredientNotFoundException,InsufficientQuantityException if ingredient not found or insufficient
+     * @param beverageName The name of the beverage requested.
+     * @return future completed with the Success Message once the beverage is prepared, or exceptionally with
+     * PreparationException, AllSlotsOccupiedException if the queue is full or OrderTimeoutException if no outlet
+     * was free before the order deadline
      */
-    private void checkIngredientsAndStock(Beverage beverage) throws IngredientNotFoundException, InsufficientQuantityException {
-        Map<String, Integer> requiredIngredients = beverage.getIngredientQuantityMap();
-        String missingIngredient = null;
-        String insufficientIngredient = null;
-        for (Map.Entry<String, Integer> entry : requiredIngredients.entrySet()) {
-            Ingredient ingredient = this.ingredientsMap.get(entry.getKey());
-            if (Objects.isNull(ingredient)) {
-                missingIngredient = entry.getKey();
-                break;
-            }
-            try {
-                ingredient.checkStock(entry.getValue());
-            } catch (InsufficientQuantityException e) {
-                insufficientIngredient = entry.getKey();
+    CompletableFuture<String> getBeverageAsync(String beverageName) {
+        return getBeverageAsync(beverageName, outletScheduler.getOrderTimeoutMillis());
+    }
+
+    /**
+     * queues the requested beverage for the next free outlet
+     *
+     * @param beverageName  The name of the beverage requested.
+     * @param timeoutMillis how long the order may wait for a free outlet
+     * @return future completed with the Success Message once the beverage is prepared
+     */
+    CompletableFuture<String> getBeverageAsync(String beverageName, long timeoutMillis) {
+        return getBeverageAsync(beverageName, outletScheduler.getDefaultClass(), timeoutMillis);
+    }
+
+    /**
+     * queues the requested beverage of an order of the given class for the next free outlet the class may use
+     *
+     * @param beverageName The name of the beverage requested.
+     * @param orderClass   The name of the order class, null for the default class.
+     * @return future completed with the Success Message once the beverage is prepared
+     * @throws IllegalArgumentException if the order class is not configured
+     */
+    CompletableFuture<String> getBeverageAsync(String beverageName, String orderClass) {
+        return getBeverageAsync(beverageName, outletScheduler.orderClass(orderClass), outletScheduler.getOrderTimeoutMillis());
+    }
+
+    /**
+     * queues the requested beverage of an order of the given class for the next free outlet the class may use
+     *
+     * @param beverageName  The name of the beverage requested.
+     * @param orderClass    The name of the order class, null for the default class.
+     * @param timeoutMillis how long the order may wait for a free outlet
+     * @return future completed with the Success Message once the beverage is prepared
+     * @throws IllegalArgumentException if the order class is not configured
+     */
+    CompletableFuture<String> getBeverageAsync(String beverageName, String orderClass, long timeoutMillis) {
+        return getBeverageAsync(beverageName, outletScheduler.orderClass(orderClass), timeoutMillis);
+    }
+
+    private CompletableFuture<String> getBeverageAsync(String beverageName, OrderClass orderClass, long timeoutMillis) {
+        long submittedAt = metrics.now();
+        CompletableFuture<String> result = new CompletableFuture<>();
+        Recipe recipe = catalog.getRecipes().get(beverageName);
+        if (Objects.isNull(recipe)) {
+            metrics.unknownBeverage();
+            result.completeExceptionally(new PreparationException(beverageName, "beverage not found"));
+            return result;
+        }
+        if (Objects.nonNull(coalescer) && recipe.getMaxCups() > 1) {
+            coalescer.add(recipe, orderClass, result, submittedAt, timeoutMillis);
+            return result;
+        }
+        outletScheduler.submit(recipe, orderClass, future -> {
+            OrderResult reserved = reservationEngine.tryReserve(recipe);
+            if (reserved.isPrepared()) {
+                brewBeverage(recipe, orderClass, future, submittedAt, metrics.now());
+            } else {
+                reservationFailed(recipe, reserved.getStatus());
+                future.completeExceptionally(new PreparationException(beverageName, reserved.getReason()));
             }
+        }, result, timeoutMillis);
+        return result;
+    }
+
+    /**
+     * holds the ingredients of the requested beverage and an outlet for an order awaiting confirmation, so the stock
+     * can no longer be sold to anyone else. Held ingredients are gone from the stock, low stock and availability
+     * included, until the hold is released or expires.
+     *
+     * @param beverageName The name of the beverage requested.
+     * @param ttlMillis    how long the hold lasts unless committed or released, positive
+     * @return the hold, to {@link #commit(HoldWheel.Hold) commit} or {@link #release(HoldWheel.Hold) release}
+     * @throws PreparationException,AllSlotsOccupiedException if the beverage cannot be held
+     */
+    HoldWheel.Hold reserve(String beverageName, long ttlMillis) throws PreparationException, AllSlotsOccupiedException {
+        return reserve(beverageName, null, ttlMillis);
+    }
+
+    /**
+     * holds the ingredients of the requested beverage and an outlet the order class may use for an order awaiting
+     * confirmation
+     *
+     * @param beverageName The name of the beverage requested.
+     * @param orderClass   The name of the order class, null for the default class.
+     * @param ttlMillis    how long the hold lasts unless committed or released, positive
+     * @return the hold
+     * @throws PreparationException,AllSlotsOccupiedException if the beverage cannot be held, or the time to live ran
+     *                                                         out before the hold was placed
+     * @throws IllegalArgumentException                        if the order class is not configured or the time to
+     *                                                         live is not positive
+     */
+    HoldWheel.Hold reserve(String beverageName, String orderClass, long ttlMillis)
+            throws PreparationException, AllSlotsOccupiedException {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("time to live of a hold must be positive, not " + ttlMillis);
+        }
+        OrderClass heldClass = outletScheduler.orderClass(orderClass);
+        Recipe recipe = catalog.getRecipes().get(beverageName);
+        if (Objects.isNull(recipe)) {
+            metrics.unknownBeverage();
+            throw new PreparationException(beverageName, "beverage not found");
+        }
+        if (!outletScheduler.tryAcquire(heldClass)) {
+            metrics.outcome(recipe, OrderStatus.ALL_SLOTS_OCCUPIED);
+            throw new AllSlotsOccupiedException(beverageName);
+        }
+        OrderResult reserved = reservationEngine.tryReserve(recipe);
+        if (!reserved.isPrepared()) {
+            reservationFailed(recipe, reserved.getStatus());
+            throw new PreparationException(beverageName, reserved.getReason());
         }
-        if (!StringUtils.isEmpty(missingIngredient)) {
-            throw new IngredientNotFoundException(missingIngredient);
-        } else if (!StringUtils.isEmpty(insufficientIngredient)) {
-            throw new InsufficientQuantityException(insufficientIngredient);
+        HoldWheel.Hold hold = new HoldWheel.Hold(recipe, heldClass);
+        if (!holdWheel.place(hold, ttlMillis)) {
+            // the wheel swept past the deadline already, so the hold is given back rather than handed out expired
+            expireHold(hold);
+            throw new PreparationException(beverageName, "its hold expired before it was placed");
         }
+        return hold;
     }
 
     /**
-     * prepares the requested beverage
+     * brews the held beverage on the held outlet
      *
-     * @param beverage The beverage requested.
-     * @throws InsufficientQuantityException if ingredient quantity is not sufficient
+     * @param hold a hold of this machine
+     * @return future completed with the Success Message once the beverage is prepared, or exceptionally with
+     * HoldExpiredException if the hold expired or was released before
      */
-    private void prepareBeverage(Beverage beverage) throws InsufficientQuantityException {
-        log.info("Started Preparing " + beverage.getName());
-        Map<String, Integer> requiredIngredients = beverage.getIngredientQuantityMap();
-        for (Map.Entry<String, Integer> entry : requiredIngredients.entrySet()) {
-            Ingredient ingredient = this.ingredientsMap.get(entry.getKey());
-            ingredient.useIngredient(entry.getValue());
+    CompletableFuture<String> commit(HoldWheel.Hold hold) {
+        CompletableFuture<String> prepared = new CompletableFuture<>();
+        if (!hold.commit()) {
+            prepared.completeExceptionally(new HoldExpiredException(hold.getBeverageName()));
+            return prepared;
         }
-        try {
+        holdWheel.remove(hold);
+        long startedAt = metrics.now();
+        brewBeverage(hold.getRecipe(), hold.getOrderClass(), prepared, startedAt, startedAt);
+        return prepared;
+    }
 
-            //DEFAULT SLEEP TO SHOW BEVERAGE CREATION
-            Thread.sleep(1000);
-        } catch (InterruptedException e) {
-            log.error(beverage.getName() + "error while preparing " + e.getMessage());
+    /**
+     * gives the held ingredients back to the stock and frees the held outlet
+     *
+     * @param hold a hold of this machine
+     * @return false if the hold was already committed, released or expired
+     */
+    boolean release(HoldWheel.Hold hold) {
+        if (!hold.release()) {
+            return false;
         }
-        log.info("Completed Preparing " + beverage.getName());
+        holdWheel.remove(hold);
+        returnHold(hold);
+        return true;
     }
 
     /**
-     * checks if all slots are used or any slot is free
+     * @return the number of holds neither committed, released nor expired yet
+     */
+    int getOpenHolds() {
+        return holdWheel.size();
+    }
+
+    private void expireHold(HoldWheel.Hold hold) {
+        if (hold.expire()) {
+            returnHold(hold);
+        }
+    }
+
+    /**
+     * returns the ingredients and the outlet of a hold which is not brewed, the outlet was only held so it does not
+     * count towards the outlet utilization
+     */
+    private void returnHold(HoldWheel.Hold hold) {
+        reservationEngine.giveBack(hold.getRecipe());
+        outletScheduler.release();
+    }
+
+    /**
+     * prepares a batch of beverages all-or-nothing
      *
-     * @param beverageName The name of the beverage requested.
-     * @return current occupied slots
-     * @throws AllSlotsOccupiedException if all slots are being used
+     * @param beverageNames The names of the beverages requested.
+     * @return result of every beverage, in the order requested
      */
-    private Integer checkParallelRequests(String beverageName) throws AllSlotsOccupiedException {
-        Integer current = usedOutlets.get();
-        if (current >= numOutlets) {
-            throw new AllSlotsOccupiedException(beverageName);
+    List<OrderResult> getBeverages(List<String> beverageNames) {
+        return getBeverages(beverageNames, BatchMode.ALL_OR_NOTHING);
+    }
+
+    /**
+     * prepares a batch of beverages. The demand of the whole batch is checked and reserved in one pass and the
+     * beverages are spread over the outlets free at that moment, each outlet brewing its share one after another.
+     *
+     * @param beverageNames The names of the beverages requested.
+     * @param mode          whether the batch is prepared all-or-nothing or best-effort in order
+     * @return result of every beverage, in the order requested
+     */
+    List<OrderResult> getBeverages(List<String> beverageNames, BatchMode mode) {
+        return getBeverages(beverageNames, mode, outletScheduler.getDefaultClass());
+    }
+
+    /**
+     * prepares a batch of beverages on the outlets the order class may use
+     *
+     * @param beverageNames The names of the beverages requested.
+     * @param mode          whether the batch is prepared all-or-nothing or best-effort in order
+     * @param orderClass    The name of the order class, null for the default class.
+     * @return result of every beverage, in the order requested
+     * @throws IllegalArgumentException if the order class is not configured
+     */
+    List<OrderResult> getBeverages(List<String> beverageNames, BatchMode mode, String orderClass) {
+        return getBeverages(beverageNames, mode, outletScheduler.orderClass(orderClass));
+    }
+
+    private List<OrderResult> getBeverages(List<String> beverageNames, BatchMode mode, OrderClass orderClass) {
+        long submittedAt = metrics.now();
+        int count = beverageNames.size();
+        Recipe[] batch = new Recipe[count];
+        OrderStatus[] statuses = new OrderStatus[count];
+        int[] failingSlots = new int[count];
+        // the whole batch is resolved against one catalog even if a reload happens meanwhile
+        Map<String, Recipe> recipes = catalog.getRecipes();
+        int known = 0;
+        for (int i = 0; i < count; i++) {
+            batch[i] = recipes.get(beverageNames.get(i));
+            failingSlots[i] = -1;
+            if (Objects.isNull(batch[i])) {
+                statuses[i] = OrderStatus.BEVERAGE_NOT_FOUND;
+                metrics.unknownBeverage();
+            } else {
+                known++;
+                if (batch[i].getBrewTimeMillis() > 0 && brewScheduler.isVirtual()) {
+                    throw new IllegalStateException(batch[i].getName()
+                            + " cannot be awaited on a virtual clock, order it asynchronously");
+                }
+            }
+        }
+        if (known == 0 || (mode == BatchMode.ALL_OR_NOTHING && known < count)) {
+            return batchResults(beverageNames, batch, statuses, failingSlots, OrderStatus.BATCH_REJECTED);
+        }
+        int outlets = outletScheduler.tryAcquire(orderClass, known);
+        if (outlets == 0) {
+            return batchResults(beverageNames, batch, statuses, failingSlots, OrderStatus.ALL_SLOTS_OCCUPIED);
+        }
+        long startedAt = metrics.now();
+        int reserved = reservationEngine.reserveBatch(batch, mode, statuses, failingSlots);
+        brewBatch(batch, orderClass, statuses, outlets, reserved, submittedAt, startedAt);
+        return batchResults(beverageNames, batch, statuses, failingSlots, null);
+    }
+
+    /**
+     * brews the reserved beverages of a batch round robin over the held outlets and waits until all are prepared,
+     * outlets without a beverage to brew are released straight away
+     */
+    private void brewBatch(Recipe[] batch, OrderClass orderClass, OrderStatus[] statuses, int outlets, int reserved,
+                           long submittedAt, long startedAt) {
+        int used = Math.min(outlets, reserved);
+        if (outlets > used) {
+            decrementParallelRequests(outlets - used, startedAt, metrics.now());
+        }
+        long[] brewTimes = new long[used];
+        int next = 0;
+        for (int i = 0; i < batch.length; i++) {
+            if (statuses[i] == OrderStatus.PREPARED) {
+                brewTimes[next++ % used] += batch[i].getBrewTimeMillis();
+            }
+        }
+        recordBatch(batch, orderClass, statuses, submittedAt, startedAt);
+        if (used == 0) {
+            return;
+        }
+        int brewing = 0;
+        for (long brewTime : brewTimes) {
+            if (brewTime > 0) {
+                brewing++;
+            }
+        }
+        if (brewing < used) {
+            // outlets with nothing to wait for are released together
+            decrementParallelRequests(used - brewing, startedAt, metrics.now());
+        }
+        if (brewing == 0) {
+            return;
+        }
+        CompletableFuture<Void> prepared = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(brewing);
+        for (long brewTime : brewTimes) {
+            if (brewTime > 0) {
+                scheduleBrew(() -> {
+                    decrementParallelRequests(startedAt, metrics.now());
+                    if (pending.decrementAndGet() == 0) {
+                        prepared.complete(null);
+                    }
+                }, brewTime, startedAt, prepared::completeExceptionally);
+            }
+        }
+        prepared.join();
+    }
+
+    /**
+     * records the outcome of every known beverage of a batch, prepared beverages are recorded with the brew time of
+     * their recipe since the brews of one outlet run back to back
+     */
+    private void recordBatch(Recipe[] batch, OrderClass orderClass, OrderStatus[] statuses, long submittedAt,
+                             long startedAt) {
+        for (int i = 0; i < batch.length; i++) {
+            if (Objects.isNull(batch[i])) {
+                continue;
+            }
+            if (statuses[i] == OrderStatus.PREPARED) {
+                metrics.prepared(batch[i], orderClass, submittedAt, startedAt, startedAt + batch[i].getBrewTimeMillis() * 1_000_000);
+            } else {
+                metrics.outcome(batch[i], statuses[i]);
+            }
+        }
+    }
+
+    private List<OrderResult> batchResults(List<String> beverageNames, Recipe[] batch, OrderStatus[] statuses,
+                                           int[] failingSlots, OrderStatus unattempted) {
+        List<OrderResult> results = new ArrayList<>(beverageNames.size());
+        for (int i = 0; i < statuses.length; i++) {
+            OrderStatus status = Objects.isNull(statuses[i]) ? unattempted : statuses[i];
+            if (Objects.isNull(statuses[i]) && Objects.nonNull(batch[i])) {
+                metrics.outcome(batch[i], status);
+            }
+            String ingredient = failingSlots[i] < 0 ? null : stockStore.name(failingSlots[i]);
+            results.add(new OrderResult(beverageNames.get(i), status, ingredient));
         }
-        return current;
+        return results;
     }
 
     /**
-     * checks if all slots are used or any slot is free then increments a used slot
+     * starts brewing the reserved beverage on the held outlet. Once the brew time of the beverage has passed
+     * the outlet is released and the future is completed.
      *
-     * @param beverageName The name of the beverage requested.
-     * @throws AllSlotsOccupiedException if all slots are being used
+     * @param recipe      The compiled beverage requested, its ingredients are already reserved.
+     * @param orderClass  class of the order
+     * @param prepared    completed with the Success Message once the beverage is prepared
+     * @param submittedAt when the order was placed
+     * @param startedAt   when the order got its outlet
      */
-    private void incrementParallelRequests(String beverageName) throws AllSlotsOccupiedException {
-        int current = checkParallelRequests(beverageName);
-        int newValue = current + 1;
+    private void brewBeverage(Recipe recipe, OrderClass orderClass, CompletableFuture<String> prepared, long submittedAt,
+                              long startedAt) {
+        log.debug("Started Preparing {}", recipe.getName());
+        scheduleBrew(() -> {
+            log.debug("Completed Preparing {}", recipe.getName());
+            long preparedAt = metrics.now();
+            // the outlet is released before the caller is told, so it can order again straight away
+            decrementParallelRequests(startedAt, preparedAt);
+            metrics.prepared(recipe, orderClass, submittedAt, startedAt, preparedAt);
+            prepared.complete(recipe.getPreparedMessage());
+        }, recipe.getBrewTimeMillis(), startedAt, prepared::completeExceptionally);
+    }
 
-        while (!usedOutlets.compareAndSet(current, newValue)) {
-            current = checkParallelRequests(beverageName);
-            newValue = current + 1;
+    /**
+     * schedules the end of a brew on a held outlet. If the scheduler refuses the brew, as it does once shut down, the
+     * outlet is released and the brew failed, and if the end of the brew throws the brew is failed too, so no caller
+     * waits for a brew which never ends.
+     *
+     * @param done      ends the brew, releasing the outlet first and then completing the futures of the brew
+     * @param brewTime  brew time in milliseconds
+     * @param startedAt when the outlet was taken
+     * @param failed    fails the futures of the brew not completed yet
+     */
+    private void scheduleBrew(Runnable done, long brewTime, long startedAt, Consumer<Throwable> failed) {
+        try {
+            brewScheduler.schedule(() -> {
+                try {
+                    done.run();
+                } catch (RuntimeException e) {
+                    log.error("Brew failed", e);
+                    failed.accept(e);
+                }
+            }, brewTime);
+        } catch (RejectedExecutionException e) {
+            decrementParallelRequests(startedAt, metrics.now());
+            failed.accept(e);
         }
     }
 
     /**
-     * Decrements the current used slots of the machine
+     * takes a batch of coalesced orders to the outlets as one order, failing every cup if it is rejected or times out
      */
-    private void decrementParallelRequests() {
-        int current = usedOutlets.get();
-        int newValue = current - 1;
+    private void brewCups(OrderCoalescer.CupBatch batch) {
+        CompletableFuture<String> outlet = new CompletableFuture<>();
+        outlet.whenComplete((ignored, failure) -> {
+            if (Objects.nonNull(failure)) {
+                rejectCups(batch, failure);
+            }
+        });
+        outletScheduler.submit(batch.getRecipe(), batch.getOrderClass(), held -> brewCups(batch, held), outlet,
+                batch.getTimeoutMillis());
+    }
 
-        while (!usedOutlets.compareAndSet(current, newValue)) {
-            current = usedOutlets.get();
-            newValue = current - 1;
+    /**
+     * reserves the ingredients of every cup still wanted in one pass and brews the reserved cups together on the
+     * held outlet, cups the stock is not sufficient for fail on their own
+     *
+     * @param batch  the coalesced orders
+     * @param outlet completed once the outlet is released
+     */
+    private void brewCups(OrderCoalescer.CupBatch batch, CompletableFuture<String> outlet) {
+        long startedAt = metrics.now();
+        Recipe recipe = batch.getRecipe();
+        List<CompletableFuture<String>> cups = batch.getCups();
+        Recipe[] wanted = new Recipe[cups.size()];
+        OrderStatus[] statuses = new OrderStatus[cups.size()];
+        int[] failingSlots = new int[cups.size()];
+        for (int i = 0; i < wanted.length; i++) {
+            // cups cancelled by their callers are not brewed
+            wanted[i] = cups.get(i).isDone() ? null : recipe;
+            failingSlots[i] = -1;
+        }
+        int reserved = reservationEngine.reserveBatch(wanted, BatchMode.BEST_EFFORT, statuses, failingSlots);
+        for (int i = 0; i < wanted.length; i++) {
+            if (Objects.nonNull(wanted[i]) && statuses[i] != OrderStatus.PREPARED) {
+                metrics.outcome(recipe, statuses[i]);
+                String reason = new OrderResult(recipe.getName(), statuses[i], stockStore.name(failingSlots[i])).getReason();
+                cups.get(i).completeExceptionally(new PreparationException(recipe.getName(), reason));
+            }
+        }
+        if (reserved == 0) {
+            outletScheduler.release();
+            outlet.complete(null);
+            return;
+        }
+        log.debug("Started Preparing {} cups of {}", reserved, recipe.getName());
+        scheduleBrew(() -> {
+            long preparedAt = metrics.now();
+            decrementParallelRequests(startedAt, preparedAt);
+            for (int i = 0; i < wanted.length; i++) {
+                if (Objects.nonNull(wanted[i]) && statuses[i] == OrderStatus.PREPARED) {
+                    metrics.prepared(recipe, batch.getOrderClass(), batch.getSubmittedAt()[i], startedAt, preparedAt);
+                    cups.get(i).complete(recipe.getPreparedMessage());
+                }
+            }
+            outlet.complete(null);
+        }, recipe.getBrewTimeMillis(), startedAt, failure -> {
+            // cups which were not handed out give their ingredients back
+            for (int i = 0; i < wanted.length; i++) {
+                if (Objects.nonNull(wanted[i]) && statuses[i] == OrderStatus.PREPARED
+                        && cups.get(i).completeExceptionally(failure)) {
+                    reservationEngine.giveBack(recipe);
+                }
+            }
+            outlet.completeExceptionally(failure);
+        });
+    }
+
+    /**
+     * fails every cup of a batch which got no outlet, the outlet scheduler already counted one of them
+     */
+    private void rejectCups(OrderCoalescer.CupBatch batch, Throwable failure) {
+        OrderStatus status = failure instanceof OrderTimeoutException ? OrderStatus.TIMED_OUT : OrderStatus.ALL_SLOTS_OCCUPIED;
+        List<CompletableFuture<String>> cups = batch.getCups();
+        for (int i = 0; i < cups.size(); i++) {
+            // cups failed by their brew already are not counted again
+            if (cups.get(i).completeExceptionally(failure) && i > 0) {
+                metrics.outcome(batch.getRecipe(), status);
+            }
         }
     }
 
+    /**
+     * Decrements the current used slots of the machine and starts the next queued order
+     *
+     * @param acquiredAt when the outlet was taken
+     * @param releasedAt when the outlet is released
+     */
+    private void decrementParallelRequests(long acquiredAt, long releasedAt) {
+        decrementParallelRequests(1, acquiredAt, releasedAt);
+    }
+
+    private void decrementParallelRequests(int count, long acquiredAt, long releasedAt) {
+        metrics.outletsReleased(count, acquiredAt, releasedAt);
+        outletScheduler.release(count);
+    }
+
+    /**
+     * releases the outlet of an order whose ingredients could not be reserved and records why, the outlet was only
+     * held for the reservation so it does not count towards the outlet utilization
+     */
+    private void reservationFailed(Recipe recipe, OrderStatus status) {
+        outletScheduler.release();
+        metrics.outcome(recipe, status);
+    }
+
     /**
      * Refills the ingredient requested with the quantity passed
      *
      * @param ingredientName The name of the ingredient requested.
+     * @param quantity       the new stock of the ingredient, not negative
      */
     void refillIngredient(String ingredientName, Integer quantity) {
-        if (ingredientsMap.containsKey(ingredientName)) {
-            Ingredient ingredient = ingredientsMap.get(ingredientName);
-            ingredient.updateStock(quantity);
-        } else {
-            ingredientsMap.put(ingredientName, new Ingredient(ingredientName, quantity));
+        if (quantity == null || quantity < 0) {
+            throw new IllegalArgumentException("quantity of " + ingredientName + " must not be negative");
         }
+        stockStore.set(ingredientName, quantity);
     }
 
     /**
@@ -193,9 +787,125 @@ class CoffeeMachineService {
      * @return Map ingredient map with ingredients running low
      */
     Map<String, Ingredient> getIngredientsRunningLow(Integer threshold) {
-        return ingredientsMap.entrySet()
-                .stream()
-                .filter(map -> map.getValue().getStock().get() <= threshold)
-                .collect(Collectors.toMap(map -> map.getKey(), map -> map.getValue()));
+        stockStore.publish();
+        return lowStockIndex.runningLow(threshold);
+    }
+
+    /**
+     * Registers a listener notified whenever an ingredient drops to or below the threshold, so refills can be
+     * triggered without polling getIngredientsRunningLow
+     *
+     * @param threshold The passed threshold
+     * @param listener  called on a scheduler thread with the ingredient and its new stock
+     */
+    void addLowStockListener(Integer threshold, LowStockListener listener) {
+        lowStockIndex.addListener(threshold, listener);
+    }
+
+    /**
+     * Checks whether the stock is sufficient for the beverage right now, without preparing it
+     *
+     * @param beverageName The name of the beverage requested.
+     * @return true if the beverage can be prepared, false if an ingredient is missing or insufficient or the
+     * beverage is unknown
+     */
+    boolean isAvailable(String beverageName) {
+        stockStore.publish();
+        return catalog.getAvailabilityIndex().isAvailable(beverageName);
+    }
+
+    /**
+     * Returns the beverages the stock is sufficient for, a live view which changes with the stock until the next reload
+     *
+     * @return Set of beverage names
+     */
+    Set<String> getAvailableBeverages() {
+        stockStore.publish();
+        return catalog.getAvailabilityIndex().availableBeverages();
+    }
+
+    /**
+     * Registers a listener notified whenever a beverage becomes available or unavailable, so menus can be updated
+     * without polling
+     *
+     * @param listener called on a scheduler thread with the beverage and whether it is available
+     */
+    synchronized void addAvailabilityListener(AvailabilityListener listener) {
+        // synchronized with reload, so a listener is never added to an index being replaced
+        catalog.getAvailabilityIndex().addListener(listener);
+    }
+
+    /**
+     * Returns the metrics of the machine since it started: outcomes and latencies per beverage, outlet utilization
+     * and contention counters. Counters keep running while the snapshot is taken, so they may be off by the orders
+     * in flight.
+     *
+     * @return point in time copy of the metrics
+     */
+    MetricsSnapshot getMetricsSnapshot() {
+        return metrics.snapshot(catalog.getRecipes().values(), outletScheduler, stockStore);
+    }
+
+    /**
+     * Returns the stock of one ingredient, with what the shards of a sharded ingredient hold, without taking a
+     * snapshot of the whole machine
+     *
+     * @param ingredientName The name of the ingredient requested.
+     * @return current stock of the ingredient, or {@link StockStore#ABSENT} if the machine does not hold it
+     */
+    int getStock(String ingredientName) {
+        int slot = stockStore.find(ingredientName);
+        return slot < 0 ? StockStore.ABSENT : stockStore.total(slot);
+    }
+
+    /**
+     * Returns the stock of every ingredient and the occupancy of the outlets as they were at one point in time, so
+     * a report never shows part of an order's deductions, short of orders in flight on sharded stock which take
+     * their ingredients one after the other. Taking it writes nothing the orders use, so it can be polled many
+     * times a second without slowing them down.
+     *
+     * @return consistent copy of the stock and outlets
+     */
+    InventorySnapshot getInventorySnapshot() {
+        int[] outlets = new int[4];
+        int[] stock = stockStore.snapshot(() -> {
+            outlets[0] = outletScheduler.getNumOutlets();
+            outlets[1] = usedOutlets.get();
+            outlets[2] = outletScheduler.getQueuedOrders().get();
+            outlets[3] = holdWheel.size();
+        });
+        Map<String, Integer> ingredients = new HashMap<>(stock.length * 2);
+        for (int slot = 0; slot < stock.length; slot++) {
+            if (stock[slot] != StockStore.ABSENT) {
+                ingredients.put(stockStore.name(slot), stock[slot]);
+            }
+        }
+        return new InventorySnapshot(ingredients, outlets[0], outlets[1], outlets[2], outlets[3]);
+    }
+
+    /**
+     * Plans the mix of beverages the current stock can still produce which is worth the most, such as the most cups
+     * or the most revenue. The plan works on a consistent copy of the stock, so orders keep flowing while it runs,
+     * and is quick enough to rerun after every refill.
+     *
+     * @param weights demand weight of every beverage, such as its price, null to maximize cups. Beverages without a
+     *                positive weight are left out.
+     * @return the plan
+     */
+    ProductionPlan planProduction(Map<String, Double> weights) {
+        // the recipes are compiled against the store, so the stock by slot lines up with their slots
+        Map<String, Recipe> recipes = catalog.getRecipes();
+        int[] stock = stockStore.snapshot(() -> {
+        });
+        return productionPlanner.plan(recipes.values(), stock, weights);
+    }
+
+    /**
+     * Stops journaling the stock and forces the journal to disk, the machine keeps working without it
+     */
+    void close() {
+        if (Objects.nonNull(journal)) {
+            journal.close();
+        }
     }
 }
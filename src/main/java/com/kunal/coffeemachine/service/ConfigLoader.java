@@ -0,0 +1,121 @@
+package com.kunal.coffeemachine.service;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.kunal.coffeemachine.pojo.Config;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+
+/**
+ * Reads a machine config from JSON token by token. The stock and beverages, which hold nearly all of a large config,
+ * go straight into a {@link Menu} without building a map per beverage; every other setting of the machine is small
+ * and bound into its {@link Config} as usual. A config naming a catalog image gets its menu mapped from the image.
+ */
+final class ConfigLoader {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private ConfigLoader() {
+    }
+
+    /**
+     * A config read by the loader: the settings of the machine, without its stock and beverages, and its menu.
+     */
+    @Getter
+    @AllArgsConstructor
+    static final class Loaded {
+        private final Config config;
+        private final Menu menu;
+    }
+
+    /**
+     * @param path file of the config
+     * @return the config and menu read
+     * @throws IOException if the file cannot be read or is no valid config
+     */
+    static Loaded load(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return load(in);
+        }
+    }
+
+    /**
+     * @param in stream of the config, not closed
+     * @return the config and menu read
+     * @throws IOException if the stream cannot be read or is no valid config
+     */
+    static Loaded load(InputStream in) throws IOException {
+        Menu.Builder menu = new Menu.Builder();
+        ObjectNode settings = MAPPER.createObjectNode();
+        try (JsonParser parser = MAPPER.getFactory().createParser(in)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("machine".equals(field)) {
+                    readMachine(parser, menu, settings);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        Config.MachineConfig machineConfig = MAPPER.treeToValue(settings, Config.MachineConfig.class);
+        Config config = new Config();
+        config.setMachineConfig(machineConfig);
+        if (Objects.isNull(machineConfig.getCatalogImage())) {
+            return new Loaded(config, menu.build());
+        }
+        if (!menu.isEmpty()) {
+            throw new IllegalArgumentException("a config with a catalog image has no beverages or items of its own");
+        }
+        return new Loaded(config, Menu.map(Paths.get(machineConfig.getCatalogImage())));
+    }
+
+    private static void readMachine(JsonParser parser, Menu.Builder menu, ObjectNode settings) throws IOException {
+        expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("total_items_quantity".equals(field)) {
+                expect(parser, value, JsonToken.START_OBJECT);
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String ingredient = parser.getCurrentName();
+                    menu.stock(ingredient, readQuantity(parser));
+                }
+            } else if ("beverages".equals(field)) {
+                expect(parser, value, JsonToken.START_OBJECT);
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    menu.beverage(parser.getCurrentName());
+                    expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String ingredient = parser.getCurrentName();
+                        menu.use(ingredient, readQuantity(parser));
+                    }
+                }
+            } else {
+                settings.set(field, MAPPER.readTree(parser));
+            }
+        }
+    }
+
+    private static int readQuantity(JsonParser parser) throws IOException {
+        expect(parser, parser.nextToken(), JsonToken.VALUE_NUMBER_INT);
+        return parser.getIntValue();
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException(parser, "expected " + expected + " but found " + actual);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.kunal.coffeemachine.service;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Consumer;
+
+/**
+ * Expires order holds with a hashed timer wheel. Every hold is linked into the bucket of the tick its time to live
+ * runs out in, and a single task of the machine's scheduler sweeps the buckets tick by tick while holds are open, so
+ * placing, removing and expiring a hold is a constant amount of work and no hold has a timer or thread of its own.
+ * Holds living longer than a turn of the wheel stay in their bucket and are passed over until their tick comes.
+ */
+class HoldWheel {
+    static final long DEFAULT_TICK_MILLIS = 10;
+    static final int DEFAULT_BUCKETS = 512;
+
+    private final BrewScheduler timer;
+    private final long tickNanos;
+    private final long origin;
+    private final Bucket[] buckets;
+    private final int mask;
+    private final Consumer<Hold> expirer;
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicBoolean armed = new AtomicBoolean();
+    /**
+     * the last tick swept, only touched by the sweeping task
+     */
+    private long sweptTick = -1;
+
+    HoldWheel(BrewScheduler timer, Consumer<Hold> expirer) {
+        this(timer, DEFAULT_TICK_MILLIS, DEFAULT_BUCKETS, expirer);
+    }
+
+    /**
+     * @param timer      the clock and scheduler of the machine
+     * @param tickMillis how often the wheel is swept, holds expire up to a tick late
+     * @param buckets    the number of buckets, a power of two
+     * @param expirer    called with every hold whose time to live ran out, once it is off the wheel
+     */
+    HoldWheel(BrewScheduler timer, long tickMillis, int buckets, Consumer<Hold> expirer) {
+        if (tickMillis <= 0 || Integer.bitCount(buckets) != 1) {
+            throw new IllegalArgumentException("tick must be positive and buckets a power of two");
+        }
+        this.timer = timer;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.origin = timer.nanoTime();
+        this.buckets = new Bucket[buckets];
+        for (int i = 0; i < buckets; i++) {
+            this.buckets[i] = new Bucket();
+        }
+        this.mask = buckets - 1;
+        this.expirer = expirer;
+    }
+
+    /**
+     * @return the number of holds on the wheel
+     */
+    int size() {
+        return open.get();
+    }
+
+    /**
+     * puts the hold on the wheel until its time to live runs out or it is removed
+     *
+     * @param hold      a hold not on the wheel yet
+     * @param ttlMillis time to live of the hold, positive
+     * @return false if the time to live ran out before the hold got on the wheel, it is expired then
+     */
+    boolean place(Hold hold, long ttlMillis) {
+        long deadline = timer.nanoTime() - origin + TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        hold.deadlineTick = (deadline + tickNanos - 1) / tickNanos;
+        Bucket bucket = buckets[(int) (hold.deadlineTick & mask)];
+        synchronized (bucket) {
+            if (hold.deadlineTick > bucket.sweptTick) {
+                bucket.link(hold);
+                open.incrementAndGet();
+                arm();
+                return true;
+            }
+        }
+        // the sweep already passed the tick of the hold, so its time is up
+        return false;
+    }
+
+    /**
+     * takes the hold off the wheel
+     *
+     * @return false if the hold was not on the wheel, because it expired or was already removed
+     */
+    boolean remove(Hold hold) {
+        Bucket bucket = buckets[(int) (hold.deadlineTick & mask)];
+        synchronized (bucket) {
+            if (!hold.linked) {
+                return false;
+            }
+            bucket.unlink(hold);
+        }
+        open.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * schedules a sweep at the start of the next tick unless one is scheduled already, so holds expire at most a tick
+     * after their deadline
+     */
+    private void arm() {
+        if (armed.compareAndSet(false, true)) {
+            long elapsed = timer.nanoTime() - origin;
+            long untilNextTick = tickNanos - elapsed % tickNanos;
+            timer.schedule(this::tick, Math.max(1, TimeUnit.NANOSECONDS.toMillis(untilNextTick + 999_999)));
+        }
+    }
+
+    /**
+     * sweeps every bucket whose tick has come since the last sweep, a whole turn at most if the sweep ran late, and
+     * expires the holds due
+     */
+    private void tick() {
+        long now = (timer.nanoTime() - origin) / tickNanos;
+        for (long tick = Math.max(sweptTick + 1, now - mask); tick <= now; tick++) {
+            Hold due = buckets[(int) (tick & mask)].sweep(tick, now);
+            while (due != null) {
+                Hold next = due.next;
+                due.next = null;
+                open.decrementAndGet();
+                expirer.accept(due);
+                due = next;
+            }
+        }
+        sweptTick = Math.max(sweptTick, now);
+        // a hold placed meanwhile either finds the wheel unarmed or is seen here
+        armed.set(false);
+        if (open.get() > 0) {
+            arm();
+        }
+    }
+
+    /**
+     * The holds expiring in the ticks of one slot of the wheel, as a doubly linked list through the holds.
+     */
+    private static class Bucket {
+        private Hold head;
+        /**
+         * the last tick this bucket was swept for, holds due by then are past their deadline
+         */
+        private long sweptTick = -1;
+
+        void link(Hold hold) {
+            hold.prev = null;
+            hold.next = head;
+            if (head != null) {
+                head.prev = hold;
+            }
+            head = hold;
+            hold.linked = true;
+        }
+
+        void unlink(Hold hold) {
+            if (hold.prev == null) {
+                head = hold.next;
+            } else {
+                hold.prev.next = hold.next;
+            }
+            if (hold.next != null) {
+                hold.next.prev = hold.prev;
+            }
+            hold.prev = null;
+            hold.next = null;
+            hold.linked = false;
+        }
+
+        /**
+         * unlinks the holds due by now
+         *
+         * @return the holds due, chained through their next link
+         */
+        synchronized Hold sweep(long tick, long now) {
+            sweptTick = Math.max(sweptTick, tick);
+            Hold due = null;
+            Hold hold = head;
+            while (hold != null) {
+                Hold next = hold.next;
+                if (hold.deadlineTick <= now) {
+                    unlink(hold);
+                    hold.next = due;
+                    due = hold;
+                }
+                hold = next;
+            }
+            return due;
+        }
+    }
+
+    /**
+     * A beverage held for an order: its ingredients are taken from the stock and an outlet is taken, until the order
+     * is committed or released or the time to live runs out. The state only moves away from held once.
+     */
+    @Getter
+    static class Hold {
+        private static final int HELD = 0;
+        private static final int COMMITTED = 1;
+        private static final int RELEASED = 2;
+        private static final int EXPIRED = 3;
+        private static final AtomicIntegerFieldUpdater<Hold> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Hold.class, "state");
+
+        private final Recipe recipe;
+        private final OrderClass orderClass;
+        @Getter(AccessLevel.NONE)
+        private volatile int state;
+        @Getter(AccessLevel.NONE)
+        private long deadlineTick;
+        // guarded by the bucket of the hold
+        @Getter(AccessLevel.NONE)
+        private Hold prev;
+        @Getter(AccessLevel.NONE)
+        private Hold next;
+        @Getter(AccessLevel.NONE)
+        private boolean linked;
+
+        Hold(Recipe recipe, OrderClass orderClass) {
+            this.recipe = recipe;
+            this.orderClass = orderClass;
+        }
+
+        String getBeverageName() {
+            return recipe.getName();
+        }
+
+        /**
+         * @return true until the hold is committed, released or expired
+         */
+        boolean isHeld() {
+            return state == HELD;
+        }
+
+        boolean isCommitted() {
+            return state == COMMITTED;
+        }
+
+        boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        boolean commit() {
+            return STATE.compareAndSet(this, HELD, COMMITTED);
+        }
+
+        boolean release() {
+            return STATE.compareAndSet(this, HELD, RELEASED);
+        }
+
+        boolean expire() {
+            return STATE.compareAndSet(this, HELD, EXPIRED);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.pojo.HistogramSnapshot;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets: every power of two range of nanoseconds is split into four
+ * buckets, so a recorded value is off by at most a quarter of its range. Recording is a single atomic increment.
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = Long.SIZE << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    void record(long nanos) {
+        counts.incrementAndGet(index(Math.max(nanos, 0)));
+    }
+
+    HistogramSnapshot snapshot() {
+        int nonEmpty = 0;
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            if (copy[i] != 0) {
+                nonEmpty++;
+            }
+        }
+        long[] upperBounds = new long[nonEmpty];
+        long[] bucketCounts = new long[nonEmpty];
+        long total = 0;
+        int n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (copy[i] != 0) {
+                upperBounds[n] = upperBound(i);
+                bucketCounts[n++] = copy[i];
+                total += copy[i];
+            }
+        }
+        return new HistogramSnapshot(total, upperBounds, bucketCounts);
+    }
+
+    static int index(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index >>> SUB_BUCKET_BITS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lower = (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) * width;
+        return lower + width - 1;
+    }
+}
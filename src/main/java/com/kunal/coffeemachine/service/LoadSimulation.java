@@ -0,0 +1,175 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.pojo.Config;
+import com.kunal.coffeemachine.pojo.MetricsSnapshot;
+import com.kunal.coffeemachine.pojo.OrderStatus;
+import com.kunal.coffeemachine.pojo.SimulationReport;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replays an order trace against a coffee machine running on a {@link VirtualClock}, so hours of traffic are
+ * simulated in seconds and the same trace always gives the same report. Outlets, brew times and refill schedules
+ * can be sized offline by replaying a recorded rush against different configs.
+ * <p>
+ * Orders are placed through the asynchronous API at the time the trace gives them. Once the trace is over the
+ * simulation keeps running until every order is prepared or rejected, so the report accounts for all of them.
+ */
+class LoadSimulation {
+    static final long DEFAULT_SAMPLE_MILLIS = 60_000;
+
+    private final Config config;
+    private final List<Refill> refills;
+    private long sampleMillis;
+
+    /**
+     * @param config config of the simulated machine, the outcomes are read from its metrics so they must stay
+     *               enabled, and it cannot journal its stock
+     * @throws IllegalArgumentException if the config disables the metrics or journals the stock
+     */
+    LoadSimulation(Config config) {
+        Config.MachineConfig machineConfig = config.getMachineConfig();
+        if (Boolean.FALSE.equals(machineConfig.getMetricsEnabled())) {
+            throw new IllegalArgumentException("a simulated machine needs its metrics enabled");
+        }
+        if (Objects.nonNull(machineConfig.getJournalConfig())) {
+            throw new IllegalArgumentException("a simulated machine cannot journal its stock");
+        }
+        this.config = config;
+        this.refills = new ArrayList<>();
+        this.sampleMillis = DEFAULT_SAMPLE_MILLIS;
+    }
+
+    /**
+     * refills the ingredient to the quantity every period of simulated time, starting one period in
+     *
+     * @param ingredient   The name of the ingredient.
+     * @param periodMillis time between refills
+     * @param quantity     stock of the ingredient after a refill
+     */
+    void refillEvery(String ingredient, long periodMillis, int quantity) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("refill period must be positive");
+        }
+        if (quantity < 0) {
+            throw new IllegalArgumentException("quantity of " + ingredient + " must not be negative");
+        }
+        refills.add(new Refill(ingredient, periodMillis, quantity));
+    }
+
+    /**
+     * @param millis simulated time between two samples of the stock curves
+     */
+    void sampleStockEvery(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("sample interval must be positive");
+        }
+        this.sampleMillis = millis;
+    }
+
+    /**
+     * replays the trace against a new machine
+     *
+     * @param trace the orders to place
+     * @return throughput, rejections by cause, outlet utilization and stock curves of the simulation
+     * @throws IllegalArgumentException if an order of the trace names an order class the machine does not have
+     */
+    SimulationReport run(OrderTrace trace) {
+        VirtualClock clock = new VirtualClock();
+        CoffeeMachineService machine = new CoffeeMachineService(config, clock);
+        StockStore store = machine.getStockStore();
+        List<String> ingredients = new ArrayList<>(config.getMachineConfig().getTotalItemsConfig().keySet());
+        List<Long> sampleTimes = new ArrayList<>();
+        List<int[]> samples = new ArrayList<>();
+        Runnable sampler = () -> {
+            int[] sample = new int[ingredients.size()];
+            for (int i = 0; i < sample.length; i++) {
+                sample[i] = Math.max(0, store.total(store.find(ingredients.get(i))));
+            }
+            sampleTimes.add(clock.millis());
+            samples.add(sample);
+        };
+        sampler.run();
+        List<ScheduledFuture<?>> timers = new ArrayList<>();
+        timers.add(clock.scheduleRepeating(sampler, sampleMillis));
+        for (Refill refill : refills) {
+            timers.add(clock.scheduleRepeating(() -> machine.refillIngredient(refill.ingredient, refill.quantity),
+                    refill.periodMillis));
+        }
+
+        AtomicInteger unsettled = new AtomicInteger();
+        for (OrderTrace.TracedOrder order : trace.getOrders()) {
+            clock.advanceTo(order.getAtMillis());
+            CompletableFuture<String> result = machine.getBeverageAsync(order.getBeverage(), order.getOrderClass());
+            if (!result.isDone()) {
+                unsettled.incrementAndGet();
+                result.whenComplete((message, failure) -> unsettled.decrementAndGet());
+            }
+        }
+        while (unsettled.get() > 0 && clock.step()) {
+            // brews and deadlines of the orders still in flight
+        }
+        for (ScheduledFuture<?> timer : timers) {
+            timer.cancel(false);
+        }
+        if (sampleTimes.get(sampleTimes.size() - 1) != clock.millis()) {
+            sampler.run();
+        }
+        return report(trace, clock.millis(), machine.getMetricsSnapshot(), ingredients, sampleTimes, samples);
+    }
+
+    private static SimulationReport report(OrderTrace trace, long simulatedMillis, MetricsSnapshot metrics,
+                                           List<String> ingredients, List<Long> sampleTimes, List<int[]> samples) {
+        Map<OrderStatus, Long> outcomes = new EnumMap<>(OrderStatus.class);
+        for (MetricsSnapshot.BeverageStats stats : metrics.getBeverages().values()) {
+            stats.getOutcomes().forEach((status, count) -> outcomes.merge(status, count, Long::sum));
+        }
+        outcomes.merge(OrderStatus.BEVERAGE_NOT_FOUND, metrics.getUnknownBeverageOrders(), Long::sum);
+        long prepared = outcomes.getOrDefault(OrderStatus.PREPARED, 0L);
+        Map<OrderStatus, Long> rejections = new EnumMap<>(OrderStatus.class);
+        long rejected = 0;
+        for (Map.Entry<OrderStatus, Long> entry : outcomes.entrySet()) {
+            if (entry.getKey() != OrderStatus.PREPARED && entry.getValue() > 0) {
+                rejections.put(entry.getKey(), entry.getValue());
+                rejected += entry.getValue();
+            }
+        }
+        long orders = trace.getOrders().size();
+        long[] times = new long[sampleTimes.size()];
+        for (int s = 0; s < times.length; s++) {
+            times[s] = sampleTimes.get(s);
+        }
+        Map<String, int[]> curves = new LinkedHashMap<>();
+        for (int i = 0; i < ingredients.size(); i++) {
+            int[] curve = new int[samples.size()];
+            for (int s = 0; s < curve.length; s++) {
+                curve[s] = samples.get(s)[i];
+            }
+            curves.put(ingredients.get(i), curve);
+        }
+        return new SimulationReport(simulatedMillis, orders, prepared,
+                simulatedMillis <= 0 ? 0 : prepared * 1000.0 / simulatedMillis,
+                orders == 0 ? 0 : (double) rejected / orders, rejections, metrics.getOutletUtilization(), times, curves,
+                metrics);
+    }
+
+    private static class Refill {
+        final String ingredient;
+        final long periodMillis;
+        final int quantity;
+
+        Refill(String ingredient, long periodMillis, int quantity) {
+            this.ingredient = ingredient;
+            this.periodMillis = periodMillis;
+            this.quantity = quantity;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.pojo.Ingredient;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of ingredients ordered by remaining stock, kept up to date from every stock change instead of scanning all
+ * ingredients on each query. Ingredients are kept in buckets by the power of two range of their stock, so an order
+ * only touches the index when the stock crosses a power of two, and a query only visits the buckets at or below
+ * the threshold: every ingredient in the buckets below the threshold bucket is running low.
+ */
+class LowStockIndex implements StockStore.Observer {
+    private static final int BUCKETS = 33;
+
+    private final StockStore store;
+    private final BrewScheduler notifier;
+    private final Set<Integer>[] buckets;
+    private volatile Registration[] listeners;
+
+    @SuppressWarnings("unchecked")
+    LowStockIndex(StockStore store, BrewScheduler notifier) {
+        this.store = store;
+        this.notifier = notifier;
+        this.buckets = new Set[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = ConcurrentHashMap.newKeySet();
+        }
+        this.listeners = new Registration[0];
+        store.addObserver(this);
+    }
+
+    @Override
+    public void stockChanged(int slot, int oldStock, int newStock) {
+        int oldBucket = bucket(oldStock);
+        int newBucket = bucket(newStock);
+        if (oldBucket != newBucket) {
+            // added before removed, so a concurrent query never misses the ingredient
+            if (newBucket >= 0) {
+                buckets[newBucket].add(slot);
+            }
+            if (oldBucket >= 0) {
+                buckets[oldBucket].remove(slot);
+            }
+        }
+        for (Registration registration : listeners) {
+            if (newStock <= registration.threshold && newStock != StockStore.ABSENT
+                    && (oldStock > registration.threshold || oldStock == StockStore.ABSENT)) {
+                String name = store.name(slot);
+                notifier.execute(() -> registration.listener.onLowStock(name, newStock));
+            }
+        }
+    }
+
+    /**
+     * Returns all ingredients with stock less than or equal to the threshold
+     *
+     * @param threshold The passed threshold
+     * @return Map ingredient map with ingredients running low
+     */
+    Map<String, Ingredient> runningLow(int threshold) {
+        Map<String, Ingredient> runningLow = new HashMap<>();
+        int last = bucket(Math.max(threshold, 0));
+        for (int bucket = 0; bucket <= last; bucket++) {
+            for (Integer slot : buckets[bucket]) {
+                // stock is read again, it may have moved since the bucket was read, and with what the shards of the
+                // ingredient hold, which buckets do not count
+                int stock = store.total(slot);
+                if (stock != StockStore.ABSENT && stock <= threshold) {
+                    String name = store.name(slot);
+                    runningLow.put(name, new Ingredient(name, stock));
+                }
+            }
+        }
+        return runningLow;
+    }
+
+    /**
+     * registers a listener called, on a scheduler thread, whenever an ingredient drops to or below the threshold
+     *
+     * @param threshold The passed threshold
+     * @param listener  the listener
+     */
+    synchronized void addListener(int threshold, LowStockListener listener) {
+        Registration[] grown = new Registration[listeners.length + 1];
+        System.arraycopy(listeners, 0, grown, 0, listeners.length);
+        grown[listeners.length] = new Registration(threshold, listener);
+        listeners = grown;
+    }
+
+    /**
+     * @return bucket of the stock: 0 for nothing left, b for stock in [2^(b-1), 2^b), -1 for absent ingredients
+     */
+    private static int bucket(int stock) {
+        if (stock == StockStore.ABSENT) {
+            return -1;
+        }
+        return stock <= 0 ? 0 : Integer.SIZE - Integer.numberOfLeadingZeros(stock);
+    }
+
+    private static class Registration {
+        final int threshold;
+        final LowStockListener listener;
+
+        Registration(int threshold, LowStockListener listener) {
+            this.threshold = threshold;
+            this.listener = listener;
+        }
+    }
+}
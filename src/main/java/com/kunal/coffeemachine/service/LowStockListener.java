@@ -0,0 +1,14 @@
+package com.kunal.coffeemachine.service;
+
+/**
+ * Listener notified when the stock of an ingredient drops to or below the threshold it was registered with.
+ */
+@FunctionalInterface
+interface LowStockListener {
+
+    /**
+     * @param ingredientName The name of the ingredient running low.
+     * @param stock          the stock right after it crossed the threshold
+     */
+    void onLowStock(String ingredientName, int stock);
+}
@@ -0,0 +1,291 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.pojo.Config;
+import com.kunal.coffeemachine.pojo.Ingredient;
+import com.kunal.coffeemachine.pojo.OrderResult;
+import com.kunal.coffeemachine.pojo.OrderStatus;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stock and outlets of many coffee machines running the same config, held in one flat array instead of a set of
+ * objects per machine, for hosting a twin of a whole estate of machines. The beverages are compiled once against a
+ * shared ingredient catalog and every machine is a fixed stride of ints in the array: its lock sequence, its used
+ * outlets and then its stock of every ingredient in catalog slot order. The array holds no references, so however
+ * many machines the estate has, the garbage collector sees a handful of objects and never traces into the array.
+ * <p>
+ * An order takes a free outlet of its machine with a CAS and reserves all its ingredients at once under the lock
+ * sequence of the machine, which is odd while held, so stock is updated in place and readers validate their copies
+ * against the sequence like {@link StockStore#snapshot(Runnable)} does. The outlet is held for the brew time of the
+ * beverage on the brew scheduler. Machines of an estate do not queue orders, keep metrics or notify listeners, and
+ * ingredients cannot be added once the estate is built.
+ */
+class MachineEstate {
+    private static final int SEQUENCE = 0;
+    private static final int USED_OUTLETS = 1;
+    private static final int HEADER = 2;
+    private static final int SPINS_BEFORE_PARK = 64;
+    private static final long PARK_NANOS = 1_000;
+    private static final int SNAPSHOT_ATTEMPTS = 32;
+
+    /**
+     * interns the ingredients of the catalog, the stock it holds is the stock every machine starts with
+     */
+    private final StockStore catalog;
+    @Getter
+    private final Map<String, Recipe> recipes;
+    @Getter
+    private final int machineCount;
+    @Getter
+    private final int numOutlets;
+    private final int ingredientCount;
+    private final int stride;
+    private final AtomicIntegerArray state;
+    private final BrewScheduler brewScheduler;
+
+    /**
+     * @param config        config every machine of the estate runs, stocked with its total items quantity
+     * @param machineCount  number of machines, numbered from 0
+     * @param brewScheduler releases the outlets once beverages are brewed, a {@link VirtualClock} runs the estate in
+     *                      simulated time
+     * @throws IllegalArgumentException if the estate does not fit in one array
+     */
+    MachineEstate(Config config, int machineCount, BrewScheduler brewScheduler) {
+        Config.MachineConfig machineConfig = config.getMachineConfig();
+        this.catalog = new StockStore();
+        Menu menu = Menu.of(machineConfig);
+        for (int i = 0; i < menu.ingredientCount(); i++) {
+            if (menu.getStock()[i] != StockStore.ABSENT) {
+                catalog.set(menu.getIngredientNames()[i], menu.getStock()[i]);
+            }
+        }
+        this.recipes = Collections.unmodifiableMap(Catalog.compileRecipes(machineConfig, menu, catalog));
+        this.machineCount = machineCount;
+        this.numOutlets = machineConfig.getOutletConfig().getCount();
+        this.ingredientCount = catalog.size();
+        this.stride = HEADER + ingredientCount;
+        if ((long) machineCount * stride > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(machineCount + " machines of " + ingredientCount
+                    + " ingredients do not fit in one estate");
+        }
+        this.state = new AtomicIntegerArray(machineCount * stride);
+        this.brewScheduler = brewScheduler;
+        for (int machine = 0; machine < machineCount; machine++) {
+            int base = machine * stride;
+            for (int slot = 0; slot < ingredientCount; slot++) {
+                state.lazySet(base + HEADER + slot, catalog.stock(slot));
+            }
+        }
+    }
+
+    /**
+     * prepares the beverage on the machine if an outlet is free and its stock is sufficient. The outlet stays taken
+     * for the brew time of the beverage, the result is reported straight away.
+     *
+     * @param machine      number of the machine
+     * @param beverageName The name of the beverage requested.
+     * @return result of the order, known beverages get a result built once for the whole estate
+     */
+    OrderResult tryGetBeverage(int machine, String beverageName) {
+        Recipe recipe = recipes.get(beverageName);
+        if (Objects.isNull(recipe)) {
+            return new OrderResult(beverageName, OrderStatus.BEVERAGE_NOT_FOUND, null);
+        }
+        int base = base(machine);
+        if (!acquireOutlet(base)) {
+            return recipe.getAllSlotsOccupiedResult();
+        }
+        OrderResult result = reserve(base, recipe);
+        if (!result.isPrepared() || recipe.getBrewTimeMillis() <= 0) {
+            releaseOutlet(base);
+            return result;
+        }
+        brewScheduler.schedule(() -> releaseOutlet(base), recipe.getBrewTimeMillis());
+        return result;
+    }
+
+    /**
+     * Refills the ingredient of the machine with the quantity passed
+     *
+     * @param machine        number of the machine
+     * @param ingredientName The name of the ingredient requested.
+     * @param quantity       the new stock
+     * @throws IllegalArgumentException if the ingredient is not in the catalog of the estate or the quantity is
+     *                                  negative
+     */
+    void refillIngredient(int machine, String ingredientName, int quantity) {
+        if (quantity < 0) {
+            throw new IllegalArgumentException("quantity of " + ingredientName + " must not be negative");
+        }
+        int slot = slot(ingredientName);
+        int base = base(machine);
+        lock(base);
+        try {
+            state.set(base + HEADER + slot, quantity);
+        } finally {
+            unlock(base);
+        }
+    }
+
+    /**
+     * @param machine        number of the machine
+     * @param ingredientName The name of the ingredient requested.
+     * @return current stock of the ingredient on the machine, or {@link StockStore#ABSENT}
+     * @throws IllegalArgumentException if the ingredient is not in the catalog of the estate
+     */
+    int stock(int machine, String ingredientName) {
+        return state.get(base(machine) + HEADER + slot(ingredientName));
+    }
+
+    /**
+     * @param machine number of the machine
+     * @return the number of outlets of the machine brewing
+     */
+    int usedOutlets(int machine) {
+        return state.get(base(machine) + USED_OUTLETS);
+    }
+
+    /**
+     * Returns all ingredients of the machine with stock less than threshold, read at one point in time
+     *
+     * @param machine   number of the machine
+     * @param threshold The passed threshold
+     * @return Map ingredient map with ingredients running low
+     */
+    Map<String, Ingredient> getIngredientsRunningLow(int machine, int threshold) {
+        int[] stock = snapshot(machine);
+        Map<String, Ingredient> runningLow = new HashMap<>();
+        for (int slot = 0; slot < stock.length; slot++) {
+            if (stock[slot] != StockStore.ABSENT && stock[slot] <= threshold) {
+                runningLow.put(catalog.name(slot), new Ingredient(catalog.name(slot), stock[slot]));
+            }
+        }
+        return runningLow;
+    }
+
+    /**
+     * copies the stock of the machine as it was at one point in time, without taking its lock unless writers keep
+     * every attempt from validating
+     *
+     * @param machine number of the machine
+     * @return the stock by catalog slot
+     */
+    int[] snapshot(int machine) {
+        int base = base(machine);
+        int[] stock = new int[ingredientCount];
+        for (int attempt = 0; attempt < SNAPSHOT_ATTEMPTS; attempt++) {
+            int sequence = state.get(base + SEQUENCE);
+            if ((sequence & 1) == 0) {
+                for (int slot = 0; slot < ingredientCount; slot++) {
+                    stock[slot] = state.get(base + HEADER + slot);
+                }
+                if (state.get(base + SEQUENCE) == sequence) {
+                    return stock;
+                }
+            }
+            Thread.yield();
+        }
+        lock(base);
+        try {
+            for (int slot = 0; slot < ingredientCount; slot++) {
+                stock[slot] = state.get(base + HEADER + slot);
+            }
+        } finally {
+            unlock(base);
+        }
+        return stock;
+    }
+
+    /**
+     * @return bytes of state every machine takes in the estate
+     */
+    int bytesPerMachine() {
+        return stride * Integer.BYTES;
+    }
+
+    /**
+     * takes the ingredients of the recipe from the machine all or nothing, reporting like the reservation engine:
+     * the first missing or else the last insufficient ingredient in recipe order
+     */
+    private OrderResult reserve(int base, Recipe recipe) {
+        int[] slots = recipe.getSlots();
+        int[] quantities = recipe.getQuantities();
+        lock(base);
+        try {
+            int insufficient = -1;
+            for (int i = 0; i < slots.length; i++) {
+                int stock = state.get(base + HEADER + slots[i]);
+                if (stock == StockStore.ABSENT) {
+                    return recipe.ingredientNotFound(i);
+                }
+                if (stock < quantities[i]) {
+                    insufficient = i;
+                }
+            }
+            if (insufficient >= 0) {
+                return recipe.insufficientQuantity(insufficient);
+            }
+            for (int i = 0; i < slots.length; i++) {
+                int index = base + HEADER + slots[i];
+                state.set(index, state.get(index) - quantities[i]);
+            }
+            return recipe.getPreparedResult();
+        } finally {
+            unlock(base);
+        }
+    }
+
+    private boolean acquireOutlet(int base) {
+        int current = state.get(base + USED_OUTLETS);
+        while (current < numOutlets) {
+            if (state.compareAndSet(base + USED_OUTLETS, current, current + 1)) {
+                return true;
+            }
+            current = state.get(base + USED_OUTLETS);
+        }
+        return false;
+    }
+
+    private void releaseOutlet(int base) {
+        state.decrementAndGet(base + USED_OUTLETS);
+    }
+
+    private void lock(int base) {
+        int spins = 0;
+        int current = state.get(base + SEQUENCE);
+        // the sequence is odd while a writer holds the machine
+        while ((current & 1) != 0 || !state.compareAndSet(base + SEQUENCE, current, current + 1)) {
+            if (++spins < SPINS_BEFORE_PARK) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+            current = state.get(base + SEQUENCE);
+        }
+    }
+
+    private void unlock(int base) {
+        state.incrementAndGet(base + SEQUENCE);
+    }
+
+    private int base(int machine) {
+        if (machine < 0 || machine >= machineCount) {
+            throw new IndexOutOfBoundsException("no machine " + machine + " in an estate of " + machineCount);
+        }
+        return machine * stride;
+    }
+
+    private int slot(String ingredientName) {
+        int slot = catalog.find(ingredientName);
+        if (slot < 0) {
+            throw new IllegalArgumentException(ingredientName + " is not in the catalog of the estate");
+        }
+        return slot;
+    }
+}
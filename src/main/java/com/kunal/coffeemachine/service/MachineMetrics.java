@@ -0,0 +1,102 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.pojo.HistogramSnapshot;
+import com.kunal.coffeemachine.pojo.MetricsSnapshot;
+import com.kunal.coffeemachine.pojo.OrderStatus;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumentation of a coffee machine. Recording only increments striped counters and histogram buckets, it never
+ * locks and, once a beverage has been ordered for the first time, never allocates. A disabled instance records
+ * nothing and does not even read the clock.
+ */
+class MachineMetrics {
+    private final boolean enabled;
+    private final BrewScheduler clock;
+    private final long startNanos;
+    private final LongAdder outletBusyNanos;
+    private final LongAdder unknownBeverages;
+
+    /**
+     * @param enabled whether anything is recorded
+     * @param clock   scheduler of the machine, whose time the latencies are measured in
+     */
+    MachineMetrics(boolean enabled, BrewScheduler clock) {
+        this.enabled = enabled;
+        this.clock = clock;
+        this.startNanos = clock.nanoTime();
+        this.outletBusyNanos = new LongAdder();
+        this.unknownBeverages = new LongAdder();
+    }
+
+    /**
+     * @return the current time in nanoseconds, or 0 when disabled
+     */
+    long now() {
+        return enabled ? clock.nanoTime() : 0;
+    }
+
+    void unknownBeverage() {
+        if (enabled) {
+            unknownBeverages.increment();
+        }
+    }
+
+    void outcome(Recipe recipe, OrderStatus status) {
+        if (enabled) {
+            recipe.metrics().outcome(status);
+        }
+    }
+
+    /**
+     * records a prepared beverage
+     *
+     * @param recipe      The compiled beverage prepared.
+     * @param orderClass  class of the order
+     * @param submittedAt when the order was placed
+     * @param startedAt   when the order got its outlet
+     * @param preparedAt  when the beverage was ready
+     */
+    void prepared(Recipe recipe, OrderClass orderClass, long submittedAt, long startedAt, long preparedAt) {
+        if (enabled) {
+            recipe.metrics().prepared(startedAt - submittedAt, preparedAt - startedAt);
+            orderClass.getQueueWait().record(startedAt - submittedAt);
+        }
+    }
+
+    /**
+     * adds the time outlets were held to the outlet utilization
+     *
+     * @param count      the number of outlets released
+     * @param acquiredAt when the outlets were taken
+     * @param releasedAt when the outlets were released
+     */
+    void outletsReleased(int count, long acquiredAt, long releasedAt) {
+        if (enabled) {
+            outletBusyNanos.add(count * (releasedAt - acquiredAt));
+        }
+    }
+
+    MetricsSnapshot snapshot(Collection<Recipe> recipes, OutletScheduler outlets, StockStore store) {
+        long uptime = clock.nanoTime() - startNanos;
+        Map<String, MetricsSnapshot.BeverageStats> beverages = new HashMap<>();
+        for (Recipe recipe : recipes) {
+            if (recipe.hasMetrics()) {
+                beverages.put(recipe.getName(), recipe.metrics().snapshot());
+            }
+        }
+        Map<String, HistogramSnapshot> classQueueWait = new LinkedHashMap<>();
+        for (OrderClass orderClass : outlets.getClasses()) {
+            classQueueWait.put(orderClass.getName(), orderClass.getQueueWait().snapshot());
+        }
+        double utilization = uptime <= 0 ? 0 : outletBusyNanos.sum() / ((double) uptime * outlets.getNumOutlets());
+        return new MetricsSnapshot(uptime, outlets.getNumOutlets(), outlets.getUsedOutlets().get(), utilization,
+                unknownBeverages.sum(), outlets.getRetries().sum(), store.getLockRetries().sum(), beverages,
+                classQueueWait);
+    }
+}
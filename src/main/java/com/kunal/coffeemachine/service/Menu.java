@@ -0,0 +1,313 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.pojo.Config;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The ingredients and beverages of a machine config in flat arrays: every ingredient with its starting stock, and
+ * every beverage as a run of ingredient indices and quantities. However many beverages a menu has it is a handful of
+ * objects, so a catalog is compiled from it without a map per beverage. A menu is built from the maps of a bound
+ * {@link Config}, streamed from the JSON by {@link ConfigLoader}, or mapped from a binary image {@link #write written}
+ * once, which skips parsing altogether.
+ * <p>
+ * The image is the counts, then the stock, offsets, ingredient indices and quantities as int arrays and then the
+ * names of the ingredients and beverages, all big endian, so the arrays are copied out of the mapped file in bulk.
+ */
+@Getter
+class Menu {
+    private static final int MAGIC = 0x434D454E;
+    private static final int VERSION = 1;
+
+    private final String[] ingredientNames;
+    /**
+     * starting stock of every ingredient, {@link StockStore#ABSENT} for ingredients only beverages name
+     */
+    private final int[] stock;
+    private final String[] beverageNames;
+    /**
+     * the ingredients of beverage b are at offsets[b] up to offsets[b + 1]
+     */
+    private final int[] offsets;
+    private final int[] ingredients;
+    private final int[] quantities;
+
+    private Menu(String[] ingredientNames, int[] stock, String[] beverageNames, int[] offsets, int[] ingredients,
+                 int[] quantities) {
+        this.ingredientNames = ingredientNames;
+        this.stock = stock;
+        this.beverageNames = beverageNames;
+        this.offsets = offsets;
+        this.ingredients = ingredients;
+        this.quantities = quantities;
+    }
+
+    int ingredientCount() {
+        return ingredientNames.length;
+    }
+
+    int beverageCount() {
+        return beverageNames.length;
+    }
+
+    /**
+     * @param machineConfig config of the machine, with its stock and beverages or the path of a catalog image
+     * @return the menu of the config
+     * @throws IllegalArgumentException if the config has both a catalog image and beverages
+     * @throws UncheckedIOException     if the catalog image cannot be read
+     */
+    static Menu of(Config.MachineConfig machineConfig) {
+        if (Objects.nonNull(machineConfig.getCatalogImage())) {
+            if (Objects.nonNull(machineConfig.getBeverages()) || Objects.nonNull(machineConfig.getTotalItemsConfig())) {
+                throw new IllegalArgumentException("a config with a catalog image has no beverages or items of its own");
+            }
+            try {
+                return map(Paths.get(machineConfig.getCatalogImage()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        Builder builder = new Builder();
+        if (Objects.nonNull(machineConfig.getTotalItemsConfig())) {
+            for (Map.Entry<String, Integer> entry : machineConfig.getTotalItemsConfig().entrySet()) {
+                builder.stock(entry.getKey(), entry.getValue());
+            }
+        }
+        if (Objects.nonNull(machineConfig.getBeverages())) {
+            for (Map.Entry<String, Map<String, Integer>> beverage : machineConfig.getBeverages().entrySet()) {
+                builder.beverage(beverage.getKey());
+                for (Map.Entry<String, Integer> entry : beverage.getValue().entrySet()) {
+                    builder.use(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the ingredients and quantities of beverage b by ingredient name, in recipe order
+     */
+    Map<String, Integer> recipe(int beverage) {
+        Map<String, Integer> recipe = new LinkedHashMap<>();
+        for (int i = offsets[beverage]; i < offsets[beverage + 1]; i++) {
+            recipe.put(ingredientNames[ingredients[i]], quantities[i]);
+        }
+        return recipe;
+    }
+
+    /**
+     * writes the binary image of the menu
+     *
+     * @param path file to write, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    void write(Path path) throws IOException {
+        int size = Integer.BYTES * (5 + stock.length + offsets.length + ingredients.length + quantities.length);
+        List<byte[]> names = new ArrayList<>(ingredientNames.length + beverageNames.length);
+        for (String name : ingredientNames) {
+            names.add(name.getBytes(StandardCharsets.UTF_8));
+        }
+        for (String name : beverageNames) {
+            names.add(name.getBytes(StandardCharsets.UTF_8));
+        }
+        for (byte[] name : names) {
+            size += Short.BYTES + name.length;
+        }
+        ByteBuffer image = ByteBuffer.allocate(size);
+        image.putInt(MAGIC).putInt(VERSION).putInt(ingredientNames.length).putInt(beverageNames.length)
+                .putInt(ingredients.length);
+        IntBuffer arrays = image.asIntBuffer();
+        arrays.put(stock).put(offsets).put(ingredients).put(quantities);
+        image.position(image.position() + arrays.position() * Integer.BYTES);
+        for (byte[] name : names) {
+            if (name.length > 0xFFFF) {
+                throw new IllegalArgumentException("name of " + name.length + " bytes");
+            }
+            image.putShort((short) name.length).put(name);
+        }
+        image.flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (image.hasRemaining()) {
+                channel.write(image);
+            }
+        }
+    }
+
+    /**
+     * maps a binary image written by {@link #write(Path)} and copies the menu out of it
+     *
+     * @param path file of the image
+     * @return the menu
+     * @throws IOException if the file cannot be read or is no menu image
+     */
+    static Menu map(Path path) throws IOException {
+        MappedByteBuffer image;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping stays valid once the channel is closed
+            image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (image.remaining() < 5 * Integer.BYTES || image.getInt() != MAGIC) {
+            throw new IOException(path + " is not a menu image");
+        }
+        if (image.getInt() != VERSION) {
+            throw new IOException(path + " is a menu image of another version");
+        }
+        int ingredientCount = image.getInt();
+        int beverageCount = image.getInt();
+        int useCount = image.getInt();
+        if (ingredientCount < 0 || beverageCount < 0 || useCount < 0 || Integer.BYTES
+                * ((long) ingredientCount + beverageCount + 1 + 2L * useCount) > image.remaining()) {
+            throw new IOException(path + " is a truncated menu image");
+        }
+        int[] stock = new int[ingredientCount];
+        int[] offsets = new int[beverageCount + 1];
+        int[] ingredients = new int[useCount];
+        int[] quantities = new int[useCount];
+        IntBuffer arrays = image.asIntBuffer();
+        arrays.get(stock).get(offsets).get(ingredients).get(quantities);
+        image.position(image.position() + arrays.position() * Integer.BYTES);
+        // the uses of every beverage must lie within the uses and name an ingredient of the menu
+        if (offsets[0] != 0 || offsets[beverageCount] != useCount) {
+            throw new IOException(path + " is a corrupt menu image");
+        }
+        for (int b = 0; b < beverageCount; b++) {
+            if (offsets[b + 1] < offsets[b]) {
+                throw new IOException(path + " is a corrupt menu image");
+            }
+        }
+        for (int ingredient : ingredients) {
+            if (ingredient < 0 || ingredient >= ingredientCount) {
+                throw new IOException(path + " is a corrupt menu image");
+            }
+        }
+        String[] ingredientNames = new String[ingredientCount];
+        String[] beverageNames = new String[beverageCount];
+        try {
+            for (int i = 0; i < ingredientCount; i++) {
+                ingredientNames[i] = readName(image);
+            }
+            for (int b = 0; b < beverageCount; b++) {
+                beverageNames[b] = readName(image);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException(path + " is a truncated menu image", e);
+        }
+        return new Menu(ingredientNames, stock, beverageNames, offsets, ingredients, quantities);
+    }
+
+    private static String readName(ByteBuffer image) {
+        int length = image.getShort() & 0xFFFF;
+        if (image.hasArray()) {
+            String name = new String(image.array(), image.arrayOffset() + image.position(), length, StandardCharsets.UTF_8);
+            image.position(image.position() + length);
+            return name;
+        }
+        byte[] bytes = new byte[length];
+        image.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Builds a menu one ingredient and beverage at a time, in growing arrays.
+     */
+    static final class Builder {
+        private final Map<String, Integer> ingredientIds = new HashMap<>();
+        private final List<String> ingredientNames = new ArrayList<>();
+        private int[] stock = new int[16];
+        private final List<String> beverageNames = new ArrayList<>();
+        private int[] offsets = new int[16];
+        private int[] ingredients = new int[64];
+        private int[] quantities = new int[64];
+        private int uses;
+
+        /**
+         * sets the starting stock of the ingredient
+         */
+        Builder stock(String ingredientName, int quantity) {
+            int ingredient = ingredient(ingredientName);
+            stock[ingredient] = quantity;
+            return this;
+        }
+
+        /**
+         * starts the next beverage, the ingredients used from now on are its own
+         */
+        Builder beverage(String beverageName) {
+            if (beverageNames.size() + 1 >= offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            beverageNames.add(beverageName);
+            offsets[beverageNames.size()] = uses;
+            return this;
+        }
+
+        /**
+         * adds the ingredient to the current beverage, an ingredient named twice keeps the last quantity like a
+         * bound map does
+         */
+        Builder use(String ingredientName, int quantity) {
+            if (beverageNames.isEmpty()) {
+                throw new IllegalStateException("no beverage started");
+            }
+            int ingredient = ingredient(ingredientName);
+            for (int i = offsets[beverageNames.size() - 1]; i < uses; i++) {
+                if (ingredients[i] == ingredient) {
+                    quantities[i] = quantity;
+                    return this;
+                }
+            }
+            if (uses == ingredients.length) {
+                ingredients = Arrays.copyOf(ingredients, uses * 2);
+                quantities = Arrays.copyOf(quantities, uses * 2);
+            }
+            ingredients[uses] = ingredient;
+            quantities[uses] = quantity;
+            offsets[beverageNames.size()] = ++uses;
+            return this;
+        }
+
+        boolean isEmpty() {
+            return ingredientNames.isEmpty() && beverageNames.isEmpty();
+        }
+
+        Menu build() {
+            int beverageCount = beverageNames.size();
+            return new Menu(ingredientNames.toArray(new String[0]), Arrays.copyOf(stock, ingredientNames.size()),
+                    beverageNames.toArray(new String[0]), Arrays.copyOf(offsets, beverageCount + 1),
+                    Arrays.copyOf(ingredients, uses), Arrays.copyOf(quantities, uses));
+        }
+
+        private int ingredient(String ingredientName) {
+            Integer id = ingredientIds.get(ingredientName);
+            if (Objects.nonNull(id)) {
+                return id;
+            }
+            if (ingredientNames.size() == stock.length) {
+                stock = Arrays.copyOf(stock, stock.length * 2);
+            }
+            stock[ingredientNames.size()] = StockStore.ABSENT;
+            ingredientIds.put(ingredientName, ingredientNames.size());
+            ingredientNames.add(ingredientName);
+            return ingredientNames.size() - 1;
+        }
+    }
+}
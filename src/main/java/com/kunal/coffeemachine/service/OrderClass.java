@@ -0,0 +1,34 @@
+package com.kunal.coffeemachine.service;
+
+import lombok.Getter;
+
+/**
+ * A class of orders sharing the outlets of a machine, such as walk-up customers or catering. While orders of several
+ * classes wait, the outlets released are shared between the classes in proportion to their weights, and the first
+ * class is also the only one allowed on the reserved outlets.
+ */
+@Getter
+class OrderClass {
+    static final String DEFAULT_NAME = "default";
+
+    private final String name;
+    /**
+     * position of the class in the config, 0 is the highest priority
+     */
+    private final int index;
+    private final int weight;
+    /**
+     * time the prepared orders of the class waited for an outlet
+     */
+    private final LatencyHistogram queueWait;
+
+    OrderClass(String name, int index, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("weight of order class " + name + " must be positive");
+        }
+        this.name = name;
+        this.index = index;
+        this.weight = weight;
+        this.queueWait = new LatencyHistogram();
+    }
+}
@@ -0,0 +1,142 @@
+package com.kunal.coffeemachine.service;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Consumer;
+
+/**
+ * Collects identical asynchronous orders into multi-cup batches. The first order of a beverage and order class opens
+ * a batch, which is handed to the brewer once its window has passed or once it holds as many cups as the recipe
+ * allows, so a burst of the same beverage takes one outlet and one brew instead of one each.
+ */
+class OrderCoalescer {
+    static final int DEFAULT_BATCH_SIZE = 4;
+    static final long DEFAULT_WINDOW_MILLIS = 10;
+
+    private final long windowMillis;
+    private final BrewScheduler timer;
+    private final Consumer<CupBatch> brewer;
+    private final int classCount;
+    private final Map<String, Lane[]> lanes;
+
+    /**
+     * @param windowMillis how long a batch waits for more cups, default if null
+     * @param timer        runs the window timeouts
+     * @param brewer       takes a closed batch to the outlets
+     * @param classCount   the number of order classes of the machine
+     */
+    OrderCoalescer(Long windowMillis, BrewScheduler timer, Consumer<CupBatch> brewer, int classCount) {
+        this.windowMillis = windowMillis == null ? DEFAULT_WINDOW_MILLIS : windowMillis;
+        this.timer = timer;
+        this.brewer = brewer;
+        this.classCount = classCount;
+        this.lanes = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * adds the order to the open batch of its beverage and class, opening one if needed
+     *
+     * @param recipe        The compiled beverage requested.
+     * @param orderClass    class of the order
+     * @param result        future of the order, completed once its cup is prepared or the batch failed
+     * @param submittedAt   when the order was placed
+     * @param timeoutMillis how long the order may wait for an outlet, a batch waits as long as its first order
+     */
+    void add(Recipe recipe, OrderClass orderClass, CompletableFuture<String> result, long submittedAt,
+             long timeoutMillis) {
+        Lane lane = lane(recipe.getName(), orderClass);
+        CupBatch replaced = null;
+        CupBatch full = null;
+        synchronized (lane) {
+            CupBatch open = lane.open;
+            if (open != null && open.recipe != recipe) {
+                // the catalog was reloaded, cups of the previous recipe are brewed on their own
+                replaced = close(lane);
+                open = null;
+            }
+            if (open == null) {
+                CupBatch batch = new CupBatch(recipe, orderClass, timeoutMillis);
+                batch.window = timer.scheduleCancellable(() -> expire(lane, batch), windowMillis);
+                lane.open = batch;
+                open = batch;
+            }
+            open.cups.add(result);
+            open.submittedAt[open.cups.size() - 1] = submittedAt;
+            if (open.cups.size() >= recipe.getMaxCups()) {
+                full = close(lane);
+            }
+        }
+        if (replaced != null) {
+            brewer.accept(replaced);
+        }
+        if (full != null) {
+            brewer.accept(full);
+        }
+    }
+
+    private Lane lane(String beverageName, OrderClass orderClass) {
+        Lane[] byClass = lanes.computeIfAbsent(beverageName, name -> {
+            Lane[] created = new Lane[classCount];
+            for (int i = 0; i < classCount; i++) {
+                created[i] = new Lane();
+            }
+            return created;
+        });
+        return byClass[orderClass.getIndex()];
+    }
+
+    /**
+     * takes the open batch off the lane, the caller holds the lane
+     */
+    private static CupBatch close(Lane lane) {
+        CupBatch batch = lane.open;
+        lane.open = null;
+        batch.window.cancel(false);
+        return batch;
+    }
+
+    private void expire(Lane lane, CupBatch batch) {
+        synchronized (lane) {
+            if (lane.open != batch) {
+                // closed because it was full
+                return;
+            }
+            lane.open = null;
+        }
+        brewer.accept(batch);
+    }
+
+    /**
+     * The open batch of one beverage and order class.
+     */
+    private static class Lane {
+        CupBatch open;
+    }
+
+    /**
+     * Identical orders brewed together by one outlet, in the order they arrived.
+     */
+    @Getter
+    static class CupBatch {
+        private final Recipe recipe;
+        private final OrderClass orderClass;
+        private final long timeoutMillis;
+        private final List<CompletableFuture<String>> cups;
+        private final long[] submittedAt;
+        private ScheduledFuture<?> window;
+
+        CupBatch(Recipe recipe, OrderClass orderClass, long timeoutMillis) {
+            this.recipe = recipe;
+            this.orderClass = orderClass;
+            this.timeoutMillis = timeoutMillis;
+            this.cups = new ArrayList<>(recipe.getMaxCups());
+            this.submittedAt = new long[recipe.getMaxCups()];
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.pojo.BatchMode;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Wire format of the {@link OrderServer}. Every frame is its length as an int followed by that many bytes, all
+ * numbers big endian and strings an unsigned short length followed by UTF-8 bytes.
+ * <p>
+ * A request is its id as an int, an opcode byte and the operands of the opcode:
+ * <ul>
+ * <li>{@link #ORDER}: beverage, order class or empty for the default class</li>
+ * <li>{@link #BATCH}: {@link BatchMode} ordinal as a byte, beverage count as an unsigned short, the beverages, order
+ * class or empty</li>
+ * <li>{@link #REFILL}: ingredient, quantity as an int</li>
+ * <li>{@link #STOCK}: ingredient, or empty for every ingredient</li>
+ * </ul>
+ * A response is the id of its request, a status byte and the result: the message of an order, the
+ * {@link com.kunal.coffeemachine.pojo.OrderStatus} ordinal byte and failing ingredient or empty of every beverage of
+ * a batch after their unsigned short count, nothing for a refill and the number of ingredients as an unsigned short
+ * followed by every ingredient and its stock as an int for a stock query. A failed request of any kind gets the
+ * message of its failure instead.
+ * <p>
+ * Requests may be pipelined, responses are sent as soon as they are ready and so not necessarily in request order.
+ */
+final class OrderProtocol {
+    static final byte ORDER = 1;
+    static final byte BATCH = 2;
+    static final byte REFILL = 3;
+    static final byte STOCK = 4;
+
+    static final byte OK = 0;
+    /**
+     * the beverage cannot be prepared or the ingredient is not available
+     */
+    static final byte REJECTED = 1;
+    /**
+     * all outlets are taken and the queue is full
+     */
+    static final byte BUSY = 2;
+    static final byte TIMED_OUT = 3;
+    /**
+     * the request is malformed or could not be served
+     */
+    static final byte ERROR = 4;
+
+    /**
+     * largest frame accepted, without its length
+     */
+    static final int MAX_FRAME_BYTES = 1 << 20;
+    /**
+     * smallest frame accepted, the request id and the opcode or status
+     */
+    static final int HEADER_BYTES = Integer.BYTES + 1;
+
+    private OrderProtocol() {
+    }
+
+    /**
+     * takes the next complete frame off the buffer
+     *
+     * @param buffer bytes received, in read mode
+     * @return the frame without its length, or null if the buffer does not hold all of it yet
+     * @throws IllegalArgumentException if the frame is shorter than {@link #HEADER_BYTES} or larger than
+     *                                  {@link #MAX_FRAME_BYTES}
+     */
+    static ByteBuffer nextFrame(ByteBuffer buffer) {
+        if (buffer.remaining() < Integer.BYTES) {
+            return null;
+        }
+        int length = buffer.getInt(buffer.position());
+        if (length < HEADER_BYTES || length > MAX_FRAME_BYTES) {
+            throw new IllegalArgumentException("frame of " + length + " bytes");
+        }
+        if (buffer.remaining() < Integer.BYTES + length) {
+            return null;
+        }
+        ByteBuffer frame = buffer.duplicate();
+        frame.position(buffer.position() + Integer.BYTES).limit(buffer.position() + Integer.BYTES + length);
+        buffer.position(frame.limit());
+        return frame.slice();
+    }
+
+    static String getString(ByteBuffer frame) {
+        int length = frame.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        frame.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static ByteBuffer order(int id, String beverageName, String orderClass) {
+        return new Frame(id, ORDER).putString(beverageName).putString(orderClass).toBuffer();
+    }
+
+    static ByteBuffer batch(int id, BatchMode mode, List<String> beverageNames, String orderClass) {
+        Frame frame = new Frame(id, BATCH).putByte(mode.ordinal()).putShort(beverageNames.size());
+        for (String beverageName : beverageNames) {
+            frame.putString(beverageName);
+        }
+        return frame.putString(orderClass).toBuffer();
+    }
+
+    static ByteBuffer refill(int id, String ingredientName, int quantity) {
+        return new Frame(id, REFILL).putString(ingredientName).putInt(quantity).toBuffer();
+    }
+
+    static ByteBuffer stock(int id, String ingredientName) {
+        return new Frame(id, STOCK).putString(ingredientName).toBuffer();
+    }
+
+    /**
+     * Builds a frame of growing size, its length is filled in once it is complete.
+     */
+    static final class Frame {
+        private ByteBuffer buffer = ByteBuffer.allocate(64);
+
+        /**
+         * @param id   id of the request
+         * @param code opcode of a request or status of a response
+         */
+        Frame(int id, byte code) {
+            buffer.putInt(0).putInt(id).put(code);
+        }
+
+        Frame putByte(int value) {
+            ensure(1).put((byte) value);
+            return this;
+        }
+
+        Frame putShort(int value) {
+            ensure(Short.BYTES).putShort((short) value);
+            return this;
+        }
+
+        Frame putInt(int value) {
+            ensure(Integer.BYTES).putInt(value);
+            return this;
+        }
+
+        /**
+         * @param value string to put, null puts an empty one
+         * @throws IllegalArgumentException if the string takes more than an unsigned short of bytes
+         */
+        Frame putString(String value) {
+            byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IllegalArgumentException("string of " + bytes.length + " bytes");
+            }
+            ensure(Short.BYTES + bytes.length).putShort((short) bytes.length).put(bytes);
+            return this;
+        }
+
+        /**
+         * @return the frame with its length, in read mode
+         */
+        ByteBuffer toBuffer() {
+            buffer.putInt(0, buffer.position() - Integer.BYTES);
+            buffer.flip();
+            return buffer;
+        }
+
+        private ByteBuffer ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                buffer.flip();
+                buffer = grown.put(buffer);
+            }
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.exception.AllSlotsOccupiedException;
+import com.kunal.coffeemachine.exception.OrderTimeoutException;
+import com.kunal.coffeemachine.exception.PreparationException;
+import com.kunal.coffeemachine.pojo.BatchMode;
+import com.kunal.coffeemachine.pojo.OrderResult;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves a coffee machine over TCP in the {@link OrderProtocol} wire format. One selector thread accepts the
+ * connections, reads their requests and writes their responses, so connections cost a few buffers each and no
+ * thread. Orders go to the asynchronous API of the machine and are answered from whichever thread completes them:
+ * the response is queued on its connection and the selector thread woken up to write it. Refills and stock queries
+ * are served straight away on the selector thread, batches wait for their brews and so run on the batch threads.
+ * <p>
+ * A client may pipeline any number of requests on a connection. Every request read is dispatched at once and the
+ * responses ready when the selector comes round are written together, so a pipelined connection takes few system
+ * calls per request. A connection whose client does not read its responses stops being read once they pile up.
+ */
+@Slf4j
+class OrderServer {
+    static final int DEFAULT_BATCH_THREADS = 4;
+    private static final int READ_BUFFER_BYTES = 16 * 1024;
+    private static final long MAX_PENDING_BYTES = 1 << 20;
+    private static final int MAX_GATHER = 64;
+
+    private final CoffeeMachineService service;
+    private final BrewScheduler batchThreads;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    /**
+     * connections with responses queued since the selector thread last wrote them
+     */
+    private final Queue<Connection> flushes;
+    private final Thread selectorThread;
+    private volatile boolean running;
+
+    /**
+     * @param service      the machine served
+     * @param address      address to listen on, port 0 for any free port
+     * @param batchThreads threads batches are prepared on
+     * @throws IOException if the address cannot be bound
+     */
+    OrderServer(CoffeeMachineService service, InetSocketAddress address, int batchThreads) throws IOException {
+        this.service = service;
+        this.batchThreads = new BrewScheduler("order-server-batch", batchThreads);
+        this.flushes = new ConcurrentLinkedQueue<>();
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address, 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        // the selector thread keeps the process alive like the thread of any server until closed
+        this.selectorThread = new Thread(this::run, "order-server");
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    void start() {
+        running = true;
+        selectorThread.start();
+        log.info("Order server listening on port {}", getPort());
+    }
+
+    /**
+     * Stops accepting and closes every connection, responses not written yet are dropped
+     */
+    void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isWritable()) {
+                        connection.flush();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        connection.read();
+                    }
+                }
+                Connection connection;
+                while ((connection = flushes.poll()) != null) {
+                    connection.flushQueued.set(false);
+                    connection.flush();
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            log.error("Order server stopped", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key);
+            }
+            closeQuietly(selector);
+        }
+    }
+
+    private void accept() {
+        SocketChannel channel = null;
+        try {
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Connection connection = new Connection(channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            }
+        } catch (IOException e) {
+            // out of file descriptors most likely, the connections already accepted keep being served
+            log.warn("Cannot accept connection", e);
+            if (Objects.nonNull(channel)) {
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private void closeQuietly(SelectionKey key) {
+        key.cancel();
+        closeQuietly(key.channel());
+    }
+
+    private void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            log.debug("Cannot close {}", closeable, e);
+        }
+    }
+
+    /**
+     * One client connection: the bytes read but not yet parsed, and the responses queued but not yet written.
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer in;
+        /**
+         * responses queued by any thread
+         */
+        private final Queue<ByteBuffer> outbound;
+        /**
+         * responses taken off the queue by the selector thread but not fully written yet
+         */
+        private final ArrayDeque<ByteBuffer> writing;
+        private final AtomicLong pendingBytes;
+        private final AtomicBoolean flushQueued;
+        private volatile boolean closed;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.in = ByteBuffer.allocate(READ_BUFFER_BYTES);
+            this.outbound = new ConcurrentLinkedQueue<>();
+            this.writing = new ArrayDeque<>();
+            this.pendingBytes = new AtomicLong();
+            this.flushQueued = new AtomicBoolean();
+        }
+
+        /**
+         * reads what the client sent and dispatches every complete request
+         */
+        void read() {
+            try {
+                int read = channel.read(in);
+                if (read < 0) {
+                    close();
+                    return;
+                }
+                in.flip();
+                ByteBuffer frame;
+                while ((frame = OrderProtocol.nextFrame(in)) != null) {
+                    dispatch(frame);
+                }
+                if (in.position() == 0 && in.limit() == in.capacity()) {
+                    // a frame larger than the buffer, which the protocol caps
+                    ByteBuffer grown = ByteBuffer.allocate(Math.min(in.capacity() * 2, OrderProtocol.MAX_FRAME_BYTES + Integer.BYTES));
+                    in = grown.put(in);
+                } else {
+                    in.compact();
+                }
+            } catch (IOException | RuntimeException e) {
+                // a malformed or failing request closes its own connection, never the selector every client shares
+                log.debug("Closing connection {}", channel, e);
+                close();
+            }
+        }
+
+        /**
+         * queues the response to be written by the selector thread, from any thread
+         */
+        void send(ByteBuffer response) {
+            if (closed) {
+                return;
+            }
+            outbound.add(response);
+            pendingBytes.addAndGet(response.remaining());
+            if (flushQueued.compareAndSet(false, true)) {
+                flushes.add(this);
+                if (Thread.currentThread() != selectorThread) {
+                    selector.wakeup();
+                }
+            }
+        }
+
+        /**
+         * writes as many queued responses as the socket takes, gathering them into few writes
+         */
+        void flush() {
+            if (closed) {
+                return;
+            }
+            try {
+                ByteBuffer response;
+                while ((response = outbound.poll()) != null) {
+                    writing.add(response);
+                }
+                while (!writing.isEmpty()) {
+                    ByteBuffer[] gather = new ByteBuffer[Math.min(writing.size(), MAX_GATHER)];
+                    Iterator<ByteBuffer> pending = writing.iterator();
+                    for (int i = 0; i < gather.length; i++) {
+                        gather[i] = pending.next();
+                    }
+                    long written = channel.write(gather);
+                    pendingBytes.addAndGet(-written);
+                    while (!writing.isEmpty() && !writing.peek().hasRemaining()) {
+                        writing.poll();
+                    }
+                    if (written == 0) {
+                        break;
+                    }
+                }
+                int ops = writing.isEmpty() ? 0 : SelectionKey.OP_WRITE;
+                if (pendingBytes.get() < MAX_PENDING_BYTES) {
+                    ops |= SelectionKey.OP_READ;
+                }
+                key.interestOps(ops);
+            } catch (IOException e) {
+                log.debug("Closing connection {}", channel, e);
+                close();
+            }
+        }
+
+        private void dispatch(ByteBuffer frame) {
+            int id = 0;
+            try {
+                id = frame.getInt();
+                byte opcode = frame.get();
+                switch (opcode) {
+                    case OrderProtocol.ORDER:
+                        order(id, OrderProtocol.getString(frame), orderClass(OrderProtocol.getString(frame)));
+                        break;
+                    case OrderProtocol.BATCH:
+                        batch(id, frame);
+                        break;
+                    case OrderProtocol.REFILL:
+                        refill(id, OrderProtocol.getString(frame), frame.getInt());
+                        break;
+                    case OrderProtocol.STOCK:
+                        stock(id, OrderProtocol.getString(frame));
+                        break;
+                    default:
+                        send(error(id, "unknown opcode " + opcode));
+                }
+            } catch (RuntimeException e) {
+                // a malformed request or a bad order class fails the request, not the connection
+                send(error(id, String.valueOf(e.getMessage())));
+            }
+        }
+
+        private void order(int id, String beverageName, String orderClass) {
+            service.getBeverageAsync(beverageName, orderClass).whenComplete((message, failure) -> {
+                if (Objects.isNull(failure)) {
+                    send(new OrderProtocol.Frame(id, OrderProtocol.OK).putString(message).toBuffer());
+                } else {
+                    send(new OrderProtocol.Frame(id, status(failure)).putString(failure.getMessage()).toBuffer());
+                }
+            });
+        }
+
+        private void batch(int id, ByteBuffer frame) {
+            BatchMode mode = BatchMode.values()[frame.get()];
+            int count = frame.getShort() & 0xFFFF;
+            List<String> beverageNames = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                beverageNames.add(OrderProtocol.getString(frame));
+            }
+            String orderClass = orderClass(OrderProtocol.getString(frame));
+            batchThreads.execute(() -> {
+                try {
+                    List<OrderResult> results = service.getBeverages(beverageNames, mode, orderClass);
+                    OrderProtocol.Frame response = new OrderProtocol.Frame(id, OrderProtocol.OK).putShort(results.size());
+                    for (OrderResult result : results) {
+                        response.putByte(result.getStatus().ordinal()).putString(result.getIngredientName());
+                    }
+                    send(response.toBuffer());
+                } catch (RuntimeException e) {
+                    send(error(id, String.valueOf(e.getMessage())));
+                }
+            });
+        }
+
+        private void refill(int id, String ingredientName, int quantity) {
+            if (quantity < 0) {
+                send(error(id, "quantity of " + ingredientName + " must not be negative"));
+                return;
+            }
+            service.refillIngredient(ingredientName, quantity);
+            send(new OrderProtocol.Frame(id, OrderProtocol.OK).toBuffer());
+        }
+
+        private void stock(int id, String ingredientName) {
+            Map<String, Integer> stock;
+            if (ingredientName.isEmpty()) {
+                stock = service.getInventorySnapshot().getStock();
+            } else {
+                int quantity = service.getStock(ingredientName);
+                if (quantity == StockStore.ABSENT) {
+                    send(new OrderProtocol.Frame(id, OrderProtocol.REJECTED)
+                            .putString(ingredientName + " is not available").toBuffer());
+                    return;
+                }
+                stock = Collections.singletonMap(ingredientName, quantity);
+            }
+            OrderProtocol.Frame response = new OrderProtocol.Frame(id, OrderProtocol.OK).putShort(stock.size());
+            for (Map.Entry<String, Integer> entry : stock.entrySet()) {
+                response.putString(entry.getKey()).putInt(entry.getValue());
+            }
+            send(response.toBuffer());
+        }
+
+        private void close() {
+            closed = true;
+            closeQuietly(key);
+        }
+    }
+
+    private static String orderClass(String name) {
+        return name.isEmpty() ? null : name;
+    }
+
+    private static byte status(Throwable failure) {
+        if (failure instanceof AllSlotsOccupiedException) {
+            return OrderProtocol.BUSY;
+        }
+        if (failure instanceof OrderTimeoutException) {
+            return OrderProtocol.TIMED_OUT;
+        }
+        return failure instanceof PreparationException ? OrderProtocol.REJECTED : OrderProtocol.ERROR;
+    }
+
+    private static ByteBuffer error(int id, String message) {
+        return new OrderProtocol.Frame(id, OrderProtocol.ERROR).putString(message).toBuffer();
+    }
+}
@@ -0,0 +1,42 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.pojo.Config;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+
+/**
+ * Runs a coffee machine behind an {@link OrderServer} once a machine config is given with
+ * {@code coffeemachine.server.config}, the application stays a bare context otherwise.
+ */
+@Configuration
+@ConditionalOnProperty("coffeemachine.server.config")
+class OrderServerConfiguration {
+
+    /**
+     * @param configPath path of the machine config, in the JSON format of {@link Config}, streamed so large menus
+     *                   load quickly
+     */
+    @Bean(destroyMethod = "close")
+    CoffeeMachineService coffeeMachineService(@Value("${coffeemachine.server.config}") String configPath) throws IOException {
+        ConfigLoader.Loaded loaded = ConfigLoader.load(Paths.get(configPath));
+        return new CoffeeMachineService(loaded.getConfig(), loaded.getMenu(), BrewScheduler.shared());
+    }
+
+    /**
+     * @param host address the server listens on, the loopback address unless another is configured
+     */
+    @Bean(initMethod = "start", destroyMethod = "close")
+    OrderServer orderServer(CoffeeMachineService service,
+                            @Value("${coffeemachine.server.host:127.0.0.1}") String host,
+                            @Value("${coffeemachine.server.port:7070}") int port,
+                            @Value("${coffeemachine.server.batch-threads:" + OrderServer.DEFAULT_BATCH_THREADS + "}") int batchThreads)
+            throws IOException {
+        return new OrderServer(service, new InetSocketAddress(host, port), batchThreads);
+    }
+}
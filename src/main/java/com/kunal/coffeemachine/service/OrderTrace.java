@@ -0,0 +1,178 @@
+package com.kunal.coffeemachine.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * Orders placed on a coffee machine over time, sorted by the time they were placed. A trace is either recorded, one
+ * order per line as {@code at_ms,beverage[,order_class]}, or generated with Poisson arrivals, and traces are merged
+ * to build a day out of quiet periods and rushes.
+ */
+@Getter
+class OrderTrace {
+    private static final Comparator<TracedOrder> BY_TIME = Comparator.comparingLong(TracedOrder::getAtMillis);
+
+    private final List<TracedOrder> orders;
+
+    private OrderTrace(List<TracedOrder> orders) {
+        orders.sort(BY_TIME);
+        this.orders = Collections.unmodifiableList(orders);
+    }
+
+    /**
+     * @param orders the orders, in any order
+     * @return trace of the orders
+     */
+    static OrderTrace of(List<TracedOrder> orders) {
+        return new OrderTrace(new ArrayList<>(orders));
+    }
+
+    /**
+     * generates orders arriving as a Poisson process, every order independently picking its beverage from the mix.
+     * The same seed always gives the same trace.
+     *
+     * @param seed           seed of the generator
+     * @param startMillis    when the first order may arrive
+     * @param durationMillis how long orders keep arriving
+     * @param ratePerSecond  mean number of orders per second
+     * @param mix            relative weight of every beverage ordered
+     * @param orderClass     class of the orders, null for the default class
+     * @return the generated trace
+     */
+    static OrderTrace poisson(long seed, long startMillis, long durationMillis, double ratePerSecond,
+                              Map<String, Double> mix, String orderClass) {
+        if (ratePerSecond <= 0 || mix.isEmpty()) {
+            throw new IllegalArgumentException("a trace needs a positive rate and at least one beverage");
+        }
+        String[] beverages = new String[mix.size()];
+        double[] cumulative = new double[mix.size()];
+        double total = 0;
+        int i = 0;
+        for (Map.Entry<String, Double> entry : mix.entrySet()) {
+            total += entry.getValue();
+            beverages[i] = entry.getKey();
+            cumulative[i++] = total;
+        }
+        Random random = new Random(seed);
+        List<TracedOrder> orders = new ArrayList<>();
+        double meanGapMillis = 1000 / ratePerSecond;
+        double at = startMillis;
+        while (true) {
+            at += -Math.log(1 - random.nextDouble()) * meanGapMillis;
+            if (at >= startMillis + durationMillis) {
+                break;
+            }
+            double pick = random.nextDouble() * total;
+            int beverage = 0;
+            while (beverage < cumulative.length - 1 && cumulative[beverage] <= pick) {
+                beverage++;
+            }
+            orders.add(new TracedOrder((long) at, beverages[beverage], orderClass));
+        }
+        return new OrderTrace(orders);
+    }
+
+    /**
+     * @param other orders placed alongside the ones of this trace
+     * @return trace of the orders of both traces
+     */
+    OrderTrace merge(OrderTrace other) {
+        List<TracedOrder> merged = new ArrayList<>(orders.size() + other.orders.size());
+        merged.addAll(orders);
+        merged.addAll(other.orders);
+        return new OrderTrace(merged);
+    }
+
+    /**
+     * @return when the last order was placed, 0 for an empty trace
+     */
+    long getEndMillis() {
+        return orders.isEmpty() ? 0 : orders.get(orders.size() - 1).getAtMillis();
+    }
+
+    /**
+     * reads a recorded trace, blank lines and lines starting with # are skipped
+     *
+     * @param file the recorded trace
+     * @return the trace
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if a line is not an order
+     */
+    static OrderTrace read(Path file) throws IOException {
+        List<TracedOrder> orders = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                if (fields.length < 2 || fields.length > 3) {
+                    throw new IllegalArgumentException("line " + number + " of " + file + " is not an order");
+                }
+                try {
+                    orders.add(new TracedOrder(Long.parseLong(fields[0].trim()), fields[1].trim(),
+                            fields.length == 3 ? fields[2].trim() : null));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("line " + number + " of " + file + " is not an order", e);
+                }
+            }
+        }
+        return new OrderTrace(orders);
+    }
+
+    /**
+     * records the trace in the format {@link #read(Path)} reads
+     *
+     * @param file where to record the trace
+     * @throws IOException if the file cannot be written
+     */
+    void write(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (TracedOrder order : orders) {
+                writer.write(Long.toString(order.getAtMillis()));
+                writer.write(',');
+                writer.write(order.getBeverage());
+                if (Objects.nonNull(order.getOrderClass())) {
+                    writer.write(',');
+                    writer.write(order.getOrderClass());
+                }
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * One order of a trace.
+     */
+    @Getter
+    @AllArgsConstructor
+    static class TracedOrder {
+        /**
+         * when the order is placed, in milliseconds since the start of the trace
+         */
+        private final long atMillis;
+        private final String beverage;
+        /**
+         * class of the order, null for the default class
+         */
+        private final String orderClass;
+    }
+}
@@ -0,0 +1,416 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.exception.AllSlotsOccupiedException;
+import com.kunal.coffeemachine.exception.OrderTimeoutException;
+import com.kunal.coffeemachine.pojo.Config;
+import com.kunal.coffeemachine.pojo.OrderStatus;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Admits orders to the outlets of a coffee machine. Orders which find every outlet busy wait in a bounded FIFO queue
+ * of their order class and are started as soon as an outlet is released, they are only rejected when the queues
+ * together are full.
+ * <p>
+ * While several classes have orders waiting, released outlets go to the classes in proportion to their weights:
+ * every class has a virtual time which advances by {@link #STRIDE} divided by its weight for each order started, and
+ * the waiting class with the smallest virtual time goes next. A class which had nothing waiting starts from the
+ * virtual time of the last order started, so idling never saves up a burst. Outlets reserved for the highest
+ * priority class are never given to the other classes, so its orders find a free outlet within a brew even while the
+ * machine is saturated.
+ */
+@Getter
+class OutletScheduler {
+    static final int DEFAULT_QUEUE_DEPTH = 100;
+    static final long DEFAULT_ORDER_TIMEOUT_MILLIS = 30_000;
+    private static final long STRIDE = 1 << 20;
+
+    private volatile int numOutlets;
+    private volatile int reservedOutlets;
+    private final AtomicInteger usedOutlets;
+    private volatile int queueDepth;
+    private volatile long orderTimeoutMillis;
+    private final OrderClass[] classes;
+    @Getter(AccessLevel.NONE)
+    private final Map<String, OrderClass> classesByName;
+    @Getter(AccessLevel.NONE)
+    private final Queue<PendingOrder>[] queues;
+    @Getter(AccessLevel.NONE)
+    private final AtomicIntegerArray queuedByClass;
+    /**
+     * virtual time of every class and of the last order started, guarded by the scheduler
+     */
+    @Getter(AccessLevel.NONE)
+    private final long[] passes;
+    @Getter(AccessLevel.NONE)
+    private long virtualTime;
+    private final AtomicInteger queuedOrders;
+    /**
+     * calls of drain since the running one started, zero while no drain runs
+     */
+    private final AtomicInteger drainRequests = new AtomicInteger();
+    private final BrewScheduler timer;
+    private final MachineMetrics metrics;
+    /**
+     * failed updates of the outlet and queue counters, a measure of the contention on the outlets
+     */
+    private final LongAdder retries;
+
+    @SuppressWarnings("unchecked")
+    OutletScheduler(Config.OutletConfig outletConfig, AtomicInteger usedOutlets, BrewScheduler timer,
+                    MachineMetrics metrics) {
+        this.usedOutlets = usedOutlets;
+        this.classes = orderClasses(outletConfig.getOrderClasses());
+        this.classesByName = new HashMap<>(classes.length * 2);
+        this.queues = new Queue[classes.length];
+        for (OrderClass orderClass : classes) {
+            if (classesByName.put(orderClass.getName(), orderClass) != null) {
+                throw new IllegalArgumentException("order class " + orderClass.getName() + " is configured twice");
+            }
+            queues[orderClass.getIndex()] = new ConcurrentLinkedQueue<>();
+        }
+        this.queuedByClass = new AtomicIntegerArray(classes.length);
+        this.passes = new long[classes.length];
+        this.queuedOrders = new AtomicInteger(0);
+        this.timer = timer;
+        this.metrics = metrics;
+        this.retries = new LongAdder();
+        reconfigure(outletConfig);
+    }
+
+    private static OrderClass[] orderClasses(List<Config.OrderClassConfig> configs) {
+        if (Objects.isNull(configs) || configs.isEmpty()) {
+            return new OrderClass[]{new OrderClass(OrderClass.DEFAULT_NAME, 0, 1)};
+        }
+        OrderClass[] classes = new OrderClass[configs.size()];
+        for (int i = 0; i < classes.length; i++) {
+            Config.OrderClassConfig config = configs.get(i);
+            classes[i] = new OrderClass(config.getName(), i, Objects.isNull(config.getWeight()) ? 1 : config.getWeight());
+        }
+        return classes;
+    }
+
+    /**
+     * changes the outlets while orders run. Added outlets start queued orders straight away, when outlets are removed
+     * the orders brewing finish and no new order starts until fewer than the new count are used. Orders already
+     * queued keep their place and deadline. The order classes stay as the machine was started.
+     *
+     * @param outletConfig the new outlet config
+     */
+    void reconfigure(Config.OutletConfig outletConfig) {
+        int count = outletConfig.getCount();
+        int reserved = Objects.isNull(outletConfig.getReservedOutlets()) ? 0 : outletConfig.getReservedOutlets();
+        if (reserved < 0 || (reserved > 0 && reserved >= count)) {
+            throw new IllegalArgumentException("reserved outlets must leave an outlet to the other order classes");
+        }
+        this.numOutlets = count;
+        this.reservedOutlets = reserved;
+        this.queueDepth = Objects.isNull(outletConfig.getQueueDepth()) ? DEFAULT_QUEUE_DEPTH : outletConfig.getQueueDepth();
+        this.orderTimeoutMillis = Objects.isNull(outletConfig.getOrderTimeoutMillis())
+                ? DEFAULT_ORDER_TIMEOUT_MILLIS : outletConfig.getOrderTimeoutMillis();
+        drain();
+    }
+
+    /**
+     * @param name name of the order class, null for the default class
+     * @return the order class
+     * @throws IllegalArgumentException if no such class is configured
+     */
+    OrderClass orderClass(String name) {
+        if (Objects.isNull(name)) {
+            return getDefaultClass();
+        }
+        OrderClass orderClass = classesByName.get(name);
+        if (Objects.isNull(orderClass)) {
+            throw new IllegalArgumentException("unknown order class " + name);
+        }
+        return orderClass;
+    }
+
+    /**
+     * @return the class of orders placed without one, the lowest priority class
+     */
+    OrderClass getDefaultClass() {
+        return classes[classes.length - 1];
+    }
+
+    /**
+     * takes a free outlet the class may use, unless older orders of the class or of a higher priority one are still
+     * waiting for one
+     *
+     * @param orderClass class of the order
+     * @return true if an outlet was taken
+     */
+    boolean tryAcquire(OrderClass orderClass) {
+        return noneWaitingAhead(orderClass) && acquire(limit(orderClass));
+    }
+
+    /**
+     * takes up to max free outlets the class may use with a single update, unless older orders of the class or of a
+     * higher priority one are still waiting for one
+     *
+     * @param orderClass class of the order
+     * @param max        the number of outlets wanted
+     * @return the number of outlets taken, 0 if none was free
+     */
+    int tryAcquire(OrderClass orderClass, int max) {
+        if (!noneWaitingAhead(orderClass)) {
+            return 0;
+        }
+        int outlets = limit(orderClass);
+        int current = usedOutlets.get();
+        while (current < outlets) {
+            int taken = Math.min(max, outlets - current);
+            if (usedOutlets.compareAndSet(current, current + taken)) {
+                return taken;
+            }
+            retries.increment();
+            current = usedOutlets.get();
+        }
+        return 0;
+    }
+
+    /**
+     * starts the order on a free outlet, or queues it until one is released
+     *
+     * @param recipe     The compiled beverage requested.
+     * @param orderClass class of the order
+     * @param order      non-blocking work started on the outlet, it must call {@link #release()} once done
+     * @param result     future of the order, completed exceptionally if the order is rejected or times out
+     */
+    void submit(Recipe recipe, OrderClass orderClass, Consumer<CompletableFuture<String>> order,
+                CompletableFuture<String> result) {
+        submit(recipe, orderClass, order, result, orderTimeoutMillis);
+    }
+
+    /**
+     * starts the order on a free outlet, or queues it until one is released or the deadline passes
+     *
+     * @param recipe        The compiled beverage requested.
+     * @param orderClass    class of the order
+     * @param order         non-blocking work started on the outlet, it must call {@link #release()} once done
+     * @param result        future of the order, completed exceptionally if the order is rejected or times out
+     * @param timeoutMillis how long the order may wait in the queue
+     */
+    void submit(Recipe recipe, OrderClass orderClass, Consumer<CompletableFuture<String>> order,
+                CompletableFuture<String> result, long timeoutMillis) {
+        if (tryAcquire(orderClass)) {
+            order.accept(result);
+            return;
+        }
+        if (!reserveQueueSlot()) {
+            metrics.outcome(recipe, OrderStatus.ALL_SLOTS_OCCUPIED);
+            result.completeExceptionally(new AllSlotsOccupiedException(recipe.getName()));
+            return;
+        }
+        queuedByClass.incrementAndGet(orderClass.getIndex());
+        PendingOrder pending = new PendingOrder(recipe, orderClass, order, result);
+        queues[orderClass.getIndex()].add(pending);
+        ScheduledFuture<?> timeout = timer.scheduleCancellable(() -> expire(pending), timeoutMillis);
+        pending.timeout = timeout;
+        if (pending.started) {
+            // a drain took the order before its timer was set and could not cancel it
+            timeout.cancel(false);
+        }
+        drain();
+    }
+
+    /**
+     * Releases an outlet and hands it to the oldest queued order, if any
+     */
+    void release() {
+        release(1);
+    }
+
+    /**
+     * Releases outlets and hands them to the oldest queued orders, if any
+     *
+     * @param count the number of outlets released
+     */
+    void release(int count) {
+        returnOutlets(count);
+        drain();
+    }
+
+    private void returnOutlet() {
+        returnOutlets(1);
+    }
+
+    private void returnOutlets(int count) {
+        int current = usedOutlets.get();
+        int newValue = current - count;
+
+        while (!usedOutlets.compareAndSet(current, newValue)) {
+            retries.increment();
+            current = usedOutlets.get();
+            newValue = current - count;
+        }
+    }
+
+    /**
+     * starts queued orders for as long as there are queued orders and free outlets. Both submitters and releasers
+     * call this after changing their side, so an order can never be left in the queue next to a free outlet. Orders
+     * are started inline and one failing right away releases its outlet from within, so only one drain runs at a
+     * time: a call while another runs, on this thread or another, makes the running one look again instead of
+     * recursing.
+     */
+    private void drain() {
+        if (drainRequests.getAndIncrement() != 0) {
+            return;
+        }
+        int requests = 1;
+        do {
+            startQueued();
+            requests = drainRequests.addAndGet(-requests);
+        } while (requests != 0);
+    }
+
+    private void startQueued() {
+        while (queuedOrders.get() > 0) {
+            PendingOrder pending = next();
+            if (pending == null) {
+                return;
+            }
+            pending.started = true;
+            ScheduledFuture<?> timeout = pending.timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            if (pending.result.isDone()) {
+                // cancelled by the caller while queued, give the outlet to the next order
+                returnOutlet();
+                continue;
+            }
+            pending.order.accept(pending.result);
+        }
+    }
+
+    /**
+     * takes an outlet for the oldest order of the waiting class with the smallest virtual time, among the classes
+     * allowed on a free outlet, and charges the class for it
+     *
+     * @return the order to start on the outlet taken, or null if no waiting order may take an outlet
+     */
+    private synchronized PendingOrder next() {
+        while (true) {
+            int used = usedOutlets.get();
+            int chosen = -1;
+            long chosenPass = 0;
+            for (int c = 0; c < classes.length; c++) {
+                if (queues[c].isEmpty() || used >= limit(classes[c])) {
+                    continue;
+                }
+                long pass = Math.max(passes[c], virtualTime);
+                if (chosen < 0 || pass < chosenPass) {
+                    chosen = c;
+                    chosenPass = pass;
+                }
+            }
+            if (chosen < 0) {
+                return null;
+            }
+            if (!acquire(limit(classes[chosen]))) {
+                // another order took the outlet the class could use, look again at the outlets left
+                continue;
+            }
+            PendingOrder pending = queues[chosen].poll();
+            if (pending == null) {
+                // the order expired meanwhile
+                returnOutlet();
+                continue;
+            }
+            queuedByClass.decrementAndGet(chosen);
+            queuedOrders.decrementAndGet();
+            passes[chosen] = chosenPass + STRIDE / classes[chosen].getWeight();
+            virtualTime = chosenPass;
+            return pending;
+        }
+    }
+
+    private void expire(PendingOrder pending) {
+        int index = pending.orderClass.getIndex();
+        if (queues[index].remove(pending)) {
+            queuedByClass.decrementAndGet(index);
+            queuedOrders.decrementAndGet();
+            metrics.outcome(pending.recipe, OrderStatus.TIMED_OUT);
+            pending.result.completeExceptionally(new OrderTimeoutException(pending.recipe.getName()));
+        }
+    }
+
+    /**
+     * @return the number of outlets orders of the class may use together with all other orders
+     */
+    private int limit(OrderClass orderClass) {
+        return orderClass.getIndex() == 0 ? numOutlets : numOutlets - reservedOutlets;
+    }
+
+    private boolean noneWaitingAhead(OrderClass orderClass) {
+        if (queuedOrders.get() == 0) {
+            return true;
+        }
+        for (int c = 0; c <= orderClass.getIndex(); c++) {
+            if (queuedByClass.get(c) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean acquire(int outlets) {
+        int current = usedOutlets.get();
+        while (current < outlets) {
+            if (usedOutlets.compareAndSet(current, current + 1)) {
+                return true;
+            }
+            retries.increment();
+            current = usedOutlets.get();
+        }
+        return false;
+    }
+
+    private boolean reserveQueueSlot() {
+        int current = queuedOrders.get();
+        while (current < queueDepth) {
+            if (queuedOrders.compareAndSet(current, current + 1)) {
+                return true;
+            }
+            retries.increment();
+            current = queuedOrders.get();
+        }
+        return false;
+    }
+
+    private static class PendingOrder {
+        final Recipe recipe;
+        final OrderClass orderClass;
+        final Consumer<CompletableFuture<String>> order;
+        final CompletableFuture<String> result;
+        volatile ScheduledFuture<?> timeout;
+        /**
+         * set once a drain took the order, before it reads the timeout, so either the drain or the submitter
+         * cancels the timer
+         */
+        volatile boolean started;
+
+        PendingOrder(Recipe recipe, OrderClass orderClass, Consumer<CompletableFuture<String>> order,
+                     CompletableFuture<String> result) {
+            this.recipe = recipe;
+            this.orderClass = orderClass;
+            this.order = order;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,502 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.pojo.ProductionPlan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Finds the mix of beverages a stock can still produce which maximizes the cups weighted by demand, an integer
+ * program solved by branch and bound. Every node solves the linear relaxation of its subproblem with the simplex
+ * method, which bounds what the subproblem is worth and, rounded down and topped up greedily, gives a mix to beat.
+ * A node whose bound does not beat the best mix found is pruned, any other branches on its most fractional beverage.
+ * <p>
+ * Both branches of a node are forked on a fork-join pool, sharing the best mix found so far so every subtree prunes
+ * against the others. The relaxation has at most one fractional beverage per ingredient, so even a menu of hundreds
+ * of beverages is mostly decided at the root, but proving the last fraction of a cup optimal can take millions of
+ * nodes. Nodes bound to beat the best mix by less than the tolerance are pruned as well and the search stops at a
+ * node limit, the plan then reports the best mix found with an upper bound on the optimum.
+ */
+class ProductionPlanner {
+    static final long DEFAULT_NODE_LIMIT = 20_000;
+    static final double DEFAULT_TOLERANCE = 1e-3;
+    private static final double EPSILON = 1e-9;
+
+    private final ForkJoinPool pool;
+    private final long nodeLimit;
+    private final double tolerance;
+
+    ProductionPlanner() {
+        this(ForkJoinPool.commonPool(), DEFAULT_NODE_LIMIT, DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * @param pool      runs the search
+     * @param nodeLimit most nodes explored before the best mix found is returned
+     * @param tolerance share of the value of the best mix a subproblem has to be able to beat it by to be searched,
+     *                  0 to search for the optimum
+     */
+    ProductionPlanner(ForkJoinPool pool, long nodeLimit, double tolerance) {
+        this.pool = pool;
+        this.nodeLimit = nodeLimit;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * plans the mix of beverages maximizing the weighted cups
+     *
+     * @param recipes the beverages offered
+     * @param stock   stock by slot of the store the recipes were compiled against, {@link StockStore#ABSENT} for
+     *                ingredients the machine does not hold
+     * @param weights demand weight of every beverage, such as its price, null to maximize cups. Beverages without a
+     *                positive weight are left out.
+     * @return the plan
+     */
+    ProductionPlan plan(Collection<Recipe> recipes, int[] stock, Map<String, Double> weights) {
+        Problem problem = new Problem(recipes, stock, weights);
+        Map<String, Integer> maxCups = new LinkedHashMap<>();
+        for (Recipe recipe : recipes) {
+            maxCups.put(recipe.getName(), problem.maxAlone(recipe));
+        }
+        Search search = new Search(problem);
+        search.offer(problem.fill(new int[problem.columns], problem.stock.clone()));
+        if (problem.columns > 0) {
+            int[] upper = new int[problem.columns];
+            Arrays.fill(upper, Integer.MAX_VALUE);
+            pool.invoke(search.new Node(new int[problem.columns], upper));
+        }
+        Incumbent best = search.best.get();
+        Map<String, Integer> cups = new LinkedHashMap<>();
+        long totalCups = 0;
+        for (int j = 0; j < problem.columns; j++) {
+            if (best.counts[j] > 0) {
+                cups.put(problem.names[j], best.counts[j]);
+                totalCups += best.counts[j];
+            }
+        }
+        double upperBound = Math.max(best.value, search.prunedBound.get());
+        if (search.nodes.get() > nodeLimit) {
+            upperBound = Math.max(upperBound, search.rootBound);
+        }
+        if (problem.integralWeights) {
+            upperBound = Math.floor(upperBound + EPSILON);
+        }
+        boolean optimal = upperBound <= best.value + EPSILON;
+        return new ProductionPlan(cups, totalCups, best.value, upperBound, optimal, maxCups,
+                Math.min(search.nodes.get(), nodeLimit));
+    }
+
+    /**
+     * The integer program: weights of the beverages and their use of every ingredient any of them needs.
+     */
+    private static class Problem {
+        final int columns;
+        final int rows;
+        final String[] names;
+        final double[] weights;
+        /**
+         * quantity of ingredient i used by beverage j at [i][j]
+         */
+        final int[][] uses;
+        final long[] stock;
+        final boolean integralWeights;
+        /**
+         * beverages by decreasing weight, the order the greedy fill tops a mix up in
+         */
+        final int[] fillOrder;
+        final Map<Integer, Integer> rowsBySlot;
+        final int[] stockBySlot;
+
+        Problem(Collection<Recipe> recipes, int[] stockBySlot, Map<String, Double> demand) {
+            this.stockBySlot = stockBySlot;
+            this.rowsBySlot = new HashMap<>();
+            List<Recipe> planned = new ArrayList<>();
+            List<Double> plannedWeights = new ArrayList<>();
+            for (Recipe recipe : recipes) {
+                double weight = Objects.isNull(demand) ? 1 : demand.getOrDefault(recipe.getName(), 0.0);
+                if (weight <= 0 || !usesStock(recipe)) {
+                    continue;
+                }
+                planned.add(recipe);
+                plannedWeights.add(weight);
+                for (int slot : recipe.getSlots()) {
+                    rowsBySlot.putIfAbsent(slot, rowsBySlot.size());
+                }
+            }
+            this.columns = planned.size();
+            this.rows = rowsBySlot.size();
+            this.names = new String[columns];
+            this.weights = new double[columns];
+            this.uses = new int[rows][columns];
+            this.stock = new long[rows];
+            boolean integral = true;
+            for (int j = 0; j < columns; j++) {
+                Recipe recipe = planned.get(j);
+                names[j] = recipe.getName();
+                weights[j] = plannedWeights.get(j);
+                integral &= weights[j] == Math.rint(weights[j]);
+                for (int i = 0; i < recipe.getSlots().length; i++) {
+                    uses[rowsBySlot.get(recipe.getSlots()[i])][j] += recipe.getQuantities()[i];
+                }
+            }
+            this.integralWeights = integral;
+            for (Map.Entry<Integer, Integer> row : rowsBySlot.entrySet()) {
+                stock[row.getValue()] = available(row.getKey());
+            }
+            Integer[] order = new Integer[columns];
+            for (int j = 0; j < columns; j++) {
+                order[j] = j;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(weights[b], weights[a]));
+            this.fillOrder = new int[columns];
+            for (int j = 0; j < columns; j++) {
+                fillOrder[j] = order[j];
+            }
+        }
+
+        /**
+         * @return cups of the beverage the stock produces if nothing else is made
+         */
+        int maxAlone(Recipe recipe) {
+            if (!usesStock(recipe)) {
+                return 0;
+            }
+            long cups = Integer.MAX_VALUE;
+            Map<Integer, Long> needs = new HashMap<>();
+            for (int i = 0; i < recipe.getSlots().length; i++) {
+                needs.merge(recipe.getSlots()[i], (long) recipe.getQuantities()[i], Long::sum);
+            }
+            for (Map.Entry<Integer, Long> need : needs.entrySet()) {
+                if (need.getValue() > 0) {
+                    cups = Math.min(cups, available(need.getKey()) / need.getValue());
+                }
+            }
+            return (int) cups;
+        }
+
+        /**
+         * tops the mix up greedily with the beverages the residual stock still allows, heaviest first
+         *
+         * @param counts   the mix, topped up in place
+         * @param residual stock left by the mix, used up in place
+         * @return the mix
+         */
+        int[] fill(int[] counts, long[] residual) {
+            for (int j : fillOrder) {
+                long cups = Integer.MAX_VALUE - counts[j];
+                for (int i = 0; i < rows; i++) {
+                    if (uses[i][j] > 0) {
+                        cups = Math.min(cups, residual[i] / uses[i][j]);
+                    }
+                }
+                if (cups > 0) {
+                    counts[j] += (int) cups;
+                    for (int i = 0; i < rows; i++) {
+                        residual[i] -= cups * uses[i][j];
+                    }
+                }
+            }
+            return counts;
+        }
+
+        double value(int[] counts) {
+            double value = 0;
+            for (int j = 0; j < columns; j++) {
+                value += weights[j] * counts[j];
+            }
+            return value;
+        }
+
+        private long available(int slot) {
+            return slot < stockBySlot.length ? Math.max(0, stockBySlot[slot]) : 0;
+        }
+
+        /**
+         * beverages using no stock at all would be unbounded, they are left out of the plan
+         */
+        private static boolean usesStock(Recipe recipe) {
+            for (int quantity : recipe.getQuantities()) {
+                if (quantity > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The best mix found so far, replaced as a whole.
+     */
+    private static class Incumbent {
+        final int[] counts;
+        final double value;
+
+        Incumbent(int[] counts, double value) {
+            this.counts = counts;
+            this.value = value;
+        }
+    }
+
+    /**
+     * One branch and bound search over a problem.
+     */
+    private class Search {
+        final Problem problem;
+        final AtomicReference<Incumbent> best;
+        final AtomicLong nodes;
+        volatile double rootBound;
+        /**
+         * highest bound of the subproblems pruned within the tolerance
+         */
+        final DoubleAccumulator prunedBound;
+
+        Search(Problem problem) {
+            this.problem = problem;
+            this.best = new AtomicReference<>(new Incumbent(new int[problem.columns], 0));
+            this.nodes = new AtomicLong();
+            this.rootBound = Double.POSITIVE_INFINITY;
+            this.prunedBound = new DoubleAccumulator(Math::max, 0);
+        }
+
+        void offer(int[] counts) {
+            Incumbent candidate = new Incumbent(counts, problem.value(counts));
+            Incumbent current = best.get();
+            while (candidate.value > current.value + EPSILON && !best.compareAndSet(current, candidate)) {
+                current = best.get();
+            }
+        }
+
+        /**
+         * @return true if no mix of the subproblem can beat the best mix found by more than the tolerance
+         */
+        boolean pruned(double bound) {
+            double incumbent = best.get().value;
+            // with whole weights every mix is worth a whole number, so the bound is rounded down
+            double reachable = problem.integralWeights ? Math.floor(bound + EPSILON) : bound;
+            if (reachable <= incumbent + EPSILON) {
+                return true;
+            }
+            if (reachable <= incumbent * (1 + tolerance)) {
+                prunedBound.accumulate(reachable);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * The subproblem of mixes with between lower and upper cups of every beverage.
+         */
+        private class Node extends RecursiveAction {
+            private final int[] lower;
+            private final int[] upper;
+
+            Node(int[] lower, int[] upper) {
+                this.lower = lower;
+                this.upper = upper;
+            }
+
+            @Override
+            protected void compute() {
+                if (nodes.incrementAndGet() > nodeLimit) {
+                    return;
+                }
+                int columns = problem.columns;
+                long[] residual = problem.stock.clone();
+                for (int j = 0; j < columns; j++) {
+                    for (int i = 0; i < problem.rows; i++) {
+                        residual[i] -= (long) lower[j] * problem.uses[i][j];
+                    }
+                }
+                for (long left : residual) {
+                    if (left < 0) {
+                        return;
+                    }
+                }
+                double[] relaxed = relax(residual);
+                double bound = 0;
+                for (int j = 0; j < columns; j++) {
+                    bound += problem.weights[j] * (lower[j] + relaxed[j]);
+                }
+                if (isRoot()) {
+                    rootBound = bound;
+                }
+                if (pruned(bound)) {
+                    return;
+                }
+                int[] rounded = new int[columns];
+                int branch = -1;
+                double fraction = 0;
+                for (int j = 0; j < columns; j++) {
+                    double whole = Math.floor(relaxed[j] + EPSILON);
+                    rounded[j] = lower[j] + (int) whole;
+                    double part = relaxed[j] - whole;
+                    // the beverage closest to half a cup splits the subproblem most evenly
+                    double distance = Math.min(part, 1 - part);
+                    if (part > EPSILON && 1 - part > EPSILON && distance > fraction) {
+                        branch = j;
+                        fraction = distance;
+                    }
+                }
+                long[] left = problem.stock.clone();
+                for (int j = 0; j < columns; j++) {
+                    for (int i = 0; i < problem.rows; i++) {
+                        left[i] -= (long) rounded[j] * problem.uses[i][j];
+                    }
+                }
+                offer(problem.fill(rounded.clone(), left));
+                if (branch < 0 || pruned(bound)) {
+                    return;
+                }
+                int cups = lower[branch] + (int) Math.floor(relaxed[branch]);
+                int[] down = upper.clone();
+                down[branch] = cups;
+                int[] up = lower.clone();
+                up[branch] = cups + 1;
+                // more of the fractional beverage is usually where the relaxation points, so it is searched first
+                invokeAll(new Node(up, upper), new Node(lower, down));
+            }
+
+            private boolean isRoot() {
+                for (int j = 0; j < upper.length; j++) {
+                    if (lower[j] != 0 || upper[j] != Integer.MAX_VALUE) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            /**
+             * solves the linear relaxation of the subproblem for the cups above the lower bounds
+             *
+             * @param residual stock left once the lower bounds are made
+             * @return cups above the lower bound of every beverage
+             */
+            private double[] relax(long[] residual) {
+                int columns = problem.columns;
+                List<Integer> bounded = new ArrayList<>();
+                for (int j = 0; j < columns; j++) {
+                    if (upper[j] != Integer.MAX_VALUE) {
+                        bounded.add(j);
+                    }
+                }
+                int rows = problem.rows + bounded.size();
+                double[][] a = new double[rows][columns];
+                double[] b = new double[rows];
+                for (int i = 0; i < problem.rows; i++) {
+                    for (int j = 0; j < columns; j++) {
+                        a[i][j] = problem.uses[i][j];
+                    }
+                    b[i] = residual[i];
+                }
+                for (int k = 0; k < bounded.size(); k++) {
+                    int j = bounded.get(k);
+                    a[problem.rows + k][j] = 1;
+                    b[problem.rows + k] = Math.max(0, upper[j] - lower[j]);
+                }
+                return Simplex.maximize(a, b, problem.weights);
+            }
+        }
+    }
+
+    /**
+     * Dense tableau simplex for max c.x subject to A.x &lt;= b, x &gt;= 0 with b &gt;= 0, so the slack basis is
+     * feasible from the start. The column improving the objective most enters the basis, and once pivots stall on a
+     * degenerate vertex Bland's rule takes over, which cannot cycle.
+     */
+    static final class Simplex {
+        private Simplex() {
+        }
+
+        /**
+         * @return an optimal x, the problem is bounded as long as every column has a positive entry
+         */
+        static double[] maximize(double[][] a, double[] b, double[] c) {
+            int rows = b.length;
+            int columns = c.length;
+            int width = columns + rows + 1;
+            double[][] tableau = new double[rows + 1][width];
+            int[] basis = new int[rows];
+            for (int i = 0; i < rows; i++) {
+                System.arraycopy(a[i], 0, tableau[i], 0, columns);
+                tableau[i][columns + i] = 1;
+                tableau[i][width - 1] = b[i];
+                basis[i] = columns + i;
+            }
+            double[] objective = tableau[rows];
+            for (int j = 0; j < columns; j++) {
+                objective[j] = -c[j];
+            }
+            int stalled = 0;
+            while (true) {
+                int entering = -1;
+                boolean bland = stalled > rows;
+                for (int j = 0; j < width - 1; j++) {
+                    if (objective[j] < -EPSILON && (entering < 0 || objective[j] < objective[entering])) {
+                        entering = j;
+                        if (bland) {
+                            break;
+                        }
+                    }
+                }
+                if (entering < 0) {
+                    break;
+                }
+                int leaving = -1;
+                double ratio = Double.POSITIVE_INFINITY;
+                for (int i = 0; i < rows; i++) {
+                    double coefficient = tableau[i][entering];
+                    if (coefficient > EPSILON) {
+                        double candidate = tableau[i][width - 1] / coefficient;
+                        if (candidate < ratio - EPSILON || (candidate < ratio + EPSILON && leaving >= 0
+                                && basis[i] < basis[leaving])) {
+                            ratio = candidate;
+                            leaving = i;
+                        }
+                    }
+                }
+                if (leaving < 0) {
+                    throw new IllegalStateException("relaxation is unbounded");
+                }
+                stalled = ratio < EPSILON ? stalled + 1 : 0;
+                pivot(tableau, leaving, entering);
+                basis[leaving] = entering;
+            }
+            double[] x = new double[columns];
+            for (int i = 0; i < rows; i++) {
+                if (basis[i] < columns) {
+                    x[basis[i]] = Math.max(0, tableau[i][width - 1]);
+                }
+            }
+            return x;
+        }
+
+        private static void pivot(double[][] tableau, int row, int column) {
+            double[] pivotRow = tableau[row];
+            double pivot = pivotRow[column];
+            for (int j = 0; j < pivotRow.length; j++) {
+                pivotRow[j] /= pivot;
+            }
+            for (int i = 0; i < tableau.length; i++) {
+                double factor = tableau[i][column];
+                if (i == row || factor == 0) {
+                    continue;
+                }
+                double[] target = tableau[i];
+                for (int j = 0; j < target.length; j++) {
+                    target[j] -= factor * pivotRow[j];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.pojo.OrderResult;
+import com.kunal.coffeemachine.pojo.OrderStatus;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * A beverage compiled against the stock store of a machine: parallel arrays of ingredient slots and quantities,
+ * in recipe order, plus the slots in the order their locks have to be taken. The result of every outcome an order
+ * of the beverage can have is built once, so reporting an outcome allocates nothing. The results naming a failing
+ * ingredient are built on the first failure, most beverages of a large menu never fail and never build them.
+ */
+@Getter
+class Recipe {
+    private final String name;
+    private final int[] slots;
+    private final int[] quantities;
+    private final int[] lockOrder;
+    /**
+     * position in recipe order of every slot of the lock order
+     */
+    private final int[] lockPositions;
+    private final long brewTimeMillis;
+    /**
+     * most cups brewed together by one outlet when identical orders are coalesced
+     */
+    private final int maxCups;
+    private final String preparedMessage;
+    private final OrderResult preparedResult;
+    private final OrderResult allSlotsOccupiedResult;
+    @Getter(AccessLevel.NONE)
+    private final String[] ingredientNames;
+    /**
+     * the ingredient not found result of every ingredient in recipe order followed by their insufficient quantity
+     * results, built on first use
+     */
+    @Getter(AccessLevel.NONE)
+    private volatile OrderResult[] failureResults;
+    @Getter(AccessLevel.NONE)
+    private volatile BeverageMetrics metrics;
+
+    private Recipe(String name, int[] slots, int[] quantities, long brewTimeMillis, int maxCups, String[] ingredientNames) {
+        this.name = name;
+        this.slots = slots;
+        this.quantities = quantities;
+        this.lockOrder = slots.clone();
+        Arrays.sort(this.lockOrder);
+        this.lockPositions = new int[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            lockPositions[Arrays.binarySearch(lockOrder, slots[i])] = i;
+        }
+        this.brewTimeMillis = brewTimeMillis;
+        this.maxCups = maxCups;
+        this.preparedMessage = name + " is prepared";
+        this.preparedResult = new OrderResult(name, OrderStatus.PREPARED, null);
+        this.allSlotsOccupiedResult = new OrderResult(name, OrderStatus.ALL_SLOTS_OCCUPIED, null);
+        this.ingredientNames = ingredientNames;
+    }
+
+    /**
+     * @param ingredient position of the ingredient in recipe order
+     * @return the result of an order failed by the missing ingredient
+     */
+    OrderResult ingredientNotFound(int ingredient) {
+        return failureResults()[ingredient];
+    }
+
+    /**
+     * @param ingredient position of the ingredient in recipe order
+     * @return the result of an order failed by the insufficient ingredient
+     */
+    OrderResult insufficientQuantity(int ingredient) {
+        return failureResults()[slots.length + ingredient];
+    }
+
+    private OrderResult[] failureResults() {
+        OrderResult[] current = failureResults;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (failureResults == null) {
+                OrderResult[] results = new OrderResult[2 * slots.length];
+                for (int i = 0; i < slots.length; i++) {
+                    results[i] = new OrderResult(name, OrderStatus.INGREDIENT_NOT_FOUND, ingredientNames[i]);
+                    results[slots.length + i] = new OrderResult(name, OrderStatus.INSUFFICIENT_QUANTITY, ingredientNames[i]);
+                }
+                failureResults = results;
+            }
+            return failureResults;
+        }
+    }
+
+    /**
+     * @return the metrics of the beverage, created on first use so beverages never ordered cost nothing
+     */
+    BeverageMetrics metrics() {
+        BeverageMetrics current = metrics;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (metrics == null) {
+                metrics = new BeverageMetrics();
+            }
+            return metrics;
+        }
+    }
+
+    boolean hasMetrics() {
+        return metrics != null;
+    }
+
+    /**
+     * records into the metrics of the recipe this one replaces, so a beverage keeps its history across config reloads
+     * and orders still running on the previous recipe are counted in the same place
+     *
+     * @param previous the recipe of the same beverage in the previous catalog
+     */
+    void shareMetrics(Recipe previous) {
+        metrics = previous.metrics();
+    }
+
+    /**
+     * compiles beverage b of the menu
+     *
+     * @param menu           the menu
+     * @param beverage       index of the beverage in the menu
+     * @param slotOf         slot in the stock store of every ingredient of the menu
+     * @param brewTimeMillis how long the beverage takes to brew
+     * @param maxCups        most cups brewed together when orders are coalesced, 1 to never coalesce
+     * @return the compiled recipe
+     */
+    static Recipe compile(Menu menu, int beverage, int[] slotOf, long brewTimeMillis, int maxCups) {
+        int from = menu.getOffsets()[beverage];
+        int to = menu.getOffsets()[beverage + 1];
+        int[] slots = new int[to - from];
+        String[] names = new String[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            int ingredient = menu.getIngredients()[from + i];
+            slots[i] = slotOf[ingredient];
+            names[i] = menu.getIngredientNames()[ingredient];
+        }
+        return new Recipe(menu.getBeverageNames()[beverage], slots, Arrays.copyOfRange(menu.getQuantities(), from, to),
+                brewTimeMillis, maxCups, names);
+    }
+}
@@ -0,0 +1,307 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.exception.IngredientNotFoundException;
+import com.kunal.coffeemachine.exception.InsufficientQuantityException;
+import com.kunal.coffeemachine.pojo.BatchMode;
+import com.kunal.coffeemachine.pojo.OrderResult;
+import com.kunal.coffeemachine.pojo.OrderStatus;
+
+import java.util.Arrays;
+
+/**
+ * Reserves all ingredients of a beverage in one step, either every ingredient is taken or none is.
+ * Only the locks of the ingredients used by the beverage are held, always in ascending slot order,
+ * so beverages which do not share an ingredient are prepared in parallel and overlapping ones never deadlock.
+ */
+class ReservationEngine {
+    private final StockStore store;
+
+    ReservationEngine(StockStore store) {
+        this.store = store;
+    }
+
+    /**
+     * takes the required quantity of every ingredient of the recipe or nothing at all
+     *
+     * @param recipe The compiled beverage requested.
+     * @throws IngredientNotFoundException,InsufficientQuantityException if ingredient not found or insufficient
+     */
+    void reserve(Recipe recipe) throws IngredientNotFoundException, InsufficientQuantityException {
+        OrderResult result = tryReserve(recipe);
+        if (result.getStatus() == OrderStatus.INGREDIENT_NOT_FOUND) {
+            throw new IngredientNotFoundException(result.getIngredientName());
+        }
+        if (result.getStatus() == OrderStatus.INSUFFICIENT_QUANTITY) {
+            throw new InsufficientQuantityException(result.getIngredientName());
+        }
+    }
+
+    /**
+     * takes the required quantity of every ingredient of the recipe or nothing at all, without throwing
+     *
+     * @param recipe The compiled beverage requested.
+     * @return the prepared result of the recipe if reserved, otherwise its result for the failing ingredient
+     */
+    OrderResult tryReserve(Recipe recipe) {
+        if (store.isSharding()) {
+            return tryReserveSharded(recipe);
+        }
+        return tryReserveLocked(recipe, 0);
+    }
+
+    /**
+     * takes the sharded ingredients of the recipe from their shards first, then the others under their locks,
+     * handing back what was taken if an ingredient falls short
+     */
+    private OrderResult tryReserveSharded(Recipe recipe) {
+        int[] slots = recipe.getSlots();
+        int[] quantities = recipe.getQuantities();
+        long sharded = 0;
+        for (int i = 0; i < Math.min(slots.length, Long.SIZE); i++) {
+            if (!store.isSharded(slots[i])) {
+                continue;
+            }
+            if (!store.take(slots[i], quantities[i])) {
+                giveBack(recipe, sharded);
+                return store.stock(slots[i]) == StockStore.ABSENT
+                        ? recipe.ingredientNotFound(i) : recipe.insufficientQuantity(i);
+            }
+            sharded |= 1L << i;
+        }
+        OrderResult result = tryReserveLocked(recipe, sharded);
+        if (!result.isPrepared()) {
+            giveBack(recipe, sharded);
+        }
+        return result;
+    }
+
+    /**
+     * takes the ingredients of the recipe not already taken from shards under their locks, all or nothing
+     *
+     * @param sharded bit i is set if ingredient i of the recipe was already taken from its shard
+     */
+    private OrderResult tryReserveLocked(Recipe recipe, long sharded) {
+        int[] slots = recipe.getSlots();
+        int[] quantities = recipe.getQuantities();
+        int[] lockOrder = recipe.getLockOrder();
+        int[] lockPositions = recipe.getLockPositions();
+        for (int j = 0; j < lockOrder.length; j++) {
+            if (!taken(sharded, lockPositions[j])) {
+                store.lock(lockOrder[j]);
+            }
+        }
+        try {
+            // same reporting as before: the first missing or else the last insufficient ingredient in recipe order
+            int insufficient = -1;
+            for (int i = 0; i < slots.length; i++) {
+                if (taken(sharded, i)) {
+                    continue;
+                }
+                int stock = store.stock(slots[i]);
+                if (stock == StockStore.ABSENT) {
+                    return recipe.ingredientNotFound(i);
+                }
+                if (stock < quantities[i]) {
+                    // the ingredient may have been sharded since, its shards may hold what is missing
+                    stock = store.reclaim(slots[i]);
+                }
+                if (stock < quantities[i]) {
+                    insufficient = i;
+                }
+            }
+            if (insufficient >= 0) {
+                return recipe.insufficientQuantity(insufficient);
+            }
+            for (int i = 0; i < slots.length; i++) {
+                if (!taken(sharded, i)) {
+                    store.add(slots[i], -quantities[i]);
+                }
+            }
+            return recipe.getPreparedResult();
+        } finally {
+            for (int j = lockOrder.length - 1; j >= 0; j--) {
+                if (!taken(sharded, lockPositions[j])) {
+                    store.unlock(lockOrder[j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * returns the ingredients of a reserved recipe to the stock, whether they were taken from shards or not, since
+     * the store and the shards hold one stock
+     *
+     * @param recipe The compiled beverage reserved before.
+     */
+    void giveBack(Recipe recipe) {
+        int[] slots = recipe.getSlots();
+        int[] quantities = recipe.getQuantities();
+        int[] lockOrder = recipe.getLockOrder();
+        int[] lockPositions = recipe.getLockPositions();
+        for (int slot : lockOrder) {
+            store.lock(slot);
+        }
+        try {
+            for (int j = 0; j < lockOrder.length; j++) {
+                // an ingredient the machine no longer holds gets nothing back
+                if (store.stock(lockOrder[j]) != StockStore.ABSENT) {
+                    store.add(lockOrder[j], quantities[lockPositions[j]]);
+                }
+            }
+        } finally {
+            for (int j = lockOrder.length - 1; j >= 0; j--) {
+                store.unlock(lockOrder[j]);
+            }
+        }
+    }
+
+    private void giveBack(Recipe recipe, long sharded) {
+        int[] slots = recipe.getSlots();
+        int[] quantities = recipe.getQuantities();
+        for (int i = 0; i < Math.min(slots.length, Long.SIZE); i++) {
+            if (taken(sharded, i)) {
+                store.giveBack(slots[i], quantities[i]);
+            }
+        }
+    }
+
+    private static boolean taken(long sharded, int position) {
+        return position < Long.SIZE && (sharded & (1L << position)) != 0;
+    }
+
+    /**
+     * reserves a whole batch of recipes in one pass: the locks of every ingredient used by the batch are taken once,
+     * the summed demand is checked against the stock and the stock of all reserved recipes is taken at once
+     *
+     * @param recipes      The compiled beverages of the batch, null entries are skipped.
+     * @param mode         whether the batch is reserved all-or-nothing or best-effort in order
+     * @param statuses     receives the status of every recipe, entries of skipped recipes are left untouched
+     * @param failingSlots receives the slot of the failing ingredient of every failed recipe, otherwise -1
+     * @return the number of reserved recipes
+     */
+    int reserveBatch(Recipe[] recipes, BatchMode mode, OrderStatus[] statuses, int[] failingSlots) {
+        // batches repeat a few beverages, so each distinct recipe is resolved against the batch slots only once
+        Recipe[] kinds = new Recipe[recipes.length];
+        int[] kindOf = new int[recipes.length];
+        int kindCount = 0;
+        for (int r = 0; r < recipes.length; r++) {
+            if (recipes[r] == null) {
+                continue;
+            }
+            int kind = 0;
+            while (kind < kindCount && kinds[kind] != recipes[r]) {
+                kind++;
+            }
+            if (kind == kindCount) {
+                kinds[kindCount++] = recipes[r];
+            }
+            kindOf[r] = kind;
+        }
+        int[] lockOrder = lockOrder(kinds, kindCount);
+        int[][] positions = new int[kindCount][];
+        for (int kind = 0; kind < kindCount; kind++) {
+            int[] slots = kinds[kind].getSlots();
+            positions[kind] = new int[slots.length];
+            for (int i = 0; i < slots.length; i++) {
+                positions[kind][i] = Arrays.binarySearch(lockOrder, slots[i]);
+            }
+        }
+
+        int[] demand = new int[lockOrder.length];
+        for (int slot : lockOrder) {
+            store.lock(slot);
+        }
+        try {
+            int reserved = 0;
+            int shortSlot = -1;
+            for (int r = 0; r < recipes.length; r++) {
+                if (recipes[r] == null) {
+                    continue;
+                }
+                int failingSlot = check(recipes[r], positions[kindOf[r]], demand, statuses, r);
+                failingSlots[r] = failingSlot;
+                if (failingSlot < 0) {
+                    int[] quantities = recipes[r].getQuantities();
+                    int[] recipePositions = positions[kindOf[r]];
+                    for (int i = 0; i < quantities.length; i++) {
+                        demand[recipePositions[i]] += quantities[i];
+                    }
+                    reserved++;
+                } else if (shortSlot < 0) {
+                    shortSlot = failingSlot;
+                }
+            }
+            if (mode == BatchMode.ALL_OR_NOTHING && shortSlot >= 0) {
+                for (int r = 0; r < recipes.length; r++) {
+                    if (recipes[r] != null && statuses[r] == OrderStatus.PREPARED) {
+                        statuses[r] = OrderStatus.BATCH_REJECTED;
+                        failingSlots[r] = shortSlot;
+                    }
+                }
+                return 0;
+            }
+            for (int i = 0; i < lockOrder.length; i++) {
+                if (demand[i] != 0) {
+                    store.add(lockOrder[i], -demand[i]);
+                }
+            }
+            return reserved;
+        } finally {
+            for (int j = lockOrder.length - 1; j >= 0; j--) {
+                store.unlock(lockOrder[j]);
+            }
+        }
+    }
+
+    /**
+     * checks a recipe against the stock left after the demand already reserved by the batch
+     *
+     * @param positions position of each ingredient of the recipe in the batch demand
+     * @return slot of the failing ingredient or -1 if the recipe fits
+     */
+    private int check(Recipe recipe, int[] positions, int[] demand, OrderStatus[] statuses, int r) {
+        int[] slots = recipe.getSlots();
+        int[] quantities = recipe.getQuantities();
+        int insufficient = -1;
+        for (int i = 0; i < slots.length; i++) {
+            int stock = store.stock(slots[i]);
+            if (stock == StockStore.ABSENT) {
+                statuses[r] = OrderStatus.INGREDIENT_NOT_FOUND;
+                return slots[i];
+            }
+            if (stock - demand[positions[i]] < quantities[i]) {
+                stock = store.reclaim(slots[i]);
+            }
+            if (stock - demand[positions[i]] < quantities[i]) {
+                insufficient = slots[i];
+            }
+        }
+        statuses[r] = insufficient < 0 ? OrderStatus.PREPARED : OrderStatus.INSUFFICIENT_QUANTITY;
+        return insufficient;
+    }
+
+    /**
+     * @return the distinct slots used by the recipes in ascending order
+     */
+    private static int[] lockOrder(Recipe[] recipes, int count) {
+        int total = 0;
+        for (int r = 0; r < count; r++) {
+            total += recipes[r].getSlots().length;
+        }
+        int[] slots = new int[total];
+        int n = 0;
+        for (int r = 0; r < count; r++) {
+            for (int slot : recipes[r].getLockOrder()) {
+                slots[n++] = slot;
+            }
+        }
+        Arrays.sort(slots);
+        int distinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (distinct == 0 || slots[distinct - 1] != slots[i]) {
+                slots[distinct++] = slots[i];
+            }
+        }
+        return Arrays.copyOf(slots, distinct);
+    }
+}
@@ -0,0 +1,507 @@
+package com.kunal.coffeemachine.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Durable log of the stock of a coffee machine. Every stock change is appended as the new absolute stock of its slot
+ * to a memory-mapped segment file, so an append is a few stores into the page cache done by the thread changing the
+ * stock while it holds the slot lock. Appends survive a crash of the process straight away; a background task forces
+ * the segment to disk every flush interval, committing the appends of all orders of that interval at once.
+ * <p>
+ * When a segment is full, or the snapshot interval has passed, the journal moves on to a new segment and writes a
+ * snapshot of all stock, after which older segments and snapshots are deleted. Recovery loads the newest snapshot and
+ * replays only the segments written since. Records hold absolute stock, so replaying a change the snapshot already
+ * contains is harmless.
+ */
+@Slf4j
+class StockJournal implements StockStore.Observer {
+    static final int DEFAULT_SEGMENT_BYTES = 16 << 20;
+    static final long DEFAULT_FLUSH_MILLIS = 10;
+    static final long DEFAULT_SNAPSHOT_INTERVAL_MILLIS = 60_000;
+
+    private static final BrewScheduler IO = new BrewScheduler("stock-journal", 1);
+    private static final int SEGMENT_MAGIC = 0x534A524E;
+    private static final int SNAPSHOT_MAGIC = 0x53534E50;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_BYTES = 8;
+    /**
+     * appends are laid out in reservation order, so the only gaps before the end of the written part are left by
+     * appends cut short by a crash, one record per thread at most. A longer run of zeros is the unwritten rest.
+     */
+    private static final int END_OF_RECORDS_BYTES = 4096;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+
+    private final Path directory;
+    private final StockStore store;
+    private final int segmentBytes;
+    private volatile Segment current;
+    private Segment spare;
+    private volatile boolean closed;
+    private ScheduledFuture<?> flusher;
+    private ScheduledFuture<?> snapshotter;
+
+    private StockJournal(Path directory, StockStore store, int segmentBytes, Segment first) {
+        this.directory = directory;
+        this.store = store;
+        this.segmentBytes = segmentBytes;
+        this.current = first;
+    }
+
+    /**
+     * starts journaling the store in a new segment after the ones already in the directory and writes a snapshot of
+     * the current stock, the store must already hold the recovered stock
+     *
+     * @param directory              directory of the journal, created if needed
+     * @param store                  stock store of the machine
+     * @param segmentBytes           size of a segment file
+     * @param flushMillis            how often appends are forced to disk
+     * @param snapshotIntervalMillis how often a snapshot is written if the stock changed
+     * @return the journal, registered as observer of the store
+     * @throws IOException if the journal cannot be written
+     */
+    static StockJournal open(Path directory, StockStore store, Integer segmentBytes, Long flushMillis,
+                             Long snapshotIntervalMillis) throws IOException {
+        Files.createDirectories(directory);
+        int capacity = segmentBytes == null ? DEFAULT_SEGMENT_BYTES : segmentBytes;
+        long generation = 0;
+        for (Path file : list(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            generation = Math.max(generation, generation(file, SEGMENT_PREFIX, SEGMENT_SUFFIX));
+        }
+        for (Path file : list(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            generation = Math.max(generation, generation(file, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX));
+        }
+        StockJournal journal = new StockJournal(directory, store, capacity,
+                Segment.create(segmentPath(directory, generation + 1), generation + 1, capacity));
+        store.addObserver(journal);
+        journal.writeSnapshot(generation + 1);
+        journal.flusher = IO.scheduleRepeating(journal::flush, flushMillis == null ? DEFAULT_FLUSH_MILLIS : flushMillis);
+        journal.snapshotter = IO.scheduleRepeating(journal::snapshotIfChanged,
+                snapshotIntervalMillis == null ? DEFAULT_SNAPSHOT_INTERVAL_MILLIS : snapshotIntervalMillis);
+        IO.execute(journal::prepareSpare);
+        return journal;
+    }
+
+    /**
+     * reads the stock recorded in the directory: the newest complete snapshot and every segment written since
+     *
+     * @param directory directory of the journal
+     * @return stock by ingredient name, empty if there is no journal yet
+     * @throws IOException if the journal cannot be read
+     */
+    static Map<String, Integer> recover(Path directory) throws IOException {
+        Map<String, Integer> stock = new HashMap<>();
+        if (!Files.isDirectory(directory)) {
+            return stock;
+        }
+        long from = 0;
+        List<Path> snapshots = list(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            if (readSnapshot(snapshots.get(i), stock)) {
+                from = generation(snapshots.get(i), SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+                break;
+            }
+            // a snapshot cut short by a crash, the previous one and its segments are still there
+            stock.clear();
+        }
+        for (Path segment : list(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            if (generation(segment, SEGMENT_PREFIX, SEGMENT_SUFFIX) >= from) {
+                replay(segment, stock);
+            }
+        }
+        return stock;
+    }
+
+    @Override
+    public void stockChanged(int slot, int oldStock, int newStock) {
+        if (!closed) {
+            append(slot, newStock);
+        }
+    }
+
+    /**
+     * stops journaling and forces everything appended so far to disk, once pending snapshots are written. The shards
+     * are handed back to the store first, so what orders took from them is journaled too.
+     */
+    void close() {
+        for (int slot = 0; slot < store.size(); slot++) {
+            store.lock(slot);
+            try {
+                store.reclaim(slot);
+            } finally {
+                store.unlock(slot);
+            }
+        }
+        closed = true;
+        flusher.cancel(false);
+        snapshotter.cancel(false);
+        CompletableFuture.runAsync(this::flush, IO::execute).join();
+    }
+
+    /**
+     * appends the new stock of the slot, called while the slot lock is held so the records of a slot are in order.
+     * The first record of a slot in a segment is preceded by the name of its ingredient, so every segment can be
+     * replayed on its own.
+     */
+    private void append(int slot, int stock) {
+        while (true) {
+            Segment segment = current;
+            byte[] name = segment.isDefined(slot) ? null : store.name(slot).getBytes(StandardCharsets.UTF_8);
+            int length = RECORD_BYTES + (name == null ? 0 : RECORD_BYTES + align(name.length));
+            int position = segment.reserve(length);
+            if (position < 0) {
+                if (!rotate(segment)) {
+                    return;
+                }
+                continue;
+            }
+            if (name != null) {
+                position = segment.writeName(position, slot, name);
+            }
+            segment.writeStock(position, slot, stock);
+            return;
+        }
+    }
+
+    /**
+     * moves on to the next segment unless another thread already did, the snapshot of the new generation is written
+     * in the background
+     *
+     * @return false if no segment could be created, the change is then only kept in memory
+     */
+    private synchronized boolean rotate(Segment full) {
+        if (current != full) {
+            return true;
+        }
+        Segment next = spare;
+        spare = null;
+        if (next == null) {
+            try {
+                next = Segment.create(segmentPath(directory, full.generation + 1), full.generation + 1, segmentBytes);
+            } catch (IOException e) {
+                log.error("Cannot create stock journal segment {}", full.generation + 1, e);
+                return false;
+            }
+        }
+        current = next;
+        long generation = next.generation;
+        IO.execute(() -> {
+            full.buffer.force();
+            writeSnapshotQuietly(generation);
+            prepareSpare();
+        });
+        return true;
+    }
+
+    /**
+     * creates the next segment ahead of time, so orders filling a segment do not wait for the file to be created
+     */
+    private synchronized void prepareSpare() {
+        if (spare != null || closed) {
+            return;
+        }
+        long generation = current.generation + 1;
+        try {
+            spare = Segment.create(segmentPath(directory, generation), generation, segmentBytes);
+        } catch (IOException e) {
+            log.warn("Cannot prepare stock journal segment {}", generation, e);
+        }
+    }
+
+    private void flush() {
+        current.buffer.force();
+    }
+
+    private void snapshotIfChanged() {
+        Segment segment = current;
+        if (segment.hasRecords()) {
+            rotate(segment);
+        }
+    }
+
+    private void writeSnapshotQuietly(long generation) {
+        try {
+            writeSnapshot(generation);
+        } catch (IOException e) {
+            log.error("Cannot write stock snapshot {}", generation, e);
+        }
+    }
+
+    /**
+     * writes the stock of every slot, read after the journal moved on to the generation, so any change the snapshot
+     * misses is in that segment or a later one, then deletes the files the snapshot replaces. The shards of a slot are
+     * reclaimed into its store before it is read, so the snapshot holds their stock too.
+     */
+    private void writeSnapshot(long generation) throws IOException {
+        int size = store.size();
+        List<String> names = new ArrayList<>(size);
+        List<Integer> stocks = new ArrayList<>(size);
+        for (int slot = 0; slot < size; slot++) {
+            store.lock(slot);
+            int stock;
+            try {
+                stock = store.reclaim(slot);
+            } finally {
+                store.unlock(slot);
+            }
+            if (stock != StockStore.ABSENT) {
+                names.add(store.name(slot));
+                stocks.add(stock);
+            }
+        }
+        Path target = snapshotPath(directory, generation);
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream stream = Channels.newOutputStream(channel);
+            CheckedOutputStream checked = new CheckedOutputStream(stream, new CRC32());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(generation);
+            out.writeInt(names.size());
+            for (int i = 0; i < names.size(); i++) {
+                out.writeUTF(names.get(i));
+                out.writeInt(stocks.get(i));
+            }
+            out.flush();
+            new DataOutputStream(stream).writeLong(checked.getChecksum().getValue());
+            channel.force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        for (Path file : list(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (generation(file, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX) < generation) {
+                Files.deleteIfExists(file);
+            }
+        }
+        for (Path file : list(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            if (generation(file, SEGMENT_PREFIX, SEGMENT_SUFFIX) < generation) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * @return false if the snapshot is incomplete or damaged
+     */
+    private static boolean readSnapshot(Path file, Map<String, Integer> stock) throws IOException {
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(file))) {
+            CheckedInputStream checked = new CheckedInputStream(stream, new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                return false;
+            }
+            in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                stock.put(in.readUTF(), in.readInt());
+            }
+            long expected = checked.getChecksum().getValue();
+            return new DataInputStream(stream).readLong() == expected;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * applies the records of a segment in order. Positions left by an append cut short by a crash read as zero and
+     * are skipped, the replay stops at the unwritten rest of the segment.
+     */
+    private static void replay(Path file, Map<String, Integer> stock) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int limit = buffer.capacity();
+        if (limit < HEADER_BYTES || buffer.getInt(0) != SEGMENT_MAGIC) {
+            return;
+        }
+        Map<Integer, String> names = new HashMap<>();
+        int position = HEADER_BYTES;
+        int zeros = 0;
+        while (position + RECORD_BYTES <= limit && zeros < END_OF_RECORDS_BYTES) {
+            int tag = buffer.getInt(position);
+            zeros = tag == 0 ? zeros + RECORD_BYTES : 0;
+            if (tag > 0) {
+                String name = names.get(tag - 1);
+                if (name != null) {
+                    stock.put(name, buffer.getInt(position + 4));
+                }
+                position += RECORD_BYTES;
+            } else if (tag < 0) {
+                int length = buffer.getInt(position + 4);
+                if (length < 0 || position + RECORD_BYTES + length > limit) {
+                    return;
+                }
+                byte[] name = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    name[i] = buffer.get(position + RECORD_BYTES + i);
+                }
+                names.put(-tag - 1, new String(name, StandardCharsets.UTF_8));
+                position += RECORD_BYTES + align(length);
+            } else {
+                position += RECORD_BYTES;
+            }
+        }
+    }
+
+    private static int align(int length) {
+        return (length + RECORD_BYTES - 1) & -RECORD_BYTES;
+    }
+
+    private static Path segmentPath(Path directory, long generation) {
+        return directory.resolve(String.format("%s%016x%s", SEGMENT_PREFIX, generation, SEGMENT_SUFFIX));
+    }
+
+    private static Path snapshotPath(Path directory, long generation) {
+        return directory.resolve(String.format("%s%016x%s", SNAPSHOT_PREFIX, generation, SNAPSHOT_SUFFIX));
+    }
+
+    private static long generation(Path file, String prefix, String suffix) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()), 16);
+    }
+
+    /**
+     * @return the files of one kind in ascending generation order
+     */
+    private static List<Path> list(Path directory, String prefix, String suffix) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        // generations are zero padded, so names sort in generation order
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * A memory-mapped segment file. Appenders reserve disjoint ranges with a single atomic add and write them
+     * without further coordination, the tag word of a record is written last so a record is only seen complete.
+     */
+    private static class Segment {
+        final long generation;
+        final MappedByteBuffer buffer;
+        final int capacity;
+        final AtomicInteger position;
+        volatile AtomicLongArray defined;
+
+        private Segment(long generation, MappedByteBuffer buffer) {
+            this.generation = generation;
+            this.buffer = buffer;
+            this.capacity = buffer.capacity();
+            this.position = new AtomicInteger(HEADER_BYTES);
+            this.defined = new AtomicLongArray(1);
+        }
+
+        static Segment create(Path file, long generation, int capacity) throws IOException {
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+            // segments are little endian, the order of the common platforms, so appends do not swap bytes
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putLong(8, generation);
+            buffer.putInt(0, SEGMENT_MAGIC);
+            return new Segment(generation, buffer);
+        }
+
+        /**
+         * @return start of the reserved range or -1 if the segment is full
+         */
+        int reserve(int length) {
+            int start = position.getAndAdd(length);
+            return start + length <= capacity ? start : -1;
+        }
+
+        boolean hasRecords() {
+            return position.get() > HEADER_BYTES;
+        }
+
+        int writeName(int at, int slot, byte[] name) {
+            for (int i = 0; i < name.length; i++) {
+                buffer.put(at + RECORD_BYTES + i, name[i]);
+            }
+            buffer.putInt(at + 4, name.length);
+            buffer.putInt(at, -(slot + 1));
+            define(slot);
+            return at + RECORD_BYTES + align(name.length);
+        }
+
+        void writeStock(int at, int slot, int stock) {
+            buffer.putInt(at + 4, stock);
+            buffer.putInt(at, slot + 1);
+        }
+
+        boolean isDefined(int slot) {
+            AtomicLongArray bits = defined;
+            int word = slot >>> 6;
+            return word < bits.length() && (bits.get(word) & (1L << slot)) != 0;
+        }
+
+        /**
+         * marks the slot as named in this segment. A bit lost to a concurrent growth only repeats the name once.
+         */
+        private void define(int slot) {
+            int word = slot >>> 6;
+            AtomicLongArray bits = defined;
+            if (word >= bits.length()) {
+                bits = grow(word);
+            }
+            long bit = 1L << slot;
+            long current = bits.get(word);
+            while (!bits.compareAndSet(word, current, current | bit)) {
+                current = bits.get(word);
+            }
+        }
+
+        private synchronized AtomicLongArray grow(int word) {
+            AtomicLongArray bits = defined;
+            if (word < bits.length()) {
+                return bits;
+            }
+            AtomicLongArray grown = new AtomicLongArray(Math.max(word + 1, bits.length() * 2));
+            for (int i = 0; i < bits.length(); i++) {
+                grown.set(i, bits.get(i));
+            }
+            defined = grown;
+            return grown;
+        }
+    }
+}
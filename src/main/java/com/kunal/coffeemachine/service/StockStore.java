@@ -0,0 +1,657 @@
+package com.kunal.coffeemachine.service;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stock of every ingredient of a coffee machine, kept in primitive arrays indexed by slot. Each ingredient name is
+ * interned to a slot once, recipes refer to ingredients by slot only, so the order path neither hashes names nor
+ * unboxes quantities.
+ * <p>
+ * Slots live in fixed size segments which never move once created, growing the store only adds segments, so writers
+ * holding a slot lock are never affected by a concurrent growth.
+ * <p>
+ * With sharding enabled, an ingredient whose lock is found contended gets a shard per thread group: orders take the
+ * ingredient from their own shard without any shared write, and a shard running dry takes a grant from the store
+ * under the slot lock. Grants are a small share of the stock left, so shards never hold much of a scarce ingredient,
+ * and once the store itself runs short every shard is reclaimed into it, so an order is only refused when the whole
+ * stock is not sufficient. Stock handed out to shards counts as used for {@link #stock(int)} only: {@link #total(int)},
+ * the snapshots and the observers see the stock of the store plus what its shards hold. Orders served by a shard
+ * change no shared state, so observers learn of them with the next change made under the slot lock or once
+ * {@link #publish()} is called, which reads every shard of the sharded ingredients.
+ */
+class StockStore {
+    /**
+     * stock of an ingredient the recipes know about but the machine does not hold
+     */
+    static final int ABSENT = -1;
+
+    private static final int SPINS_BEFORE_PARK = 64;
+    private static final long PARK_NANOS = 1_000;
+    private static final int SEGMENT_SHIFT = 6;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    /**
+     * lock retries after which an ingredient is sharded
+     */
+    private static final int CONTENDED_RETRIES = 64;
+    /**
+     * longs per shard, so every shard sits on its own cache line
+     */
+    private static final int SHARD_STRIDE = 8;
+    /**
+     * most orders a grant serves
+     */
+    private static final int GRANT_ORDERS = 64;
+    /**
+     * optimistic reads a snapshot tries before taking the slot locks
+     */
+    private static final int SNAPSHOT_ATTEMPTS = 32;
+
+    private final Map<String, Integer> slots;
+    private volatile Segment[] segments;
+    private volatile int size;
+    private volatile Observer[] observers;
+    private volatile int shardCount;
+    private volatile int[] shardedSlots = new int[0];
+    /**
+     * failed attempts to take a slot lock, a measure of the contention on ingredients
+     */
+    @Getter
+    private final LongAdder lockRetries = new LongAdder();
+
+    StockStore() {
+        slots = new ConcurrentHashMap<>();
+        segments = new Segment[]{new Segment()};
+        observers = new Observer[0];
+    }
+
+    /**
+     * registers an observer of every stock change
+     *
+     * @param observer the observer
+     */
+    synchronized void addObserver(Observer observer) {
+        Observer[] grown = new Observer[observers.length + 1];
+        System.arraycopy(observers, 0, grown, 0, observers.length);
+        grown[observers.length] = observer;
+        observers = grown;
+    }
+
+    /**
+     * unregisters an observer, a change already in progress may still reach it
+     *
+     * @param observer the observer
+     */
+    synchronized void removeObserver(Observer observer) {
+        Observer[] shrunk = new Observer[observers.length];
+        int n = 0;
+        for (Observer current : observers) {
+            if (current != observer) {
+                shrunk[n++] = current;
+            }
+        }
+        observers = Arrays.copyOf(shrunk, n);
+    }
+
+    /**
+     * shards every ingredient whose lock turns out to be contended from now on
+     *
+     * @param shards shards per ingredient, rounded up to a power of two
+     */
+    void enableSharding(int shards) {
+        shardCount = shards <= 1 ? 1 : Integer.highestOneBit(shards - 1) << 1;
+    }
+
+    /**
+     * @return true if contended ingredients are sharded
+     */
+    boolean isSharding() {
+        return shardCount > 0;
+    }
+
+    /**
+     * @param slot slot of the ingredient
+     * @return true if the ingredient is sharded, which it stays from then on
+     */
+    boolean isSharded(int slot) {
+        return segment(slot).shards.get(slot & SEGMENT_MASK) != null;
+    }
+
+    /**
+     * returns the slot of the ingredient, interning it as absent if it is not known yet
+     *
+     * @param name The name of the ingredient.
+     * @return slot of the ingredient
+     */
+    int slot(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (this) {
+            slot = slots.get(name);
+            if (slot != null) {
+                return slot;
+            }
+            int newSlot = size;
+            int segment = newSlot >>> SEGMENT_SHIFT;
+            if (segment == segments.length) {
+                Segment[] grown = new Segment[segments.length * 2];
+                System.arraycopy(segments, 0, grown, 0, segments.length);
+                segments = grown;
+            }
+            if (segments[segment] == null) {
+                segments[segment] = new Segment();
+            }
+            Segment target = segments[segment];
+            target.names[newSlot & SEGMENT_MASK] = name;
+            target.stock.set(newSlot & SEGMENT_MASK, ABSENT);
+            target.reported[newSlot & SEGMENT_MASK] = ABSENT;
+            size = newSlot + 1;
+            slots.put(name, newSlot);
+            return newSlot;
+        }
+    }
+
+    /**
+     * @param name The name of the ingredient.
+     * @return slot of the ingredient or -1 if it was never interned
+     */
+    int find(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * @return number of interned ingredients, slots are numbered from 0 to size - 1
+     */
+    int size() {
+        return size;
+    }
+
+    String name(int slot) {
+        return segment(slot).names[slot & SEGMENT_MASK];
+    }
+
+    /**
+     * @param slot slot of the ingredient
+     * @return current stock of the store, without what the shards of the ingredient hold, or {@link #ABSENT}
+     */
+    int stock(int slot) {
+        return segment(slot).stock.get(slot & SEGMENT_MASK);
+    }
+
+    /**
+     * copies the stock of every slot as it was at one point in time, so the copy never shows part of an order. The
+     * sequence of every slot and the versions of its shards are read before and after the stock: if no slot was
+     * locked or changed and no shard was taken from in between, no writer touched the stock while it was copied.
+     * Readers write nothing shared, so orders are not slowed down, and only if writers keep every attempt from
+     * validating are the slot locks taken and the shards reclaimed for a moment. Shards are packed with a version
+     * counting their changes, so an order served by a shard fails the validation like a locked one. An order takes
+     * from the shards one ingredient after the other though, so the copy may show part of an order in flight on
+     * sharded ingredients.
+     *
+     * @param atSnapshot run once the stock is copied and before it is validated, to read other state at the same
+     *                   point in time, it may be run more than once
+     * @return the stock by slot including what the shards hold, {@link #ABSENT} for ingredients the machine does
+     * not hold
+     */
+    int[] snapshot(Runnable atSnapshot) {
+        int slots = size;
+        long[] sequences = new long[slots];
+        long[] versions = new long[slots];
+        int[] stock = new int[slots];
+        for (int attempt = 0; attempt < SNAPSHOT_ATTEMPTS; attempt++) {
+            if (readStable(sequences, versions, stock, slots) && validate(sequences, versions, slots, atSnapshot)
+                    && size == slots) {
+                return stock;
+            }
+            if (size != slots) {
+                slots = size;
+                sequences = new long[slots];
+                versions = new long[slots];
+                stock = new int[slots];
+            }
+            Thread.yield();
+        }
+        // writers kept every attempt from validating, take the locks in the order writers do
+        slots = size;
+        stock = new int[slots];
+        versions = new long[slots];
+        for (int slot = 0; slot < slots; slot++) {
+            lock(slot);
+        }
+        try {
+            // with the shards empty orders have to take the locks, only orders handing back what they took from a
+            // shard still change it, so the copy is repeated until no shard moved
+            boolean moved = true;
+            while (moved) {
+                for (int slot = 0; slot < slots; slot++) {
+                    reclaim(slot);
+                    versions[slot] = shardVersions(slot);
+                    stock[slot] = total(slot);
+                }
+                moved = false;
+                for (int slot = 0; slot < slots && !moved; slot++) {
+                    moved = shardVersions(slot) != versions[slot];
+                }
+            }
+            atSnapshot.run();
+        } finally {
+            for (int slot = slots - 1; slot >= 0; slot--) {
+                unlock(slot);
+            }
+        }
+        return stock;
+    }
+
+    /**
+     * reads the sequence and shard versions and then the stock of every slot
+     *
+     * @return false if a slot was locked
+     */
+    private boolean readStable(long[] sequences, long[] versions, int[] stock, int slots) {
+        for (int slot = 0; slot < slots; slot++) {
+            long sequence = segment(slot).sequence.get(slot & SEGMENT_MASK);
+            if ((sequence & 1) != 0) {
+                return false;
+            }
+            sequences[slot] = sequence;
+            versions[slot] = shardVersions(slot);
+        }
+        for (int slot = 0; slot < slots; slot++) {
+            stock[slot] = total(slot);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if no slot was locked and no shard changed since their sequence and versions were read
+     */
+    private boolean validate(long[] sequences, long[] versions, int slots, Runnable atSnapshot) {
+        atSnapshot.run();
+        for (int slot = 0; slot < slots; slot++) {
+            if (segment(slot).sequence.get(slot & SEGMENT_MASK) != sequences[slot]
+                    || shardVersions(slot) != versions[slot]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the sum of the versions of the shards of the slot, which grows with every change of a shard
+     */
+    private long shardVersions(int slot) {
+        AtomicLongArray shards = segment(slot).shards.get(slot & SEGMENT_MASK);
+        if (shards == null) {
+            return 0;
+        }
+        long versions = 0;
+        for (int shard = 0; shard < shards.length(); shard += SHARD_STRIDE) {
+            versions += shards.get(shard) >>> 32;
+        }
+        return versions;
+    }
+
+    /**
+     * locks the slot for a writer, slots of one order must be locked in ascending order
+     *
+     * @param slot slot of the ingredient
+     */
+    void lock(int slot) {
+        AtomicLongArray sequence = segment(slot).sequence;
+        int index = slot & SEGMENT_MASK;
+        long current = sequence.get(index);
+        // the sequence is odd while a writer holds the slot
+        if ((current & 1) == 0 && sequence.compareAndSet(index, current, current + 1)) {
+            return;
+        }
+        int spins = 0;
+        do {
+            lockRetries.increment();
+            // the holder is either about to unlock or was descheduled, in which case spinning only delays it
+            if (++spins < SPINS_BEFORE_PARK) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+            current = sequence.get(index);
+        } while ((current & 1) != 0 || !sequence.compareAndSet(index, current, current + 1));
+        if (shardCount > 0) {
+            contended(slot, spins);
+        }
+    }
+
+    /**
+     * counts the retries of a contended lock and shards the ingredient once they add up, the caller holds the lock
+     */
+    private void contended(int slot, int retries) {
+        Segment segment = segment(slot);
+        int index = slot & SEGMENT_MASK;
+        if (segment.shards.get(index) == null && segment.contention.addAndGet(index, retries) >= CONTENDED_RETRIES) {
+            createShards(slot);
+        }
+    }
+
+    /**
+     * gives the ingredient its shards, the caller holds the slot lock
+     */
+    private void createShards(int slot) {
+        segment(slot).shards.set(slot & SEGMENT_MASK, new AtomicLongArray(shardCount * SHARD_STRIDE));
+        synchronized (this) {
+            int[] grown = Arrays.copyOf(shardedSlots, shardedSlots.length + 1);
+            grown[shardedSlots.length] = slot;
+            shardedSlots = grown;
+        }
+    }
+
+    /**
+     * shards the ingredient right away instead of waiting for its lock to be contended, sharding must be enabled
+     *
+     * @param slot slot of the ingredient
+     */
+    void shard(int slot) {
+        lock(slot);
+        try {
+            Segment segment = segment(slot);
+            int index = slot & SEGMENT_MASK;
+            if (segment.shards.get(index) == null) {
+                createShards(slot);
+            }
+        } finally {
+            unlock(slot);
+        }
+    }
+
+    void unlock(int slot) {
+        segment(slot).sequence.incrementAndGet(slot & SEGMENT_MASK);
+    }
+
+    /**
+     * changes the stock of a slot, the caller must hold the slot lock
+     *
+     * @param slot  slot of the ingredient
+     * @param delta quantity added, negative when the ingredient is used
+     */
+    void add(int slot, int delta) {
+        AtomicIntegerArray stock = segment(slot).stock;
+        int index = slot & SEGMENT_MASK;
+        stock.set(index, stock.get(index) + delta);
+        changed(slot);
+    }
+
+    /**
+     * replaces the stock of the ingredient, interning it if needed
+     *
+     * @param name     The name of the ingredient.
+     * @param newStock the new stock
+     */
+    void set(String name, int newStock) {
+        int slot = slot(name);
+        lock(slot);
+        try {
+            AtomicLongArray shards = segment(slot).shards.get(slot & SEGMENT_MASK);
+            if (shards != null) {
+                // the new stock replaces what the shards hold too
+                drain(shards);
+            }
+            segment(slot).stock.set(slot & SEGMENT_MASK, newStock);
+            changed(slot);
+        } finally {
+            unlock(slot);
+        }
+    }
+
+    /**
+     * sets the stock of the ingredient unless the machine already holds it, interning it if needed
+     *
+     * @param name     The name of the ingredient.
+     * @param newStock the stock of a new ingredient
+     * @return true if the stock was set
+     */
+    boolean setIfAbsent(String name, int newStock) {
+        int slot = slot(name);
+        lock(slot);
+        try {
+            AtomicIntegerArray stock = segment(slot).stock;
+            if (stock.get(slot & SEGMENT_MASK) != ABSENT) {
+                return false;
+            }
+            stock.set(slot & SEGMENT_MASK, newStock);
+            changed(slot);
+            return true;
+        } finally {
+            unlock(slot);
+        }
+    }
+
+    /**
+     * takes the quantity of a sharded ingredient from the shard of the calling thread, refilling the shard from the
+     * store when it runs dry
+     *
+     * @param slot     slot of a sharded ingredient, its lock must not be held by the caller
+     * @param quantity the quantity needed
+     * @return true if taken, false if the ingredient is absent or its whole stock is not sufficient
+     */
+    boolean take(int slot, int quantity) {
+        Segment segment = segment(slot);
+        int index = slot & SEGMENT_MASK;
+        AtomicLongArray shards = segment.shards.get(index);
+        int shard = shard();
+        long current = shards.get(shard);
+        while (held(current) >= quantity) {
+            if (shards.compareAndSet(shard, current, withHeld(current, held(current) - quantity))) {
+                return true;
+            }
+            current = shards.get(shard);
+        }
+        lock(slot);
+        try {
+            int stock = segment.stock.get(index);
+            if (stock == ABSENT) {
+                return false;
+            }
+            if (stock < quantity) {
+                stock = reclaim(slot);
+            }
+            if (stock < quantity) {
+                return false;
+            }
+            // the grant is a share of what is left, so as the stock runs low the shards hand it back to the store
+            int left = stock - quantity;
+            int grant = (int) Math.min((long) quantity * GRANT_ORDERS, left / (2L * shardCount));
+            segment.stock.set(index, stock - quantity - grant);
+            if (grant > 0) {
+                addHeld(shards, shard, grant);
+            }
+            // observers see the order taking its quantity, the grant is still stock of the machine
+            changed(slot);
+            return true;
+        } finally {
+            unlock(slot);
+        }
+    }
+
+    /**
+     * returns a quantity taken from a sharded ingredient by an order which could not be completed. It goes back to
+     * the store under the slot lock, so it is ordered with refills and reclaims and the observers see it.
+     *
+     * @param slot     slot of a sharded ingredient, its lock must not be held by the caller
+     * @param quantity the quantity taken
+     */
+    void giveBack(int slot, int quantity) {
+        lock(slot);
+        try {
+            // an ingredient the machine no longer holds gets nothing back
+            if (segment(slot).stock.get(slot & SEGMENT_MASK) != ABSENT) {
+                add(slot, quantity);
+            }
+        } finally {
+            unlock(slot);
+        }
+    }
+
+    /**
+     * moves everything the shards of the ingredient hold back into the store, the caller must hold the slot lock
+     *
+     * @param slot slot of the ingredient
+     * @return the stock of the store afterwards
+     */
+    int reclaim(int slot) {
+        Segment segment = segment(slot);
+        int index = slot & SEGMENT_MASK;
+        AtomicLongArray shards = segment.shards.get(index);
+        int stock = segment.stock.get(index);
+        if (shards == null || stock == ABSENT) {
+            return stock;
+        }
+        int reclaimed = drain(shards);
+        if (reclaimed > 0) {
+            add(slot, reclaimed);
+        }
+        return stock + reclaimed;
+    }
+
+    /**
+     * @param slot slot of the ingredient
+     * @return the stock of the store plus what its shards hold, or {@link #ABSENT}
+     */
+    int total(int slot) {
+        Segment segment = segment(slot);
+        int index = slot & SEGMENT_MASK;
+        int stock = segment.stock.get(index);
+        AtomicLongArray shards = segment.shards.get(index);
+        if (shards == null || stock == ABSENT) {
+            return stock;
+        }
+        for (int shard = 0; shard < shards.length(); shard += SHARD_STRIDE) {
+            stock += held(shards.get(shard));
+        }
+        return stock;
+    }
+
+    /**
+     * reports to the observers what orders took from the shards of every sharded ingredient since its last change
+     * under the slot lock, so they agree with {@link #total(int)}. Unlike the reads of the observers it costs a read
+     * of every shard of every sharded ingredient, and the slot lock of those whose shards changed since the last call.
+     */
+    void publish() {
+        for (int slot : shardedSlots) {
+            AtomicLongArray published = segment(slot).published;
+            int index = slot & SEGMENT_MASK;
+            if (shardVersions(slot) == published.get(index)) {
+                continue;
+            }
+            lock(slot);
+            try {
+                // a shard changing after this read is seen by the next call
+                long versions = shardVersions(slot);
+                changed(slot);
+                published.set(index, versions);
+            } finally {
+                unlock(slot);
+            }
+        }
+    }
+
+    /**
+     * @param slot slot of the ingredient, its lock must be held by the caller
+     * @return the stock the observers were last told of, what an observer added now starts from
+     */
+    int observed(int slot) {
+        return segment(slot).reported[slot & SEGMENT_MASK];
+    }
+
+    private static int drain(AtomicLongArray shards) {
+        int drained = 0;
+        for (int shard = 0; shard < shards.length(); shard += SHARD_STRIDE) {
+            long current = shards.get(shard);
+            while (!shards.compareAndSet(shard, current, withHeld(current, 0))) {
+                current = shards.get(shard);
+            }
+            drained += held(current);
+        }
+        return drained;
+    }
+
+    private static void addHeld(AtomicLongArray shards, int shard, int quantity) {
+        long current = shards.get(shard);
+        while (!shards.compareAndSet(shard, current, withHeld(current, held(current) + quantity))) {
+            current = shards.get(shard);
+        }
+    }
+
+    /**
+     * @return the stock a shard holds, kept in the low half of the shard with a version counting its changes above
+     */
+    private static int held(long shard) {
+        return (int) shard;
+    }
+
+    private static long withHeld(long shard, int held) {
+        return ((shard >>> 32) + 1) << 32 | (held & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return index of the shard of the calling thread
+     */
+    private int shard() {
+        return ((int) Thread.currentThread().getId() & (shardCount - 1)) * SHARD_STRIDE;
+    }
+
+    /**
+     * tells the observers the stock of the store and shards, the caller holds the slot lock, so every change they
+     * see starts from the stock of the change before
+     */
+    private void changed(int slot) {
+        int[] reported = segment(slot).reported;
+        int index = slot & SEGMENT_MASK;
+        int oldStock = reported[index];
+        int newStock = total(slot);
+        if (oldStock == newStock) {
+            return;
+        }
+        reported[index] = newStock;
+        for (Observer observer : observers) {
+            observer.stockChanged(slot, oldStock, newStock);
+        }
+    }
+
+    private Segment segment(int slot) {
+        return segments[slot >>> SEGMENT_SHIFT];
+    }
+
+    /**
+     * Observer of stock changes. It is called while the slot lock is held, so the changes of one slot are seen
+     * in order, and it must neither block nor call back into the store.
+     */
+    interface Observer {
+        void stockChanged(int slot, int oldStock, int newStock);
+    }
+
+    private static class Segment {
+        final String[] names = new String[SEGMENT_SIZE];
+        final AtomicIntegerArray stock = new AtomicIntegerArray(SEGMENT_SIZE);
+        /**
+         * the stock the observers were last told of, only read and written under the slot lock
+         */
+        final int[] reported = new int[SEGMENT_SIZE];
+        final AtomicLongArray sequence = new AtomicLongArray(SEGMENT_SIZE);
+        final AtomicIntegerArray contention = new AtomicIntegerArray(SEGMENT_SIZE);
+        final AtomicReferenceArray<AtomicLongArray> shards = new AtomicReferenceArray<>(SEGMENT_SIZE);
+        /**
+         * versions of the shards when {@link #publish()} last reported them
+         */
+        final AtomicLongArray published = new AtomicLongArray(SEGMENT_SIZE);
+    }
+}
@@ -0,0 +1,189 @@
+package com.kunal.coffeemachine.service;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A scheduler running in simulated time. Events are queued instead of being run by threads and time only moves when
+ * the clock is advanced, jumping straight to the next event, so hours of brewing pass in the time it takes to run
+ * the events. Events due at the same time run in the order they were scheduled, so a simulation driven by one
+ * thread gives the same result every time.
+ * <p>
+ * The clock is not thread safe: the machines it drives must only be used from the thread advancing it, through the
+ * asynchronous API, since a synchronous order waiting for its brew would wait for a time which never comes. A
+ * synchronous order or batch which has to brew fails with an IllegalStateException instead, before it takes an outlet
+ * or any stock.
+ */
+class VirtualClock extends BrewScheduler {
+    private final PriorityQueue<Event> events;
+    private long nowNanos;
+    private long sequence;
+
+    VirtualClock() {
+        this.events = new PriorityQueue<>();
+    }
+
+    @Override
+    boolean isVirtual() {
+        return true;
+    }
+
+    @Override
+    long nanoTime() {
+        return nowNanos;
+    }
+
+    /**
+     * @return the simulated time in milliseconds since the clock was created
+     */
+    long millis() {
+        return TimeUnit.NANOSECONDS.toMillis(nowNanos);
+    }
+
+    @Override
+    void schedule(Runnable task, long delayMillis) {
+        if (delayMillis <= 0) {
+            task.run();
+        } else {
+            at(nowNanos + TimeUnit.MILLISECONDS.toNanos(delayMillis), task, 0);
+        }
+    }
+
+    @Override
+    void execute(Runnable task) {
+        at(nowNanos, task, 0);
+    }
+
+    @Override
+    ScheduledFuture<?> scheduleCancellable(Runnable task, long delayMillis) {
+        return at(nowNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)), task, 0);
+    }
+
+    @Override
+    ScheduledFuture<?> scheduleRepeating(Runnable task, long periodMillis) {
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+        if (periodNanos <= 0) {
+            throw new IllegalArgumentException("period must be positive");
+        }
+        return at(nowNanos + periodNanos, task, periodNanos);
+    }
+
+    /**
+     * runs every event due up to the given time, including the events they schedule meanwhile, and moves the clock
+     * to that time
+     *
+     * @param millis simulated time in milliseconds, the clock never goes back
+     */
+    void advanceTo(long millis) {
+        long target = TimeUnit.MILLISECONDS.toNanos(millis);
+        while (!events.isEmpty() && events.peek().atNanos <= target) {
+            run(events.poll());
+        }
+        nowNanos = Math.max(nowNanos, target);
+    }
+
+    /**
+     * moves the clock to the next event and runs it
+     *
+     * @return false if no event is pending
+     */
+    boolean step() {
+        Event event = events.poll();
+        while (event != null && event.cancelled) {
+            event = events.poll();
+        }
+        if (event == null) {
+            return false;
+        }
+        run(event);
+        return true;
+    }
+
+    private void run(Event event) {
+        if (event.cancelled) {
+            return;
+        }
+        nowNanos = Math.max(nowNanos, event.atNanos);
+        if (event.periodNanos > 0) {
+            // rescheduled before running, like a fixed rate timer, so the task may cancel itself
+            event.atNanos += event.periodNanos;
+            event.sequence = sequence++;
+            events.add(event);
+        } else {
+            event.done = true;
+        }
+        event.task.run();
+    }
+
+    private Event at(long atNanos, Runnable task, long periodNanos) {
+        Event event = new Event(atNanos, sequence++, task, periodNanos);
+        events.add(event);
+        return event;
+    }
+
+    /**
+     * A pending event. Cancelled events stay queued and are skipped once due, which keeps cancelling an order
+     * deadline as cheap as scheduling it.
+     */
+    private class Event implements ScheduledFuture<Object>, Comparable<Delayed> {
+        private long atNanos;
+        private long sequence;
+        private final Runnable task;
+        private final long periodNanos;
+        private boolean cancelled;
+        private boolean done;
+
+        Event(long atNanos, long sequence, Runnable task, long periodNanos) {
+            this.atNanos = atNanos;
+            this.sequence = sequence;
+            this.task = task;
+            this.periodNanos = periodNanos;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(atNanos - nowNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            if (other instanceof Event) {
+                Event event = (Event) other;
+                int byTime = Long.compare(atNanos, event.atNanos);
+                return byTime != 0 ? byTime : Long.compare(sequence, event.sequence);
+            }
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (done || cancelled) {
+                return false;
+            }
+            cancelled = true;
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done || cancelled;
+        }
+
+        @Override
+        public Object get() {
+            throw new UnsupportedOperationException("events of a virtual clock cannot be waited for");
+        }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit) {
+            throw new UnsupportedOperationException("events of a virtual clock cannot be waited for");
+        }
+    }
+}
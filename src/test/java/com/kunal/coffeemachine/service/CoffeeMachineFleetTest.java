@@ -0,0 +1,111 @@
+package com.kunal.coffeemachine.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kunal.coffeemachine.exception.AllSlotsOccupiedException;
+import com.kunal.coffeemachine.exception.PreparationException;
+import com.kunal.coffeemachine.pojo.Config;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.AssertionErrors;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+class CoffeeMachineFleetTest {
+
+    /**
+     * Tests orders only go to machines with sufficient stock and the route follows the stock of the machines.
+     */
+    @Test
+    void routesToMachinesWithStock() throws Exception {
+        CoffeeMachineService noMilk = new CoffeeMachineService(config(1, 0, 0));
+        CoffeeMachineService stocked = new CoffeeMachineService(config(1, 500, 0));
+        CoffeeMachineFleet fleet = new CoffeeMachineFleet(Arrays.asList(noMilk, stocked));
+        AssertionErrors.assertTrue("only the stocked machine", Arrays.equals(fleet.machinesFor("hot_tea"), new int[]{1}));
+
+        for (int i = 0; i < 5; i++) {
+            AssertionErrors.assertEquals("tea", fleet.getBeverage("hot_tea"), "hot_tea is prepared");
+        }
+        AssertionErrors.assertEquals("hot_milk used", stocked.getIngredientsRunningLow(Integer.MAX_VALUE).get("hot_milk").getStock(), 0);
+        waitForRoute(fleet, new int[0]);
+
+        noMilk.refillIngredient("hot_milk", 100);
+        waitForRoute(fleet, new int[]{0});
+        AssertionErrors.assertEquals("tea", fleet.getBeverage("hot_tea"), "hot_tea is prepared");
+    }
+
+    /**
+     * Tests an order fails over to another machine when the outlets of the chosen one are all in use.
+     */
+    @Test
+    void failsOverWhenOutletsFull() throws Exception {
+        CoffeeMachineService busy = new CoffeeMachineService(config(1, 1000, 1000));
+        CoffeeMachineService free = new CoffeeMachineService(config(1, 1000, 0));
+        CoffeeMachineFleet fleet = new CoffeeMachineFleet(Arrays.asList(busy, free));
+        CompletableFuture<String> brewing = busy.getBeverageAsync("hot_tea");
+        for (int i = 0; i < 5; i++) {
+            AssertionErrors.assertEquals("tea", fleet.getBeverage("hot_tea"), "hot_tea is prepared");
+        }
+        AssertionErrors.assertFalse("busy machine still brewing", brewing.isDone());
+    }
+
+    /**
+     * Tests the errors of beverages no machine knows or can prepare.
+     */
+    @Test
+    void noMachineCanPrepare() throws Exception {
+        CoffeeMachineFleet fleet = new CoffeeMachineFleet(Arrays.asList(
+                new CoffeeMachineService(config(1, 0, 0)), new CoffeeMachineService(config(1, 0, 0))));
+        Exception unknown = null;
+        try {
+            fleet.getBeverage("cold_coffee");
+        } catch (PreparationException ex) {
+            unknown = ex;
+        }
+        AssertionErrors.assertNotNull("exception thrown", unknown);
+        AssertionErrors.assertEquals("unknown", unknown.getMessage(), "cold_coffee cannot be prepared because beverage not found");
+        Exception unavailable = null;
+        try {
+            fleet.getBeverage("hot_tea");
+        } catch (PreparationException ex) {
+            unavailable = ex;
+        }
+        AssertionErrors.assertNotNull("exception thrown", unavailable);
+        AssertionErrors.assertEquals("unavailable", unavailable.getMessage(), "hot_tea cannot be prepared because no machine has sufficient ingredients");
+    }
+
+    /**
+     * Tests a fleet whose outlets are all in use rejects the order after a bounded number of attempts.
+     */
+    @Test
+    void saturatedFleetRejects() throws Exception {
+        CoffeeMachineService first = new CoffeeMachineService(config(1, 1000, 1000));
+        CoffeeMachineService second = new CoffeeMachineService(config(1, 1000, 1000));
+        CoffeeMachineFleet fleet = new CoffeeMachineFleet(Arrays.asList(first, second));
+        first.getBeverageAsync("hot_tea");
+        second.getBeverageAsync("hot_tea");
+        Exception exception = null;
+        try {
+            fleet.getBeverage("hot_tea");
+        } catch (AllSlotsOccupiedException ex) {
+            exception = ex;
+        }
+        AssertionErrors.assertNotNull("rejected", exception);
+    }
+
+    private static void waitForRoute(CoffeeMachineFleet fleet, int[] expected) throws InterruptedException {
+        // routes follow the stock through listeners running on the scheduler
+        for (int i = 0; i < 500 && !Arrays.equals(fleet.machinesFor("hot_tea"), expected); i++) {
+            Thread.sleep(10);
+        }
+        AssertionErrors.assertTrue("route " + Arrays.toString(expected), Arrays.equals(fleet.machinesFor("hot_tea"), expected));
+    }
+
+    /**
+     * Returns a machine making hot_tea only, queued orders are not allowed so busy outlets reject straight away
+     */
+    private static Config config(int outlets, int milk, long brewTime) throws IOException {
+        String json = "{\"machine\":{\"outlets\":{\"count_n\":" + outlets + ",\"queue_depth\":0},\"total_items_quantity\":{\"hot_water\":10000,\"hot_milk\":" + milk + ",\"sugar_syrup\":1000},\"beverages\":{\"hot_tea\":{\"hot_water\":200,\"hot_milk\":100,\"sugar_syrup\":10}},\"default_brew_time_ms\":" + brewTime + "}}";
+        return new ObjectMapper().readValue(json, Config.class);
+    }
+}
@@ -2,22 +2,47 @@ package com.kunal.coffeemachine.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.kunal.coffeemachine.exception.AllSlotsOccupiedException;
+import com.kunal.coffeemachine.exception.OrderTimeoutException;
 import com.kunal.coffeemachine.exception.PreparationException;
+import com.kunal.coffeemachine.pojo.BatchMode;
 import com.kunal.coffeemachine.pojo.Config;
+import com.kunal.coffeemachine.pojo.HistogramSnapshot;
 import com.kunal.coffeemachine.pojo.Ingredient;
+import com.kunal.coffeemachine.pojo.InventorySnapshot;
+import com.kunal.coffeemachine.pojo.MetricsSnapshot;
+import com.kunal.coffeemachine.pojo.OrderResult;
+import com.kunal.coffeemachine.pojo.OrderStatus;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.util.AssertionErrors;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 @SpringBootTest
 class CoffeeMachineServiceTest {
@@ -114,6 +139,48 @@ class CoffeeMachineServiceTest {
 
     }
 
+    /**
+     * Tests refilled ingredients leave the running low ingredients and new ones join them.
+     */
+    @Test
+    void getIngredientsRunningLowAfterRefill() throws IOException, PreparationException, AllSlotsOccupiedException {
+        Config config = getDefaultConfig();
+        config.getMachineConfig().setDefaultBrewTime(0L);
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
+        coffeeMachine.getBeverage("hot_tea");
+        coffeeMachine.getBeverage("hot_coffee");
+        coffeeMachine.refillIngredient("hot_milk", 200);
+        coffeeMachine.refillIngredient("green_mixture", 20);
+        Map<String, Ingredient> ingredientsRunningLow = coffeeMachine.getIngredientsRunningLow(50);
+        AssertionErrors.assertEquals("ingredients running low size", ingredientsRunningLow.size(), 3);
+        AssertionErrors.assertTrue("ingredients running low contains green_mixture", ingredientsRunningLow.containsKey("green_mixture"));
+        AssertionErrors.assertEquals("sugar_syrup stock", ingredientsRunningLow.get("sugar_syrup").getStock(), 40);
+        AssertionErrors.assertFalse("hot_milk refilled", ingredientsRunningLow.containsKey("hot_milk"));
+    }
+
+    /**
+     * Tests low stock listeners are notified once when an ingredient crosses their threshold.
+     */
+    @Test
+    void lowStockListener() throws Exception {
+        Config config = getDefaultConfig();
+        config.getMachineConfig().setDefaultBrewTime(0L);
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
+        Map<String, Integer> notified = new ConcurrentHashMap<>();
+        CountDownLatch latch = new CountDownLatch(3);
+        coffeeMachine.addLowStockListener(50, (ingredient, stock) -> {
+            notified.put(ingredient, stock);
+            latch.countDown();
+        });
+        coffeeMachine.getBeverage("hot_tea");
+        AssertionErrors.assertTrue("nothing crossed yet", notified.isEmpty());
+        coffeeMachine.getBeverage("hot_coffee");
+        AssertionErrors.assertTrue("notified", latch.await(5, TimeUnit.SECONDS));
+        AssertionErrors.assertEquals("sugar_syrup notified", notified.get("sugar_syrup"), 40);
+        AssertionErrors.assertEquals("tea_leaves_syrup notified", notified.get("tea_leaves_syrup"), 40);
+        AssertionErrors.assertEquals("hot_milk notified", notified.get("hot_milk"), 0);
+    }
+
     /**
      * Tests Refilling new Ingredient, Preparation of  green_tea using new ingredient green_mixture.
      */
@@ -142,12 +209,41 @@ class CoffeeMachineServiceTest {
 
     }
 
+    /**
+     * Tests a negative refill is refused and leaves the stock as it was, so an ingredient never vanishes by refill.
+     */
+    @Test
+    void refillIngredientNegative() throws IOException {
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(getDefaultConfig());
+        Exception exception = null;
+        try {
+            coffeeMachine.refillIngredient("hot_milk", -1);
+        } catch (IllegalArgumentException e) {
+            exception = e;
+        }
+        AssertionErrors.assertNotNull("refused", exception);
+        AssertionErrors.assertEquals("hot_milk kept", coffeeMachine.getInventorySnapshot().getStock().get("hot_milk"), 500);
+    }
+
+    /**
+     * Tests the stock of a single ingredient follows the orders and is absent for an ingredient the machine lacks.
+     */
+    @Test
+    void stockOfOneIngredient() throws Exception {
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(getDefaultConfig());
+        AssertionErrors.assertEquals("hot_tea", coffeeMachine.tryGetBeverage("hot_tea").getStatus(), OrderStatus.PREPARED);
+        AssertionErrors.assertEquals("hot_milk", coffeeMachine.getStock("hot_milk"), 400);
+        AssertionErrors.assertEquals("green_mixture", coffeeMachine.getStock("green_mixture"), StockStore.ABSENT);
+        AssertionErrors.assertEquals("unknown", coffeeMachine.getStock("cocoa"), StockStore.ABSENT);
+    }
+
     /**
      * Tests Concurrent Execution of the machine, Tests if we do run into all slots being used and eventually them getting cleared.
      */
     @Test
     void runningConcurrentRequests() throws Exception {
         Config config = getDefaultConfig();
+        config.getMachineConfig().getOutletConfig().setQueueDepth(0);
         CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
         coffeeMachine.refillIngredient("hot_water", 1000);
         coffeeMachine.refillIngredient("hot_milk", 1000);
@@ -183,6 +279,791 @@ class CoffeeMachineServiceTest {
 
     }
 
+    /**
+     * Tests the same as {@link #runningConcurrentRequests()} with asynchronous orders. Brewing does not hold a thread,
+     * so all requests are placed from the test thread.
+     */
+    @Test
+    void runningConcurrentAsyncRequests() throws Exception {
+        Config config = getDefaultConfig();
+        config.getMachineConfig().getOutletConfig().setQueueDepth(0);
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
+        refillAll(coffeeMachine, 1000);
+        int requests = 20;
+        Collection<CompletableFuture<String>> futures =
+                new ArrayList<>(requests);
+        for (int t = 0; t < requests; ++t) {
+            futures.add(
+                    coffeeMachine.getBeverageAsync("hot_tea")
+                            .exceptionally(e -> e.getMessage())
+            );
+        }
+        AssertionErrors.assertEquals("all slots used", coffeeMachine.getUsedOutlets().get(), coffeeMachine.getNumOutlets());
+        Set<String> messages = new HashSet<>();
+        for (Future<String> f : futures) {
+            messages.add(f.get());
+        }
+        AssertionErrors.assertTrue("all slots occupied error", messages.contains("hot_tea cannot be prepared because all slots are occupied"));
+        AssertionErrors.assertTrue("hot_tea prepared", messages.contains("hot_tea is prepared"));
+        AssertionErrors.assertEquals("all slots free", coffeeMachine.getUsedOutlets().get(), 0);
+
+    }
+
+    /**
+     * Tests each beverage is brewed for its configured brew time.
+     */
+    @Test
+    void brewTimePerBeverage() throws Exception {
+        Config config = getDefaultConfig();
+        Map<String, Long> brewTimes = new HashMap<>();
+        brewTimes.put("hot_tea", 50L);
+        config.getMachineConfig().setBrewTimes(brewTimes);
+        config.getMachineConfig().setDefaultBrewTime(0L);
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
+        CompletableFuture<String> coffee = coffeeMachine.getBeverageAsync("hot_coffee");
+        AssertionErrors.assertTrue("hot_coffee prepared without delay", coffee.isDone());
+        CompletableFuture<String> tea = coffeeMachine.getBeverageAsync("hot_tea");
+        AssertionErrors.assertFalse("hot_tea still brewing", tea.isDone());
+        AssertionErrors.assertEquals("tea", tea.get(5, TimeUnit.SECONDS), "hot_tea is prepared");
+    }
+
+    /**
+     * Tests asynchronous orders wait in the queue for a free slot and are only rejected once the queue is full.
+     */
+    @Test
+    void queuedAsyncRequests() throws Exception {
+        Config config = getDefaultConfig();
+        config.getMachineConfig().getOutletConfig().setQueueDepth(2);
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
+        refillAll(coffeeMachine, 1000);
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            futures.add(coffeeMachine.getBeverageAsync("hot_tea"));
+        }
+        ExecutionException rejected = null;
+        try {
+            futures.get(5).get();
+        } catch (ExecutionException ex) {
+            rejected = ex;
+        }
+        AssertionErrors.assertNotNull("queue full", rejected);
+        AssertionErrors.assertTrue("all slots occupied error", rejected.getCause() instanceof AllSlotsOccupiedException);
+        for (int i = 0; i < 5; i++) {
+            AssertionErrors.assertEquals("hot_tea prepared", futures.get(i).get(10, TimeUnit.SECONDS), "hot_tea is prepared");
+        }
+        AssertionErrors.assertEquals("all slots free", coffeeMachine.getUsedOutlets().get(), 0);
+    }
+
+    /**
+     * Tests a deep queue of orders failing their reservation one after the other is drained without recursing, every
+     * failed order handing its outlet straight to the next.
+     */
+    @Test
+    void deepQueueOfFailingOrders() throws Exception {
+        Config config = getDefaultConfig();
+        config.getMachineConfig().setDefaultBrewTime(100L);
+        config.getMachineConfig().getOutletConfig().setCount(1);
+        config.getMachineConfig().getOutletConfig().setQueueDepth(20_000);
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
+        // hot_water is sufficient for two hot_tea, the orders queued behind them find it exhausted
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 10_002; i++) {
+            futures.add(coffeeMachine.getBeverageAsync("hot_tea"));
+        }
+        AssertionErrors.assertEquals("first prepared", futures.get(0).get(10, TimeUnit.SECONDS), "hot_tea is prepared");
+        AssertionErrors.assertEquals("second prepared", futures.get(1).get(10, TimeUnit.SECONDS), "hot_tea is prepared");
+        for (int i = 2; i < futures.size(); i++) {
+            ExecutionException failed = null;
+            try {
+                futures.get(i).get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException ex) {
+                failed = ex;
+            }
+            AssertionErrors.assertNotNull("order " + i + " failed", failed);
+            AssertionErrors.assertEquals("insufficient hot_water", failed.getCause().getMessage(),
+                    "hot_tea cannot be prepared because hot_water is not sufficient");
+        }
+        AssertionErrors.assertEquals("all slots free", coffeeMachine.getUsedOutlets().get(), 0);
+        AssertionErrors.assertEquals("queue empty", coffeeMachine.getInventorySnapshot().getQueuedOrders(), 0);
+    }
+
+    /**
+     * Tests brews the scheduler refuses fail their orders and free their outlets instead of leaving callers waiting.
+     */
+    @Test
+    void refusedBrewFailsOrder() throws Exception {
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(getDefaultConfig(), refusingScheduler());
+        refillAll(coffeeMachine, 1000);
+
+        Exception sync = null;
+        try {
+            coffeeMachine.tryGetBeverage("hot_tea");
+        } catch (CompletionException e) {
+            sync = e;
+        }
+        AssertionErrors.assertNotNull("synchronous order failed", sync);
+        AssertionErrors.assertTrue("refused", sync.getCause() instanceof RejectedExecutionException);
+        AssertionErrors.assertEquals("outlet free", coffeeMachine.getUsedOutlets().get(), 0);
+
+        ExecutionException async = null;
+        try {
+            coffeeMachine.getBeverageAsync("hot_tea").get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            async = e;
+        }
+        AssertionErrors.assertNotNull("asynchronous order failed", async);
+        List<OrderResult> batch = null;
+        Exception batchFailure = null;
+        try {
+            batch = coffeeMachine.getBeverages(Arrays.asList("hot_tea", "black_tea"), BatchMode.BEST_EFFORT);
+        } catch (CompletionException e) {
+            batchFailure = e;
+        }
+        AssertionErrors.assertNull("no batch results", batch);
+        AssertionErrors.assertNotNull("batch failed", batchFailure);
+        AssertionErrors.assertEquals("outlets free", coffeeMachine.getUsedOutlets().get(), 0);
+    }
+
+    /**
+     * Tests a queued asynchronous order fails once its deadline passes without a free slot.
+     */
+    @Test
+    void queuedAsyncRequestTimesOut() throws Exception {
+        Config config = getDefaultConfig();
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
+        refillAll(coffeeMachine, 1000);
+        for (int i = 0; i < 3; i++) {
+            coffeeMachine.getBeverageAsync("hot_tea");
+        }
+        CompletableFuture<String> late = coffeeMachine.getBeverageAsync("hot_tea", 100);
+        ExecutionException timedOut = null;
+        try {
+            late.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException ex) {
+            timedOut = ex;
+        }
+        AssertionErrors.assertNotNull("order timed out", timedOut);
+        AssertionErrors.assertTrue("order timeout error", timedOut.getCause() instanceof OrderTimeoutException);
+    }
+
+    /**
+     * Tests a successful order allocates nothing once warmed up, the prepared message is precomputed per beverage.
+     */
+    @Test
+    void successfulOrderDoesNotAllocate() throws Exception {
+        Config config = getDefaultConfig();
+        config.getMachineConfig().setDefaultBrewTime(0L);
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
+        refillAll(coffeeMachine, Integer.MAX_VALUE);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < 20_000; i++) {
+            coffeeMachine.getBeverage("hot_tea");
+        }
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 10_000; i++) {
+            coffeeMachine.getBeverage("hot_tea");
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        // allows for the measurement itself, a single allocation per order would already be 160 KB
+        AssertionErrors.assertTrue("allocated " + allocated + " bytes", allocated < 10_000);
+    }
+
+    /**
+     * Tests the result API reports every outcome with the failing ingredient instead of throwing.
+     */
+    @Test
+    void tryGetBeverageResults() throws IOException {
+        Config config = getDefaultConfig();
+        config.getMachineConfig().setDefaultBrewTime(0L);
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
+        OrderResult tea = coffeeMachine.tryGetBeverage("hot_tea");
+        AssertionErrors.assertTrue("tea prepared", tea.isPrepared());
+        AssertionErrors.assertEquals("tea message", tea.getMessage(), "hot_tea is prepared");
+
+        OrderResult coffee = coffeeMachine.tryGetBeverage("hot_coffee");
+        AssertionErrors.assertEquals("coffee status", coffee.getStatus(), OrderStatus.PREPARED);
+        OrderResult black = coffeeMachine.tryGetBeverage("black_tea");
+        AssertionErrors.assertEquals("black_tea status", black.getStatus(), OrderStatus.INSUFFICIENT_QUANTITY);
+        AssertionErrors.assertEquals("black_tea ingredient", black.getIngredientName(), "sugar_syrup");
+        AssertionErrors.assertEquals("same message as thrown", black.getMessage(), "black_tea cannot be prepared because sugar_syrup is not sufficient");
+
+        OrderResult green = coffeeMachine.tryGetBeverage("green_tea");
+        AssertionErrors.assertEquals("green_tea status", green.getStatus(), OrderStatus.INGREDIENT_NOT_FOUND);
+        AssertionErrors.assertEquals("green_tea ingredient", green.getIngredientName(), "green_mixture");
+        AssertionErrors.assertEquals("unknown", coffeeMachine.tryGetBeverage("cold_coffee").getStatus(), OrderStatus.BEVERAGE_NOT_FOUND);
+        AssertionErrors.assertEquals("all slots free", coffeeMachine.getUsedOutlets().get(), 0);
+    }
+
+    /**
+     * Tests a failed order reported through the result API allocates nothing, just like a successful one.
+     */
+    @Test
+    void failedOrderDoesNotAllocate() throws Exception {
+        Config config = getDefaultConfig();
+        config.getMachineConfig().setDefaultBrewTime(0L);
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
+        coffeeMachine.refillIngredient("hot_milk", 0);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < 20_000; i++) {
+            coffeeMachine.tryGetBeverage("hot_tea");
+            coffeeMachine.tryGetBeverage("green_tea");
+        }
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 10_000; i++) {
+            coffeeMachine.tryGetBeverage("hot_tea");
+            coffeeMachine.tryGetBeverage("green_tea");
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        AssertionErrors.assertTrue("allocated " + allocated + " bytes", allocated < 10_000);
+    }
+
+    /**
+     * Tests a batch is prepared in one go and spread over the free slots.
+     */
+    @Test
+    void batchPrepared() throws IOException {
+        Config config = getDefaultConfig();
+        config.getMachineConfig().setDefaultBrewTime(0L);
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
+        refillAll(coffeeMachine, 2000);
+        List<OrderResult> results = coffeeMachine.getBeverages(Arrays.asList("hot_tea", "hot_tea", "black_tea", "hot_tea", "black_tea"));
+        AssertionErrors.assertEquals("results size", results.size(), 5);
+        for (OrderResult result : results) {
+            AssertionErrors.assertEquals(result.getBeverageName(), result.getStatus(), OrderStatus.PREPARED);
+        }
+        Map<String, Ingredient> stock = coffeeMachine.getIngredientsRunningLow(Integer.MAX_VALUE);
+        AssertionErrors.assertEquals("hot_water used", stock.get("hot_water").getStock(), 2000 - 3 * 200 - 2 * 300);
+        AssertionErrors.assertEquals("all slots free", coffeeMachine.getUsedOutlets().get(), 0);
+    }
+
+    /**
+     * Tests an all-or-nothing batch which does not fit the stock takes nothing, while best-effort prepares what fits.
+     */
+    @Test
+    void batchModes() throws IOException {
+        Config config = getDefaultConfig();
+        config.getMachineConfig().setDefaultBrewTime(0L);
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
+        List<String> batch = Arrays.asList("hot_tea", "hot_tea", "hot_tea");
+
+        List<OrderResult> rejected = coffeeMachine.getBeverages(batch, BatchMode.ALL_OR_NOTHING);
+        AssertionErrors.assertEquals("first rejected", rejected.get(0).getStatus(), OrderStatus.BATCH_REJECTED);
+        AssertionErrors.assertEquals("third insufficient", rejected.get(2).getMessage(), "hot_tea cannot be prepared because hot_water is not sufficient");
+        AssertionErrors.assertEquals("hot_water untouched", coffeeMachine.getIngredientsRunningLow(Integer.MAX_VALUE).get("hot_water").getStock(), 500);
+
+        List<OrderResult> partial = coffeeMachine.getBeverages(batch, BatchMode.BEST_EFFORT);
+        AssertionErrors.assertTrue("first prepared", partial.get(0).isPrepared());
+        AssertionErrors.assertTrue("second prepared", partial.get(1).isPrepared());
+        AssertionErrors.assertEquals("third insufficient", partial.get(2).getStatus(), OrderStatus.INSUFFICIENT_QUANTITY);
+        AssertionErrors.assertEquals("hot_water used", coffeeMachine.getIngredientsRunningLow(Integer.MAX_VALUE).get("hot_water").getStock(), 100);
+    }
+
+    /**
+     * Tests an unknown beverage rejects an all-or-nothing batch but not a best-effort one.
+     */
+    @Test
+    void batchWithUnknownBeverage() throws IOException {
+        Config config = getDefaultConfig();
+        config.getMachineConfig().setDefaultBrewTime(0L);
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
+        List<String> batch = Arrays.asList("hot_tea", "cold_coffee");
+
+        List<OrderResult> rejected = coffeeMachine.getBeverages(batch);
+        AssertionErrors.assertEquals("tea rejected", rejected.get(0).getStatus(), OrderStatus.BATCH_REJECTED);
+        AssertionErrors.assertEquals("coffee not found", rejected.get(1).getMessage(), "cold_coffee cannot be prepared because beverage not found");
+
+        List<OrderResult> partial = coffeeMachine.getBeverages(batch, BatchMode.BEST_EFFORT);
+        AssertionErrors.assertTrue("tea prepared", partial.get(0).isPrepared());
+        AssertionErrors.assertEquals("coffee not found", partial.get(1).getStatus(), OrderStatus.BEVERAGE_NOT_FOUND);
+    }
+
+    /**
+     * Tests outcomes are counted per beverage and cause and prepared beverages are recorded with their brew time.
+     */
+    @Test
+    void metricsSnapshot() throws Exception {
+        Config config = getDefaultConfig();
+        config.getMachineConfig().setDefaultBrewTime(50L);
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
+        coffeeMachine.getBeverage("hot_tea");
+        coffeeMachine.getBeverage("hot_tea");
+        for (String beverage : Arrays.asList("hot_tea", "green_tea", "cold_coffee")) {
+            try {
+                coffeeMachine.getBeverage(beverage);
+            } catch (PreparationException ignored) {
+                // counted as a failure of the beverage
+            }
+        }
+
+        MetricsSnapshot metrics = coffeeMachine.getMetricsSnapshot();
+        MetricsSnapshot.BeverageStats tea = metrics.getBeverages().get("hot_tea");
+        AssertionErrors.assertEquals("teas prepared", tea.getOutcomes().get(OrderStatus.PREPARED), 2L);
+        AssertionErrors.assertEquals("tea short of water", tea.getOutcomes().get(OrderStatus.INSUFFICIENT_QUANTITY), 1L);
+        AssertionErrors.assertEquals("green_mixture missing",
+                metrics.getBeverages().get("green_tea").getOutcomes().get(OrderStatus.INGREDIENT_NOT_FOUND), 1L);
+        AssertionErrors.assertFalse("never ordered", metrics.getBeverages().containsKey("hot_coffee"));
+        AssertionErrors.assertEquals("unknown beverage", metrics.getUnknownBeverageOrders(), 1L);
+        AssertionErrors.assertEquals("brews recorded", tea.getBrewTime().getCount(), 2L);
+        AssertionErrors.assertTrue("brew takes 50ms", tea.getBrewTime().getPercentile(50) >= TimeUnit.MILLISECONDS.toNanos(50));
+        AssertionErrors.assertTrue("outlets were busy", metrics.getOutletUtilization() > 0);
+        AssertionErrors.assertEquals("all slots free", metrics.getUsedOutlets(), 0);
+    }
+
+    /**
+     * Tests rejected and timed out asynchronous orders are counted and disabled metrics record nothing.
+     */
+    @Test
+    void metricsOfQueuedOrders() throws Exception {
+        Config config = getDefaultConfig();
+        config.getMachineConfig().getOutletConfig().setQueueDepth(1);
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
+        refillAll(coffeeMachine, 1000);
+        for (int i = 0; i < 3; i++) {
+            coffeeMachine.getBeverageAsync("hot_tea");
+        }
+        CompletableFuture<String> late = coffeeMachine.getBeverageAsync("hot_tea", 50);
+        coffeeMachine.getBeverageAsync("hot_tea");
+        try {
+            late.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException ignored) {
+            // counted as timed out
+        }
+        Map<OrderStatus, Long> outcomes = coffeeMachine.getMetricsSnapshot().getBeverages().get("hot_tea").getOutcomes();
+        AssertionErrors.assertEquals("queue full", outcomes.get(OrderStatus.ALL_SLOTS_OCCUPIED), 1L);
+        AssertionErrors.assertEquals("timed out", outcomes.get(OrderStatus.TIMED_OUT), 1L);
+
+        config.getMachineConfig().setMetricsEnabled(false);
+        config.getMachineConfig().setDefaultBrewTime(0L);
+        CoffeeMachineService unmetered = new CoffeeMachineService(config);
+        unmetered.getBeverage("hot_tea");
+        AssertionErrors.assertTrue("nothing recorded", unmetered.getMetricsSnapshot().getBeverages().isEmpty());
+    }
+
+    /**
+     * Tests a restarted machine with a journal keeps the stock left by orders and refills instead of the config stock.
+     */
+    @Test
+    void stockSurvivesRestart(@TempDir Path directory) throws Exception {
+        Config config = getDefaultConfig();
+        config.getMachineConfig().setDefaultBrewTime(0L);
+        Config.JournalConfig journalConfig = new Config.JournalConfig();
+        journalConfig.setDirectory(directory.toString());
+        config.getMachineConfig().setJournalConfig(journalConfig);
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
+        coffeeMachine.getBeverage("hot_tea");
+        coffeeMachine.refillIngredient("green_mixture", 30);
+        coffeeMachine.close();
+
+        CoffeeMachineService restarted = new CoffeeMachineService(config);
+        Map<String, Ingredient> stock = restarted.getIngredientsRunningLow(Integer.MAX_VALUE);
+        AssertionErrors.assertEquals("hot_water used", stock.get("hot_water").getStock(), 300);
+        AssertionErrors.assertEquals("green_mixture refilled", stock.get("green_mixture").getStock(), 30);
+        AssertionErrors.assertEquals("green_tea prepared", restarted.getBeverage("green_tea"), "green_tea is prepared");
+        restarted.close();
+    }
+
+    /**
+     * Tests the available beverages follow orders and refills, for beverages sharing the changed ingredients only.
+     */
+    @Test
+    void availableBeverages() throws Exception {
+        Config config = getDefaultConfig();
+        config.getMachineConfig().setDefaultBrewTime(0L);
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
+        AssertionErrors.assertEquals("initially available", coffeeMachine.getAvailableBeverages(),
+                new HashSet<>(Arrays.asList("hot_tea", "hot_coffee", "black_tea")));
+        AssertionErrors.assertFalse("green_mixture missing", coffeeMachine.isAvailable("green_tea"));
+        AssertionErrors.assertFalse("unknown beverage", coffeeMachine.isAvailable("cold_coffee"));
+
+        coffeeMachine.getBeverage("hot_tea");
+        coffeeMachine.getBeverage("hot_coffee");
+        AssertionErrors.assertTrue("nothing left", coffeeMachine.getAvailableBeverages().isEmpty());
+
+        coffeeMachine.refillIngredient("green_mixture", 30);
+        coffeeMachine.refillIngredient("hot_water", 500);
+        coffeeMachine.refillIngredient("ginger_syrup", 100);
+        coffeeMachine.refillIngredient("sugar_syrup", 100);
+        coffeeMachine.refillIngredient("tea_leaves_syrup", 100);
+        AssertionErrors.assertEquals("refilled", coffeeMachine.getAvailableBeverages(),
+                new HashSet<>(Arrays.asList("black_tea", "green_tea")));
+    }
+
+    /**
+     * Tests listeners hear about beverages becoming unavailable and available again.
+     */
+    @Test
+    void availabilityListener() throws Exception {
+        Config config = getDefaultConfig();
+        config.getMachineConfig().setDefaultBrewTime(0L);
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
+        Map<String, Boolean> changes = new ConcurrentHashMap<>();
+        CountDownLatch notified = new CountDownLatch(1);
+        coffeeMachine.addAvailabilityListener((beverage, available) -> {
+            changes.put(beverage, available);
+            notified.countDown();
+        });
+        coffeeMachine.getBeverage("hot_coffee");
+        AssertionErrors.assertTrue("notified", notified.await(5, TimeUnit.SECONDS));
+        AssertionErrors.assertEquals("hot_coffee gone", changes.get("hot_coffee"), false);
+        AssertionErrors.assertFalse("hot_tea unaffected", changes.containsKey("hot_tea"));
+
+        CountDownLatch refilled = new CountDownLatch(1);
+        coffeeMachine.addAvailabilityListener((beverage, available) -> refilled.countDown());
+        coffeeMachine.refillIngredient("hot_milk", 500);
+        coffeeMachine.refillIngredient("sugar_syrup", 100);
+        AssertionErrors.assertTrue("notified again", refilled.await(5, TimeUnit.SECONDS));
+        AssertionErrors.assertTrue("hot_coffee back", coffeeMachine.isAvailable("hot_coffee"));
+    }
+
+    /**
+     * Tests a reload swaps the menu and outlets, gives new ingredients their stock and keeps the stock and metrics of
+     * what the machine already had.
+     */
+    @Test
+    void reloadReplacesCatalog() throws Exception {
+        Config config = getDefaultConfig();
+        config.getMachineConfig().setDefaultBrewTime(0L);
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
+        coffeeMachine.getBeverage("hot_tea");
+        Map<String, Boolean> changes = new ConcurrentHashMap<>();
+        CountDownLatch announced = new CountDownLatch(1);
+        coffeeMachine.addAvailabilityListener((beverage, available) -> {
+            changes.put(beverage, available);
+            if (beverage.equals("green_tea") && available) {
+                announced.countDown();
+            }
+        });
+
+        coffeeMachine.reload(getReloadConfig(5, true, 0));
+        // listeners get the availability when they run, so the announcement is awaited before the stock is used up
+        AssertionErrors.assertTrue("green_tea announced", announced.await(5, TimeUnit.SECONDS));
+        AssertionErrors.assertEquals("outlets changed", coffeeMachine.getNumOutlets(), 5);
+        AssertionErrors.assertEquals("hot_water kept", coffeeMachine.getIngredientsRunningLow(1000).get("hot_water").getStock(), 300);
+        AssertionErrors.assertEquals("green_tea added", coffeeMachine.getBeverage("green_tea"), "green_tea is prepared");
+        AssertionErrors.assertEquals("black_tea removed", coffeeMachine.tryGetBeverage("black_tea").getStatus(),
+                OrderStatus.BEVERAGE_NOT_FOUND);
+        coffeeMachine.getBeverage("hot_tea");
+        AssertionErrors.assertEquals("teas counted across reload", coffeeMachine.getMetricsSnapshot().getBeverages()
+                .get("hot_tea").getOutcomes().get(OrderStatus.PREPARED), 2L);
+    }
+
+    /**
+     * Tests reloads swapping menus and outlet counts while several threads keep ordering: no order fails for a reason
+     * other than the menu or the outlets, and every unit of stock is either left or in a prepared beverage.
+     */
+    @Test
+    void reloadUnderLoad() throws Exception {
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(getReloadConfig(3, false, 1));
+        List<String> beverages = Arrays.asList("hot_tea", "hot_coffee", "black_tea", "green_tea");
+        Map<String, Map<String, Integer>> recipes = new HashMap<>(getReloadConfig(3, false, 0).getMachineConfig().getBeverages());
+        recipes.putAll(getReloadConfig(3, true, 0).getMachineConfig().getBeverages());
+        Map<String, LongAdder> prepared = new ConcurrentHashMap<>();
+        Set<OrderStatus> unexpected = ConcurrentHashMap.newKeySet();
+        AtomicBoolean running = new AtomicBoolean(true);
+        int threads = 4;
+        ExecutorService orderers = Executors.newFixedThreadPool(threads);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            done.add(orderers.submit(() -> {
+                for (int i = 0; running.get() && i < 200_000; i++) {
+                    OrderResult result = coffeeMachine.tryGetBeverage(beverages.get(i % beverages.size()));
+                    switch (result.getStatus()) {
+                        case PREPARED:
+                            prepared.computeIfAbsent(result.getBeverageName(), name -> new LongAdder()).increment();
+                            break;
+                        case ALL_SLOTS_OCCUPIED:
+                        case BEVERAGE_NOT_FOUND:
+                            break;
+                        default:
+                            unexpected.add(result.getStatus());
+                    }
+                }
+            }));
+        }
+        int reloads = 200;
+        for (int r = 1; r <= reloads; r++) {
+            coffeeMachine.reload(getReloadConfig(1 + r % 4, r % 2 == 1, r % 3));
+            Thread.sleep(2);
+        }
+        running.set(false);
+        for (Future<?> future : done) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        orderers.shutdown();
+
+        AssertionErrors.assertTrue("only menu and outlet failures " + unexpected, unexpected.isEmpty());
+        AssertionErrors.assertEquals("all slots free", coffeeMachine.getUsedOutlets().get(), 0);
+        AssertionErrors.assertTrue("green_tea served", prepared.containsKey("green_tea"));
+        Map<String, Ingredient> left = coffeeMachine.getIngredientsRunningLow(Integer.MAX_VALUE);
+        Map<String, Integer> initial = getReloadConfig(3, true, 0).getMachineConfig().getTotalItemsConfig();
+        for (Map.Entry<String, Integer> stock : initial.entrySet()) {
+            long used = 0;
+            for (Map.Entry<String, LongAdder> count : prepared.entrySet()) {
+                used += count.getValue().sum() * recipes.get(count.getKey()).getOrDefault(stock.getKey(), 0);
+            }
+            AssertionErrors.assertEquals(stock.getKey() + " conserved", (long) left.get(stock.getKey()).getStock(),
+                    stock.getValue() - used);
+        }
+        AssertionErrors.assertEquals("menu of the last reload", coffeeMachine.getAvailableBeverages(),
+                new HashSet<>(Arrays.asList("hot_tea", "hot_coffee", "black_tea")));
+    }
+
+    /**
+     * Load test of order classes: walk-up orders keep being served within a few brews while the machine is saturated
+     * by a queue of catering orders which would take a second to drain first.
+     */
+    @Test
+    void priorityClassesUnderSaturation() throws Exception {
+        Config config = getPriorityConfig(0);
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
+        refillAll(coffeeMachine, 1_000_000);
+        List<CompletableFuture<String>> catering = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            catering.add(coffeeMachine.getBeverageAsync("black_tea", "catering"));
+        }
+        long slowest = 0;
+        for (int i = 0; i < 10; i++) {
+            long submittedAt = System.nanoTime();
+            AssertionErrors.assertEquals("walk-up prepared", coffeeMachine.getBeverageAsync("hot_tea", "walk_up")
+                    .get(5, TimeUnit.SECONDS), "hot_tea is prepared");
+            slowest = Math.max(slowest, System.nanoTime() - submittedAt);
+        }
+        AssertionErrors.assertTrue("catering still queued", coffeeMachine.getOutletScheduler().getQueuedOrders().get() > 50);
+        AssertionErrors.assertTrue("walk-up waited for a few brews only, slowest " + slowest,
+                slowest < TimeUnit.MILLISECONDS.toNanos(300));
+        for (CompletableFuture<String> order : catering) {
+            order.cancel(false);
+        }
+
+        Map<String, HistogramSnapshot> waits = coffeeMachine.getMetricsSnapshot().getClassQueueWait();
+        AssertionErrors.assertEquals("classes by priority", new ArrayList<>(waits.keySet()), Arrays.asList("walk_up", "catering"));
+        AssertionErrors.assertEquals("walk-up waits recorded", waits.get("walk_up").getCount(), 10L);
+        AssertionErrors.assertTrue("walk-up p99 bounded",
+                waits.get("walk_up").getPercentile(99) < TimeUnit.MILLISECONDS.toNanos(300));
+    }
+
+    /**
+     * Tests the reserved outlet is only used by the highest priority class and unknown classes are refused.
+     */
+    @Test
+    void reservedOutlet() throws Exception {
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(getPriorityConfig(1));
+        refillAll(coffeeMachine, 1_000_000);
+        List<CompletableFuture<String>> catering = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            catering.add(coffeeMachine.getBeverageAsync("black_tea", "catering"));
+        }
+        AssertionErrors.assertEquals("catering keeps off the reserved outlet", coffeeMachine.getUsedOutlets().get(), 1);
+        AssertionErrors.assertEquals("catering refused", coffeeMachine.tryGetBeverage("black_tea", "catering").getStatus(),
+                OrderStatus.ALL_SLOTS_OCCUPIED);
+        AssertionErrors.assertEquals("walk-up served", coffeeMachine.tryGetBeverage("hot_tea", "walk_up").getStatus(),
+                OrderStatus.PREPARED);
+        for (CompletableFuture<String> order : catering) {
+            AssertionErrors.assertEquals("catering prepared", order.get(5, TimeUnit.SECONDS), "black_tea is prepared");
+        }
+        Exception exception = null;
+        try {
+            coffeeMachine.tryGetBeverage("hot_tea", "vip");
+        } catch (IllegalArgumentException ex) {
+            exception = ex;
+        }
+        AssertionErrors.assertNotNull("unknown class refused", exception);
+    }
+
+    /**
+     * Tests identical orders arriving within the window are brewed together by one outlet, where one order each
+     * would have been rejected.
+     */
+    @Test
+    void coalescedOrdersShareOutlet() throws Exception {
+        Config config = getCoalescingConfig(4);
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(config);
+        refillAll(coffeeMachine, 1000);
+        List<CompletableFuture<String>> orders = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            orders.add(coffeeMachine.getBeverageAsync("hot_tea"));
+        }
+        for (CompletableFuture<String> order : orders) {
+            AssertionErrors.assertEquals("cup prepared", order.get(5, TimeUnit.SECONDS), "hot_tea is prepared");
+        }
+        AssertionErrors.assertEquals("four cups of water used", coffeeMachine.getIngredientsRunningLow(1000).get("hot_water").getStock(), 200);
+        AssertionErrors.assertEquals("cups counted", coffeeMachine.getMetricsSnapshot().getBeverages().get("hot_tea")
+                .getOutcomes().get(OrderStatus.PREPARED), 4L);
+        AssertionErrors.assertEquals("all slots free", coffeeMachine.getUsedOutlets().get(), 0);
+    }
+
+    /**
+     * Tests synchronous orders which have to brew fail on a virtual clock instead of waiting for a time which never
+     * comes, and take nothing, while asynchronous orders brew as the clock is advanced.
+     */
+    @Test
+    void synchronousOrderOnVirtualClock() throws Exception {
+        VirtualClock clock = new VirtualClock();
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(getDefaultConfig(), clock);
+        Exception sync = null;
+        try {
+            coffeeMachine.getBeverage("hot_tea");
+        } catch (IllegalStateException e) {
+            sync = e;
+        }
+        AssertionErrors.assertNotNull("synchronous order failed", sync);
+        Exception batch = null;
+        try {
+            coffeeMachine.getBeverages(Arrays.asList("hot_tea", "black_tea"));
+        } catch (IllegalStateException e) {
+            batch = e;
+        }
+        AssertionErrors.assertNotNull("synchronous batch failed", batch);
+        AssertionErrors.assertEquals("outlets free", coffeeMachine.getUsedOutlets().get(), 0);
+        AssertionErrors.assertEquals("hot_water kept", coffeeMachine.getInventorySnapshot().getStock().get("hot_water"), 500);
+
+        CompletableFuture<String> async = coffeeMachine.getBeverageAsync("hot_tea");
+        clock.advanceTo(10_000);
+        AssertionErrors.assertEquals("asynchronous order prepared", async.get(), "hot_tea is prepared");
+    }
+
+    /**
+     * Tests coalesced cups whose brew the scheduler refuses fail, give their ingredients back and free the outlet.
+     */
+    @Test
+    void refusedCoalescedBrewFailsCups() throws Exception {
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(getCoalescingConfig(2), refusingScheduler());
+        refillAll(coffeeMachine, 1000);
+        List<CompletableFuture<String>> orders = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            orders.add(coffeeMachine.getBeverageAsync("hot_tea"));
+        }
+        for (CompletableFuture<String> order : orders) {
+            ExecutionException failed = null;
+            try {
+                order.get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                failed = e;
+            }
+            AssertionErrors.assertNotNull("cup failed", failed);
+            AssertionErrors.assertTrue("refused", failed.getCause() instanceof RejectedExecutionException);
+        }
+        AssertionErrors.assertEquals("all slots free", coffeeMachine.getUsedOutlets().get(), 0);
+        AssertionErrors.assertEquals("hot_water given back", coffeeMachine.getInventorySnapshot().getStock().get("hot_water"), 1000);
+    }
+
+    /**
+     * Tests a batch closed by its window brews the cups the stock is sufficient for and fails the others on their own.
+     */
+    @Test
+    void coalescedCupsFailOnTheirOwn() throws Exception {
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(getCoalescingConfig(4));
+        coffeeMachine.refillIngredient("hot_water", 400);
+        List<CompletableFuture<String>> orders = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            orders.add(coffeeMachine.getBeverageAsync("hot_tea").exceptionally(Throwable::getMessage));
+        }
+        AssertionErrors.assertEquals("first cup", orders.get(0).get(5, TimeUnit.SECONDS), "hot_tea is prepared");
+        AssertionErrors.assertEquals("second cup", orders.get(1).get(5, TimeUnit.SECONDS), "hot_tea is prepared");
+        AssertionErrors.assertEquals("third cup", orders.get(2).get(5, TimeUnit.SECONDS),
+                "hot_tea cannot be prepared because hot_water is not sufficient");
+        AssertionErrors.assertEquals("all slots free", coffeeMachine.getUsedOutlets().get(), 0);
+    }
+
+    /**
+     * Tests inventory snapshots taken while several threads order hot_tea never show part of an order: the stock
+     * used of every ingredient is always in the proportions of the recipe.
+     */
+    @Test
+    void inventorySnapshotIsConsistent() throws Exception {
+        CoffeeMachineService coffeeMachine = new CoffeeMachineService(getReloadConfig(3, false, 0));
+        AtomicBoolean running = new AtomicBoolean(true);
+        int threads = 3;
+        ExecutorService orderers = Executors.newFixedThreadPool(threads);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            done.add(orderers.submit(() -> {
+                for (int i = 0; running.get() && i < 1_000_000; i++) {
+                    coffeeMachine.tryGetBeverage("hot_tea");
+                }
+            }));
+        }
+        long full = 1_000_000_000L;
+        int snapshots = 0;
+        long lastSugarUsed = 0;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+        while (System.nanoTime() < deadline) {
+            InventorySnapshot snapshot = coffeeMachine.getInventorySnapshot();
+            long sugarUsed = full - snapshot.getStock().get("sugar_syrup");
+            AssertionErrors.assertEquals("hot_water in step", full - snapshot.getStock().get("hot_water"), sugarUsed * 20);
+            AssertionErrors.assertEquals("hot_milk in step", full - snapshot.getStock().get("hot_milk"), sugarUsed * 10);
+            AssertionErrors.assertEquals("tea_leaves_syrup in step", full - snapshot.getStock().get("tea_leaves_syrup"), sugarUsed * 3);
+            AssertionErrors.assertTrue("outlets", snapshot.getUsedOutlets() <= snapshot.getNumOutlets());
+            AssertionErrors.assertTrue("stock only drains", sugarUsed >= lastSugarUsed);
+            lastSugarUsed = sugarUsed;
+            snapshots++;
+        }
+        running.set(false);
+        for (Future<?> future : done) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        orderers.shutdown();
+
+        AssertionErrors.assertTrue("snapshots taken", snapshots > 0);
+        AssertionErrors.assertTrue("orders seen", lastSugarUsed > 0);
+        InventorySnapshot idle = coffeeMachine.getInventorySnapshot();
+        AssertionErrors.assertEquals("all slots free", idle.getUsedOutlets(), 0);
+        AssertionErrors.assertEquals("numOutlets", idle.getNumOutlets(), 3);
+    }
+
+    /**
+     * Returns a scheduler refusing every brew, like one which was shut down
+     */
+    /**
+     * Tests a queued order started by a drain before its submitter set the timeout still has its timer cancelled.
+     */
+    @Test
+    void queuedOrderStartedBeforeItsTimerIsSet() throws Exception {
+        Config.MachineConfig machineConfig = getDefaultConfig().getMachineConfig();
+        machineConfig.getOutletConfig().setCount(1);
+        machineConfig.getOutletConfig().setQueueDepth(1);
+        Recipe recipe = Catalog.compileRecipes(machineConfig, Menu.of(machineConfig), new StockStore()).get("hot_tea");
+        AtomicReference<OutletScheduler> outlets = new AtomicReference<>();
+        AtomicReference<ScheduledFuture<?>> timer = new AtomicReference<>();
+        BrewScheduler scheduler = new BrewScheduler(1) {
+            @Override
+            ScheduledFuture<?> scheduleCancellable(Runnable task, long delayMillis) {
+                ScheduledFuture<?> timeout = super.scheduleCancellable(task, delayMillis);
+                timer.set(timeout);
+                // the outlet is released between queueing the order and setting its timeout
+                outlets.get().release();
+                return timeout;
+            }
+        };
+        outlets.set(new OutletScheduler(machineConfig.getOutletConfig(), new AtomicInteger(), scheduler,
+                new MachineMetrics(false, scheduler)));
+        OrderClass orderClass = outlets.get().getDefaultClass();
+        AssertionErrors.assertTrue("outlet taken", outlets.get().tryAcquire(orderClass));
+        AtomicBoolean started = new AtomicBoolean();
+        outlets.get().submit(recipe, orderClass, result -> started.set(true), new CompletableFuture<>(), 60000);
+        AssertionErrors.assertTrue("queued order started", started.get());
+        AssertionErrors.assertTrue("timer cancelled", timer.get().isCancelled());
+    }
+
+    private static BrewScheduler refusingScheduler() {
+        return new BrewScheduler(1) {
+            @Override
+            void schedule(Runnable task, long delayMillis) {
+                throw new RejectedExecutionException("scheduler shut down");
+            }
+        };
+    }
+
+    private void refillAll(CoffeeMachineService coffeeMachine, Integer quantity) {
+        coffeeMachine.refillIngredient("hot_water", quantity);
+        coffeeMachine.refillIngredient("hot_milk", quantity);
+        coffeeMachine.refillIngredient("ginger_syrup", quantity);
+        coffeeMachine.refillIngredient("sugar_syrup", quantity);
+        coffeeMachine.refillIngredient("tea_leaves_syrup", quantity);
+    }
+
     /**
      * Returns default Config of coffee Machine
      */
@@ -191,4 +1072,53 @@ class CoffeeMachineServiceTest {
         ObjectMapper mapper = new ObjectMapper();
         return mapper.readValue(json, Config.class);
     }
+
+    /**
+     * Returns the default config with two outlets shared by walk-up orders of weight 4 and catering orders of weight 1
+     */
+    private Config getPriorityConfig(int reservedOutlets) throws IOException {
+        Config config = getDefaultConfig();
+        config.getMachineConfig().setDefaultBrewTime(20L);
+        Config.OutletConfig outletConfig = config.getMachineConfig().getOutletConfig();
+        outletConfig.setCount(2);
+        outletConfig.setQueueDepth(1000);
+        outletConfig.setReservedOutlets(reservedOutlets);
+        outletConfig.setOrderClasses(Arrays.asList(getOrderClass("walk_up", 4), getOrderClass("catering", 1)));
+        return config;
+    }
+
+    private Config.OrderClassConfig getOrderClass(String name, int weight) {
+        Config.OrderClassConfig orderClass = new Config.OrderClassConfig();
+        orderClass.setName(name);
+        orderClass.setWeight(weight);
+        return orderClass;
+    }
+
+    /**
+     * Returns the default config with a single outlet and no queue, coalescing up to batchSize identical orders
+     */
+    private Config getCoalescingConfig(int batchSize) throws IOException {
+        Config config = getDefaultConfig();
+        config.getMachineConfig().setDefaultBrewTime(100L);
+        config.getMachineConfig().getOutletConfig().setCount(1);
+        config.getMachineConfig().getOutletConfig().setQueueDepth(0);
+        Config.CoalescingConfig coalescing = new Config.CoalescingConfig();
+        coalescing.setWindowMillis(50L);
+        coalescing.setDefaultBatchSize(batchSize);
+        config.getMachineConfig().setCoalescingConfig(coalescing);
+        return config;
+    }
+
+    /**
+     * Returns a config with plenty of stock, green_tea and its green_mixture are only offered when asked for
+     */
+    private Config getReloadConfig(int outlets, boolean greenTea, long brewTime) throws IOException {
+        String green = greenTea ? ",\"green_tea\":{\"hot_water\":100,\"ginger_syrup\":30,\"sugar_syrup\":50,\"green_mixture\":30}" : "";
+        String greenStock = greenTea ? ",\"green_mixture\":1000000000" : "";
+        String json = "{\"machine\":{\"outlets\":{\"count_n\":" + outlets + ",\"queue_depth\":0},\"default_brew_time_ms\":" + brewTime
+                + ",\"total_items_quantity\":{\"hot_water\":1000000000,\"hot_milk\":1000000000,\"ginger_syrup\":1000000000,\"sugar_syrup\":1000000000,\"tea_leaves_syrup\":1000000000" + greenStock + "},"
+                + "\"beverages\":{\"hot_tea\":{\"hot_water\":200,\"hot_milk\":100,\"ginger_syrup\":10,\"sugar_syrup\":10,\"tea_leaves_syrup\":30},\"hot_coffee\":{\"hot_water\":100,\"ginger_syrup\":30,\"hot_milk\":400,\"sugar_syrup\":50,\"tea_leaves_syrup\":30}"
+                + (greenTea ? "" : ",\"black_tea\":{\"hot_water\":300,\"ginger_syrup\":30,\"sugar_syrup\":50,\"tea_leaves_syrup\":30}") + green + "}}}";
+        return new ObjectMapper().readValue(json, Config.class);
+    }
 }
@@ -0,0 +1,193 @@
+package com.kunal.coffeemachine.service;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kunal.coffeemachine.exception.PreparationException;
+import com.kunal.coffeemachine.pojo.Config;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.AssertionErrors;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+class ConfigLoaderTest {
+    private static final String JSON = "{\"machine\":{\"outlets\":{\"count_n\":3},\"total_items_quantity\":{\"hot_water\":500,\"hot_milk\":500,\"ginger_syrup\":100,\"sugar_syrup\":100,\"tea_leaves_syrup\":100},\"beverages\":{\"hot_tea\":{\"hot_water\":200,\"hot_milk\":100,\"ginger_syrup\":10,\"sugar_syrup\":10,\"tea_leaves_syrup\":30},\"hot_coffee\":{\"hot_water\":100,\"ginger_syrup\":30,\"hot_milk\":400,\"sugar_syrup\":50,\"tea_leaves_syrup\":30},\"black_tea\":{\"hot_water\":300,\"ginger_syrup\":30,\"sugar_syrup\":50,\"tea_leaves_syrup\":30},\"green_tea\":{\"hot_water\":100,\"ginger_syrup\":30,\"sugar_syrup\":50,\"green_mixture\":30}}}}";
+
+    /**
+     * Tests a streamed config makes the same machine as a bound one, down to the failure of a missing ingredient.
+     */
+    @Test
+    void streamsLikeBinding() throws Exception {
+        CoffeeMachineService bound = new CoffeeMachineService(new ObjectMapper().readValue(JSON, Config.class));
+        ConfigLoader.Loaded loaded = load(JSON);
+        CoffeeMachineService streamed = new CoffeeMachineService(loaded.getConfig(), loaded.getMenu(), BrewScheduler.shared());
+
+        AssertionErrors.assertEquals("outlets", loaded.getConfig().getMachineConfig().getOutletConfig().getCount(), 3);
+        AssertionErrors.assertEquals("recipes", streamed.getRecipes().keySet(), bound.getRecipes().keySet());
+        AssertionErrors.assertEquals("stock", streamed.getInventorySnapshot().getStock(), bound.getInventorySnapshot().getStock());
+        AssertionErrors.assertEquals("hot_coffee", streamed.getBeveragesMap().get("hot_coffee").getIngredientQuantityMap(),
+                bound.getBeveragesMap().get("hot_coffee").getIngredientQuantityMap());
+        AssertionErrors.assertEquals("hot_tea", streamed.getBeverage("hot_tea"), bound.getBeverage("hot_tea"));
+        AssertionErrors.assertEquals("green_tea", failure(streamed, "green_tea"), failure(bound, "green_tea"));
+        AssertionErrors.assertEquals("hot_coffee", failure(streamed, "hot_coffee"), failure(bound, "hot_coffee"));
+    }
+
+    /**
+     * Tests an ingredient named twice in a beverage keeps the last quantity, like a bound map does.
+     */
+    @Test
+    void duplicateIngredientKeepsLast() throws Exception {
+        String json = "{\"machine\":{\"outlets\":{\"count_n\":1},\"total_items_quantity\":{\"hot_water\":500},\"beverages\":{\"hot_water\":{\"hot_water\":100,\"hot_water\":300}}}}";
+        Menu menu = load(json).getMenu();
+
+        AssertionErrors.assertEquals("uses", menu.getIngredients().length, 1);
+        AssertionErrors.assertEquals("quantity", menu.recipe(0).get("hot_water"), 300);
+        AssertionErrors.assertEquals("bound", menu.recipe(0), new ObjectMapper().readValue(json, Config.class)
+                .getMachineConfig().getBeverages().get("hot_water"));
+    }
+
+    /**
+     * Tests a menu far larger than the starting arrays of the builder streams like binding.
+     */
+    @Test
+    void streamsLargeMenu() throws Exception {
+        Random random = new Random(5);
+        StringBuilder json = new StringBuilder("{\"machine\":{\"outlets\":{\"count_n\":1},\"total_items_quantity\":{");
+        for (int i = 0; i < 100; i++) {
+            json.append(i == 0 ? "" : ",").append("\"ingredient_").append(i).append("\":").append(1000 + i);
+        }
+        json.append("},\"beverages\":{");
+        for (int b = 0; b < 1000; b++) {
+            json.append(b == 0 ? "" : ",").append("\"beverage_").append(b).append("\":{");
+            for (int i = 0; i < 5; i++) {
+                json.append(i == 0 ? "" : ",").append("\"ingredient_").append(random.nextInt(120)).append("\":").append(1 + i);
+            }
+            json.append("}");
+        }
+        json.append("}}}");
+        Menu menu = load(json.toString()).getMenu();
+        Config.MachineConfig bound = new ObjectMapper().readValue(json.toString(), Config.class).getMachineConfig();
+
+        AssertionErrors.assertEquals("beverages", menu.beverageCount(), bound.getBeverages().size());
+        for (int b = 0; b < menu.beverageCount(); b++) {
+            AssertionErrors.assertEquals(menu.getBeverageNames()[b], menu.recipe(b),
+                    bound.getBeverages().get(menu.getBeverageNames()[b]));
+        }
+        for (int i = 0; i < menu.ingredientCount(); i++) {
+            Integer stock = bound.getTotalItemsConfig().get(menu.getIngredientNames()[i]);
+            AssertionErrors.assertEquals(menu.getIngredientNames()[i], menu.getStock()[i],
+                    stock == null ? StockStore.ABSENT : stock);
+        }
+    }
+
+    /**
+     * Tests a menu written to an image and mapped back is the same menu, and a config naming the image runs on it.
+     */
+    @Test
+    void catalogImageRoundTrip(@TempDir Path directory) throws Exception {
+        Menu menu = load(JSON).getMenu();
+        Path image = directory.resolve("menu.bin");
+        menu.write(image);
+        Menu mapped = Menu.map(image);
+
+        AssertionErrors.assertEquals("beverages", mapped.getBeverageNames(), menu.getBeverageNames());
+        AssertionErrors.assertEquals("ingredients", mapped.getIngredientNames(), menu.getIngredientNames());
+        AssertionErrors.assertEquals("stock", mapped.getStock(), menu.getStock());
+        for (int b = 0; b < menu.beverageCount(); b++) {
+            AssertionErrors.assertEquals(menu.getBeverageNames()[b], mapped.recipe(b), menu.recipe(b));
+        }
+
+        String json = "{\"machine\":{\"outlets\":{\"count_n\":2},\"catalog_image\":\"" + image.toString().replace("\\", "\\\\") + "\"}}";
+        ConfigLoader.Loaded loaded = load(json);
+        CoffeeMachineService streamed = new CoffeeMachineService(loaded.getConfig(), loaded.getMenu(), BrewScheduler.shared());
+        CoffeeMachineService bound = new CoffeeMachineService(new ObjectMapper().readValue(json, Config.class));
+        AssertionErrors.assertEquals("streamed", streamed.getRecipes().size(), 4);
+        AssertionErrors.assertEquals("bound", bound.getRecipes().size(), 4);
+        AssertionErrors.assertEquals("stock", bound.getInventorySnapshot().getStock().get("hot_water"), 500);
+        AssertionErrors.assertEquals("green_tea", failure(streamed, "green_tea"),
+                "green_tea cannot be prepared because green_mixture is not available");
+    }
+
+    /**
+     * Tests malformed configs and images are rejected.
+     */
+    @Test
+    void rejectsMalformed(@TempDir Path directory) throws Exception {
+        Exception parse = null;
+        try {
+            load("{\"machine\":{\"beverages\":{\"hot_tea\":{\"hot_water\":\"lots\"}}}}");
+        } catch (JsonParseException e) {
+            parse = e;
+        }
+        AssertionErrors.assertNotNull("quantity not a number", parse);
+
+        Path image = directory.resolve("menu.bin");
+        Files.write(image, new byte[]{1, 2, 3});
+        Exception io = null;
+        try {
+            Menu.map(image);
+        } catch (IOException e) {
+            io = e;
+        }
+        AssertionErrors.assertNotNull("no image", io);
+
+        load(JSON).getMenu().write(image);
+        Exception both = null;
+        try {
+            load("{\"machine\":{\"catalog_image\":\"" + image.toString().replace("\\", "\\\\") + "\",\"total_items_quantity\":{\"hot_water\":1}}}");
+        } catch (IllegalArgumentException e) {
+            both = e;
+        }
+        AssertionErrors.assertNotNull("image and items", both);
+    }
+
+    /**
+     * Tests images whose counts or offsets do not fit the file are rejected before anything is indexed.
+     */
+    @Test
+    void rejectsCorruptImage(@TempDir Path directory) throws Exception {
+        Path image = directory.resolve("menu.bin");
+        load(JSON).getMenu().write(image);
+        byte[] valid = Files.readAllBytes(image);
+        int ingredientCount = ByteBuffer.wrap(valid).getInt(8);
+
+        // counts adding up past the int range
+        byte[] counts = valid.clone();
+        ByteBuffer.wrap(counts).putInt(8, Integer.MAX_VALUE).putInt(12, Integer.MAX_VALUE);
+        AssertionErrors.assertEquals("counts", corrupt(image, counts), image + " is a truncated menu image");
+
+        // the second beverage starting past the uses of the menu
+        byte[] offsets = valid.clone();
+        ByteBuffer.wrap(offsets).putInt(20 + Integer.BYTES * (ingredientCount + 1), 1 << 20);
+        AssertionErrors.assertEquals("offsets", corrupt(image, offsets), image + " is a corrupt menu image");
+    }
+
+    private static String corrupt(Path image, byte[] bytes) throws IOException {
+        Files.write(image, bytes);
+        try {
+            Menu.map(image);
+        } catch (IOException e) {
+            return e.getMessage();
+        }
+        return null;
+    }
+
+    private static ConfigLoader.Loaded load(String json) throws IOException {
+        return ConfigLoader.load(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String failure(CoffeeMachineService machine, String beverageName) throws Exception {
+        try {
+            machine.getBeverage(beverageName);
+        } catch (PreparationException e) {
+            return e.getMessage();
+        }
+        return null;
+    }
+}
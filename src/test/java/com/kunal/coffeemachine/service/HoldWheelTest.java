@@ -0,0 +1,271 @@
+package com.kunal.coffeemachine.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kunal.coffeemachine.exception.AllSlotsOccupiedException;
+import com.kunal.coffeemachine.exception.HoldExpiredException;
+import com.kunal.coffeemachine.exception.PreparationException;
+import com.kunal.coffeemachine.pojo.Config;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.AssertionErrors;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class HoldWheelTest {
+    private static final int PLENTY = 1 << 28;
+
+    /**
+     * Tests a hold takes the ingredients and an outlet, shows in low stock and availability, and release gives both
+     * back.
+     */
+    @Test
+    void holdIsSeenUntilReleased() throws Exception {
+        CoffeeMachineService machine = new CoffeeMachineService(getConfig(2), new VirtualClock());
+
+        HoldWheel.Hold hold = machine.reserve("hot_coffee", 60_000);
+        AssertionErrors.assertTrue("held", hold.isHeld());
+        AssertionErrors.assertEquals("hot_milk held", machine.getInventorySnapshot().getStock().get("hot_milk"), 100);
+        AssertionErrors.assertTrue("hot_milk low", machine.getIngredientsRunningLow(100).containsKey("hot_milk"));
+        AssertionErrors.assertFalse("no more hot_coffee", machine.isAvailable("hot_coffee"));
+        AssertionErrors.assertEquals("outlet held", machine.getUsedOutlets().get(), 1);
+        AssertionErrors.assertEquals("open holds", machine.getInventorySnapshot().getHeldOrders(), 1);
+        Exception oversold = null;
+        try {
+            machine.getBeverageAsync("hot_coffee").get();
+        } catch (ExecutionException e) {
+            oversold = e;
+        }
+        AssertionErrors.assertNotNull("held stock not sold again", oversold);
+        AssertionErrors.assertTrue("not sufficient", oversold.getCause() instanceof PreparationException);
+
+        AssertionErrors.assertTrue("released", machine.release(hold));
+        AssertionErrors.assertFalse("released once", machine.release(hold));
+        AssertionErrors.assertEquals("hot_milk back", machine.getInventorySnapshot().getStock().get("hot_milk"), 500);
+        AssertionErrors.assertTrue("hot_coffee again", machine.isAvailable("hot_coffee"));
+        AssertionErrors.assertEquals("outlet free", machine.getUsedOutlets().get(), 0);
+        AssertionErrors.assertEquals("no open holds", machine.getOpenHolds(), 0);
+        HoldExpiredException expired = failure(machine.commit(hold));
+        AssertionErrors.assertEquals("released not brewed", expired.getMessage(),
+                "hot_coffee cannot be prepared because its hold expired or was released");
+    }
+
+    /**
+     * Tests a committed hold brews on its outlet and keeps its ingredients, and holds need an outlet.
+     */
+    @Test
+    void commitBrews() throws Exception {
+        VirtualClock clock = new VirtualClock();
+        CoffeeMachineService machine = new CoffeeMachineService(getConfig(1), clock);
+
+        HoldWheel.Hold hold = machine.reserve("hot_tea", 60_000);
+        Exception occupied = null;
+        try {
+            machine.reserve("black_tea", 60_000);
+        } catch (AllSlotsOccupiedException e) {
+            occupied = e;
+        }
+        AssertionErrors.assertNotNull("only outlet held", occupied);
+
+        CompletableFuture<String> prepared = machine.commit(hold);
+        AssertionErrors.assertTrue("committed", hold.isCommitted());
+        AssertionErrors.assertEquals("off the wheel", machine.getOpenHolds(), 0);
+        clock.advanceTo(1000);
+        AssertionErrors.assertEquals("prepared", prepared.get(), "hot_tea is prepared");
+        AssertionErrors.assertEquals("outlet free", machine.getUsedOutlets().get(), 0);
+        AssertionErrors.assertEquals("hot_water used", machine.getInventorySnapshot().getStock().get("hot_water"), 300);
+        AssertionErrors.assertFalse("not released after commit", machine.release(hold));
+        clock.advanceTo(120_000);
+        AssertionErrors.assertEquals("hot_water kept", machine.getInventorySnapshot().getStock().get("hot_water"), 300);
+    }
+
+    /**
+     * Tests a hold nobody commits expires once its time to live ran out, within a tick, and gives everything back.
+     */
+    @Test
+    void holdExpires() throws Exception {
+        VirtualClock clock = new VirtualClock();
+        CoffeeMachineService machine = new CoffeeMachineService(getConfig(2), clock);
+
+        HoldWheel.Hold hold = machine.reserve("hot_coffee", 30_000);
+        clock.advanceTo(29_999);
+        AssertionErrors.assertTrue("held before its deadline", hold.isHeld());
+        clock.advanceTo(30_000 + HoldWheel.DEFAULT_TICK_MILLIS);
+        AssertionErrors.assertTrue("expired", hold.isExpired());
+        AssertionErrors.assertEquals("hot_milk back", machine.getInventorySnapshot().getStock().get("hot_milk"), 500);
+        AssertionErrors.assertEquals("outlet free", machine.getUsedOutlets().get(), 0);
+        AssertionErrors.assertNotNull("expired not brewed", failure(machine.commit(hold)));
+
+        Exception noTimeToLive = null;
+        try {
+            machine.reserve("hot_tea", 0);
+        } catch (IllegalArgumentException e) {
+            noTimeToLive = e;
+        }
+        AssertionErrors.assertNotNull("no time to live", noTimeToLive);
+        AssertionErrors.assertEquals("nothing held", machine.getUsedOutlets().get(), 0);
+        AssertionErrors.assertEquals("hot_water kept", machine.getInventorySnapshot().getStock().get("hot_water"), 500);
+
+        HoldWheel.Hold instant = machine.reserve("hot_tea", 1);
+        clock.advanceTo(clock.millis() + 1 + HoldWheel.DEFAULT_TICK_MILLIS);
+        AssertionErrors.assertTrue("shortest time to live", instant.isExpired());
+        AssertionErrors.assertFalse("wheel stops once empty", clock.step());
+    }
+
+    /**
+     * Tests tens of thousands of holds with time to live spread over several turns of the wheel each expire within
+     * a tick of their deadline, or not at all once released.
+     */
+    @Test
+    void manyHoldsExpireOnTime() throws Exception {
+        VirtualClock clock = new VirtualClock();
+        int holds = 20000;
+        CoffeeMachineService machine = new CoffeeMachineService(getConfig(holds), clock);
+        refillPlenty(machine);
+        Random random = new Random(13);
+        HoldWheel.Hold[] placed = new HoldWheel.Hold[holds];
+        long[] deadlines = new long[holds];
+        long[] expiredAt = new long[holds];
+        int pending = 0;
+        int[] open = new int[holds];
+        for (int i = 0; i < holds; i++) {
+            long ttl = 1 + random.nextInt(20_000);
+            placed[i] = machine.reserve("hot_tea", ttl);
+            deadlines[i] = clock.millis() + ttl;
+            if (i % 10 == 0) {
+                AssertionErrors.assertTrue("released " + i, machine.release(placed[i]));
+            } else {
+                open[pending++] = i;
+            }
+            for (int gap = random.nextInt(3); gap > 0; gap--) {
+                clock.advanceTo(clock.millis() + 1);
+                pending = recordExpired(placed, open, pending, expiredAt, clock.millis());
+            }
+        }
+        AssertionErrors.assertEquals("open holds", machine.getOpenHolds(), pending);
+        long end = clock.millis() + 20_000 + HoldWheel.DEFAULT_TICK_MILLIS;
+        while (clock.millis() < end) {
+            clock.advanceTo(clock.millis() + 1);
+            pending = recordExpired(placed, open, pending, expiredAt, clock.millis());
+        }
+        for (int i = 0; i < holds; i++) {
+            if (i % 10 == 0) {
+                AssertionErrors.assertFalse("released " + i, placed[i].isExpired());
+            } else {
+                AssertionErrors.assertTrue("on time " + i, expiredAt[i] >= deadlines[i]
+                        && expiredAt[i] <= deadlines[i] + HoldWheel.DEFAULT_TICK_MILLIS);
+            }
+        }
+        AssertionErrors.assertEquals("no open holds", machine.getOpenHolds(), 0);
+        AssertionErrors.assertEquals("outlets free", machine.getUsedOutlets().get(), 0);
+        AssertionErrors.assertEquals("hot_water back", machine.getInventorySnapshot().getStock().get("hot_water"), PLENTY);
+    }
+
+    /**
+     * Tests holds placed, committed and released by many threads while others expire never sell more than the stock.
+     */
+    @Test
+    void concurrentHoldsNeverOversell() throws Exception {
+        CoffeeMachineService machine = new CoffeeMachineService(getConfig(16));
+        refillPlenty(machine);
+        machine.refillIngredient("hot_water", 2000);
+        int threads = 8;
+        AtomicInteger brewed = new AtomicInteger();
+        List<CompletableFuture<String>> brews = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            Thread worker = new Thread(() -> {
+                Random random = new Random(seed);
+                try {
+                    start.await();
+                    for (int i = 0; i < 2000; i++) {
+                        HoldWheel.Hold hold;
+                        try {
+                            hold = machine.reserve("hot_tea", 1 + random.nextInt(3));
+                        } catch (PreparationException | AllSlotsOccupiedException e) {
+                            continue;
+                        }
+                        if (random.nextBoolean()) {
+                            CompletableFuture<String> brew = machine.commit(hold);
+                            synchronized (brews) {
+                                brews.add(brew);
+                            }
+                        } else {
+                            machine.release(hold);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        for (CompletableFuture<String> brew : brews) {
+            try {
+                brew.get();
+                brewed.incrementAndGet();
+            } catch (ExecutionException e) {
+                AssertionErrors.assertTrue("expired before commit", e.getCause() instanceof HoldExpiredException);
+            }
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (machine.getOpenHolds() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        AssertionErrors.assertEquals("no open holds", machine.getOpenHolds(), 0);
+        AssertionErrors.assertEquals("outlets free", machine.getUsedOutlets().get(), 0);
+        // hot_water allows 10 hot_tea, every brewed cup took its share and nothing else did
+        AssertionErrors.assertTrue("not oversold", brewed.get() <= 10);
+        AssertionErrors.assertEquals("hot_water", machine.getInventorySnapshot().getStock().get("hot_water"),
+                2000 - 200 * brewed.get());
+    }
+
+    /**
+     * notes the time of every open hold which expired, dropping it from the open ones
+     *
+     * @return the number of holds still open
+     */
+    private static int recordExpired(HoldWheel.Hold[] placed, int[] open, int pending, long[] expiredAt, long now) {
+        int kept = 0;
+        for (int j = 0; j < pending; j++) {
+            if (placed[open[j]].isExpired()) {
+                expiredAt[open[j]] = now;
+            } else {
+                open[kept++] = open[j];
+            }
+        }
+        return kept;
+    }
+
+    private static void refillPlenty(CoffeeMachineService machine) {
+        for (String ingredient : new String[]{"hot_water", "hot_milk", "ginger_syrup", "sugar_syrup", "tea_leaves_syrup"}) {
+            machine.refillIngredient(ingredient, PLENTY);
+        }
+    }
+
+    private static HoldExpiredException failure(CompletableFuture<String> prepared) throws InterruptedException {
+        try {
+            prepared.get();
+        } catch (ExecutionException e) {
+            return (HoldExpiredException) e.getCause();
+        }
+        return null;
+    }
+
+    private static Config getConfig(int outlets) throws IOException {
+        String json = "{\"machine\":{\"outlets\":{\"count_n\":" + outlets + "},\"default_brew_time_ms\":1000,\"total_items_quantity\":{\"hot_water\":500,\"hot_milk\":500,\"ginger_syrup\":100,\"sugar_syrup\":100,\"tea_leaves_syrup\":100},\"beverages\":{\"hot_tea\":{\"hot_water\":200,\"hot_milk\":100,\"ginger_syrup\":10,\"sugar_syrup\":10,\"tea_leaves_syrup\":30},\"hot_coffee\":{\"hot_water\":100,\"ginger_syrup\":30,\"hot_milk\":400,\"sugar_syrup\":50,\"tea_leaves_syrup\":30},\"black_tea\":{\"hot_water\":300,\"ginger_syrup\":30,\"sugar_syrup\":50,\"tea_leaves_syrup\":30}}}}";
+        return new ObjectMapper().readValue(json, Config.class);
+    }
+}
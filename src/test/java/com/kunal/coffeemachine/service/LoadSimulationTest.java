@@ -0,0 +1,137 @@
+package com.kunal.coffeemachine.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kunal.coffeemachine.pojo.Config;
+import com.kunal.coffeemachine.pojo.OrderStatus;
+import com.kunal.coffeemachine.pojo.SimulationReport;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.AssertionErrors;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+class LoadSimulationTest {
+
+    private static final long HOUR_MILLIS = 3_600_000;
+
+    /**
+     * Tests a morning rush on top of a quiet day drains sugar_syrup, and every order of the hours simulated is
+     * accounted for.
+     */
+    @Test
+    void morningRushDrainsSugarSyrup() throws Exception {
+        OrderTrace trace = morning();
+        SimulationReport report = new LoadSimulation(getConfig()).run(trace);
+
+        AssertionErrors.assertTrue("hours simulated", trace.getEndMillis() > 3 * HOUR_MILLIS
+                && report.getSimulatedMillis() >= trace.getEndMillis());
+        long rejected = report.getRejections().values().stream().mapToLong(Long::longValue).sum();
+        AssertionErrors.assertEquals("every order settled", report.getOrders(), report.getPrepared() + rejected);
+        AssertionErrors.assertTrue("sugar_syrup ran out", report.getRejections().get(OrderStatus.INSUFFICIENT_QUANTITY) > 0);
+        int[] sugar = report.getStockCurves().get("sugar_syrup");
+        AssertionErrors.assertEquals("sugar_syrup at start", sugar[0], 20000);
+        AssertionErrors.assertEquals("sugar_syrup at end", sugar[sugar.length - 1], 0);
+        for (int s = 1; s < sugar.length; s++) {
+            AssertionErrors.assertTrue("sugar_syrup only drains", sugar[s] <= sugar[s - 1]);
+        }
+        AssertionErrors.assertEquals("one sample a minute", report.getSampleTimesMillis().length, sugar.length);
+        // 3 outlets brewing for a second each can prepare at most 3 beverages a second
+        AssertionErrors.assertTrue("throughput bounded by the outlets", report.getThroughputPerSecond() <= 3);
+        AssertionErrors.assertTrue("utilization", report.getOutletUtilization() > 0 && report.getOutletUtilization() <= 1);
+    }
+
+    /**
+     * Tests replaying the same trace gives the same report.
+     */
+    @Test
+    void sameTraceSameReport() throws Exception {
+        OrderTrace trace = morning();
+        SimulationReport first = new LoadSimulation(getConfig()).run(trace);
+        SimulationReport second = new LoadSimulation(getConfig()).run(trace);
+
+        AssertionErrors.assertEquals("prepared", first.getPrepared(), second.getPrepared());
+        AssertionErrors.assertEquals("rejections", first.getRejections(), second.getRejections());
+        AssertionErrors.assertEquals("simulated time", first.getSimulatedMillis(), second.getSimulatedMillis());
+        AssertionErrors.assertTrue("sample times", Arrays.equals(first.getSampleTimesMillis(), second.getSampleTimesMillis()));
+        AssertionErrors.assertTrue("sugar_syrup curve", Arrays.equals(first.getStockCurves().get("sugar_syrup"),
+                second.getStockCurves().get("sugar_syrup")));
+    }
+
+    /**
+     * Tests a refill schedule sized for the rush keeps sugar_syrup from running out.
+     */
+    @Test
+    void refillScheduleKeepsUp() throws Exception {
+        LoadSimulation simulation = new LoadSimulation(getConfig());
+        simulation.refillEvery("sugar_syrup", 15 * 60_000, 30000);
+        SimulationReport report = simulation.run(morning());
+
+        AssertionErrors.assertNull("sugar_syrup never ran out", report.getRejections().get(OrderStatus.INSUFFICIENT_QUANTITY));
+        AssertionErrors.assertTrue("sugar_syrup refilled", report.getStockCurves().get("sugar_syrup")[60] > 0);
+    }
+
+    /**
+     * Tests a refill schedule is checked when it is added, not when the simulation runs.
+     */
+    @Test
+    void invalidRefillScheduleRefused() throws Exception {
+        LoadSimulation simulation = new LoadSimulation(getConfig());
+        Exception period = null;
+        try {
+            simulation.refillEvery("sugar_syrup", 0, 30000);
+        } catch (IllegalArgumentException e) {
+            period = e;
+        }
+        AssertionErrors.assertNotNull("zero period refused", period);
+        Exception quantity = null;
+        try {
+            simulation.refillEvery("sugar_syrup", 60_000, -1);
+        } catch (IllegalArgumentException e) {
+            quantity = e;
+        }
+        AssertionErrors.assertNotNull("negative quantity refused", quantity);
+    }
+
+    /**
+     * Tests a recorded trace reads back as written, and orders of the trace arrive at their recorded times.
+     */
+    @Test
+    void recordedTraceReplays(@TempDir Path directory) throws Exception {
+        Map<String, Double> mix = new LinkedHashMap<>();
+        mix.put("hot_tea", 1.0);
+        OrderTrace trace = OrderTrace.poisson(7, 0, 60_000, 0.5, mix, null);
+        Path file = directory.resolve("trace.csv");
+        trace.write(file);
+        OrderTrace read = OrderTrace.read(file);
+
+        AssertionErrors.assertEquals("orders", read.getOrders().size(), trace.getOrders().size());
+        AssertionErrors.assertEquals("last order", read.getEndMillis(), trace.getEndMillis());
+        SimulationReport report = new LoadSimulation(getConfig()).run(read);
+        // orders half a minute apart on average never wait, each is prepared a second after it is placed
+        AssertionErrors.assertEquals("all prepared", report.getPrepared(), report.getOrders());
+        AssertionErrors.assertEquals("settled a brew after the last order", report.getSimulatedMillis(),
+                read.getEndMillis() + CoffeeMachineService.DEFAULT_BREW_TIME_MILLIS);
+    }
+
+    /**
+     * Returns four hours at one order every two seconds with half an hour at two orders a second from the second
+     * hour, sugar_syrup lasts for 2000 beverages
+     */
+    private OrderTrace morning() {
+        Map<String, Double> mix = new LinkedHashMap<>();
+        mix.put("hot_tea", 3.0);
+        mix.put("hot_coffee", 1.0);
+        OrderTrace quiet = OrderTrace.poisson(1, 0, 4 * HOUR_MILLIS, 0.5, mix, null);
+        OrderTrace rush = OrderTrace.poisson(2, HOUR_MILLIS, HOUR_MILLIS / 2, 2, mix, null);
+        return quiet.merge(rush);
+    }
+
+    private Config getConfig() throws IOException {
+        String json = "{\"machine\":{\"outlets\":{\"count_n\":3,\"queue_depth\":20,\"order_timeout_ms\":60000},\"total_items_quantity\":{\"hot_water\":100000000,\"hot_milk\":100000000,\"sugar_syrup\":20000,\"tea_leaves_syrup\":100000000},\"beverages\":{\"hot_tea\":{\"hot_water\":200,\"hot_milk\":100,\"sugar_syrup\":10,\"tea_leaves_syrup\":30},\"hot_coffee\":{\"hot_water\":100,\"hot_milk\":400,\"sugar_syrup\":10,\"tea_leaves_syrup\":30}}}}";
+        return new ObjectMapper().readValue(json, Config.class);
+    }
+}
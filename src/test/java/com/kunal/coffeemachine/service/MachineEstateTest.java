@@ -0,0 +1,134 @@
+package com.kunal.coffeemachine.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kunal.coffeemachine.pojo.Config;
+import com.kunal.coffeemachine.pojo.Ingredient;
+import com.kunal.coffeemachine.pojo.OrderResult;
+import com.kunal.coffeemachine.pojo.OrderStatus;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.AssertionErrors;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class MachineEstateTest {
+
+    /**
+     * Tests every machine of an estate has its own stock and outcomes match those of a single machine.
+     */
+    @Test
+    void machinesKeepTheirOwnStock() throws Exception {
+        MachineEstate estate = new MachineEstate(getConfig(0), 1000, new VirtualClock());
+
+        AssertionErrors.assertEquals("hot_tea", estate.tryGetBeverage(7, "hot_tea").getStatus(), OrderStatus.PREPARED);
+        AssertionErrors.assertEquals("hot_coffee", estate.tryGetBeverage(7, "hot_coffee").getStatus(), OrderStatus.PREPARED);
+        AssertionErrors.assertEquals("second hot_tea", estate.tryGetBeverage(7, "hot_tea").getReason(),
+                "hot_milk is not sufficient");
+        AssertionErrors.assertEquals("green_tea", estate.tryGetBeverage(7, "green_tea").getReason(),
+                "green_mixture is not available");
+        AssertionErrors.assertEquals("unknown", estate.tryGetBeverage(7, "latte").getStatus(), OrderStatus.BEVERAGE_NOT_FOUND);
+        AssertionErrors.assertEquals("hot_water of machine 7", estate.stock(7, "hot_water"), 200);
+        AssertionErrors.assertEquals("hot_water of machine 8", estate.stock(8, "hot_water"), 500);
+        AssertionErrors.assertEquals("hot_coffee on machine 8", estate.tryGetBeverage(8, "hot_coffee").getStatus(),
+                OrderStatus.PREPARED);
+
+        estate.refillIngredient(7, "hot_milk", 1000);
+        AssertionErrors.assertEquals("hot_tea after refill", estate.tryGetBeverage(7, "hot_tea").getStatus(),
+                OrderStatus.PREPARED);
+        Map<String, Ingredient> runningLow = estate.getIngredientsRunningLow(7, 30);
+        AssertionErrors.assertEquals("hot_water running low", runningLow.get("hot_water").getStock(), 0);
+        AssertionErrors.assertEquals("tea_leaves_syrup running low", runningLow.get("tea_leaves_syrup").getStock(), 10);
+        AssertionErrors.assertNull("hot_milk not running low", runningLow.get("hot_milk"));
+        AssertionErrors.assertTrue("compact", estate.bytesPerMachine() <= 32);
+    }
+
+    /**
+     * Tests refilling with a negative quantity is refused and leaves the stock as it was.
+     */
+    @Test
+    void refillIngredientNegative() throws Exception {
+        MachineEstate estate = new MachineEstate(getConfig(0), 10, new VirtualClock());
+        Exception exception = null;
+        try {
+            estate.refillIngredient(3, "hot_milk", -1);
+        } catch (IllegalArgumentException e) {
+            exception = e;
+        }
+        AssertionErrors.assertNotNull("refused", exception);
+        AssertionErrors.assertEquals("hot_milk kept", estate.stock(3, "hot_milk"), 500);
+    }
+
+    /**
+     * Tests outlets stay taken for the brew time and are released once it passed.
+     */
+    @Test
+    void outletsHeldForBrewTime() throws Exception {
+        VirtualClock clock = new VirtualClock();
+        MachineEstate estate = new MachineEstate(getConfig(100), 10, clock);
+
+        for (int i = 0; i < 2; i++) {
+            AssertionErrors.assertEquals("brewing", estate.tryGetBeverage(3, "black_tea").getStatus(), OrderStatus.PREPARED);
+        }
+        AssertionErrors.assertEquals("outlets busy", estate.tryGetBeverage(3, "black_tea").getStatus(),
+                OrderStatus.ALL_SLOTS_OCCUPIED);
+        AssertionErrors.assertEquals("other machine free", estate.tryGetBeverage(4, "black_tea").getStatus(),
+                OrderStatus.PREPARED);
+        clock.advanceTo(99);
+        AssertionErrors.assertEquals("still brewing", estate.usedOutlets(3), 2);
+        clock.advanceTo(100);
+        AssertionErrors.assertEquals("outlets released", estate.usedOutlets(3), 0);
+        AssertionErrors.assertEquals("rejected order took nothing", estate.stock(3, "hot_water"), 500 - 2 * 100);
+    }
+
+    /**
+     * Tests no stock is lost when many threads order on a few machines of the estate at once.
+     */
+    @Test
+    void noStockLostUnderContention() throws Exception {
+        MachineEstate estate = new MachineEstate(getConfig(0), 4, BrewScheduler.shared());
+        int threads = 8;
+        AtomicInteger prepared = new AtomicInteger();
+        ExecutorService service = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(service.submit(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    int machine = i % 4;
+                    OrderResult result = estate.tryGetBeverage(machine, "black_tea");
+                    if (result.isPrepared()) {
+                        prepared.incrementAndGet();
+                    }
+                    if (i % 100 == 0) {
+                        // the snapshot of a machine is always a whole number of teas
+                        int[] stock = estate.snapshot(machine);
+                        AssertionErrors.assertEquals("in step", (500 - stock[0]) / 100 * 30, 100 - stock[2]);
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get(30, TimeUnit.SECONDS);
+        }
+        service.shutdown();
+
+        // every machine makes exactly 2 black teas, sugar_syrup running out first
+        AssertionErrors.assertEquals("prepared", prepared.get(), 8);
+        for (int machine = 0; machine < 4; machine++) {
+            AssertionErrors.assertEquals("hot_water", estate.stock(machine, "hot_water"), 300);
+            AssertionErrors.assertEquals("sugar_syrup", estate.stock(machine, "sugar_syrup"), 0);
+            AssertionErrors.assertEquals("outlets free", estate.usedOutlets(machine), 0);
+        }
+    }
+
+    private Config getConfig(long brewTime) throws IOException {
+        String json = "{\"machine\":{\"outlets\":{\"count_n\":2},\"default_brew_time_ms\":" + brewTime + ",\"total_items_quantity\":{\"hot_water\":500,\"hot_milk\":500,\"ginger_syrup\":100,\"sugar_syrup\":100,\"tea_leaves_syrup\":100},\"beverages\":{\"hot_tea\":{\"hot_water\":200,\"hot_milk\":100,\"ginger_syrup\":10,\"sugar_syrup\":10,\"tea_leaves_syrup\":30},\"hot_coffee\":{\"hot_water\":100,\"ginger_syrup\":30,\"hot_milk\":400,\"sugar_syrup\":50,\"tea_leaves_syrup\":30},\"black_tea\":{\"hot_water\":100,\"ginger_syrup\":30,\"sugar_syrup\":50,\"tea_leaves_syrup\":30},\"green_tea\":{\"hot_water\":100,\"ginger_syrup\":30,\"sugar_syrup\":50,\"green_mixture\":30}}}}";
+        return new ObjectMapper().readValue(json, Config.class);
+    }
+}
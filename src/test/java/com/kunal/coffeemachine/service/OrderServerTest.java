@@ -0,0 +1,193 @@
+package com.kunal.coffeemachine.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kunal.coffeemachine.pojo.BatchMode;
+import com.kunal.coffeemachine.pojo.Config;
+import com.kunal.coffeemachine.pojo.OrderStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.AssertionErrors;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class OrderServerTest {
+
+    private OrderServer server;
+    private SocketChannel client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        String json = "{\"machine\":{\"outlets\":{\"count_n\":2,\"queue_depth\":1},\"default_brew_time_ms\":200,\"brew_time_ms\":{\"black_tea\":0},\"total_items_quantity\":{\"hot_water\":500,\"hot_milk\":500,\"ginger_syrup\":100,\"sugar_syrup\":100,\"tea_leaves_syrup\":100},\"beverages\":{\"hot_tea\":{\"hot_water\":200,\"hot_milk\":100,\"ginger_syrup\":10,\"sugar_syrup\":10,\"tea_leaves_syrup\":30},\"black_tea\":{\"hot_water\":100,\"ginger_syrup\":30,\"sugar_syrup\":50,\"tea_leaves_syrup\":30}}}}";
+        CoffeeMachineService service = new CoffeeMachineService(new ObjectMapper().readValue(json, Config.class));
+        server = new OrderServer(service, new InetSocketAddress("127.0.0.1", 0), 2);
+        server.start();
+        client = SocketChannel.open(new InetSocketAddress("127.0.0.1", server.getPort()));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    /**
+     * Tests pipelined orders are answered by id as they complete, stock queries overtaking the brews ahead of them.
+     */
+    @Test
+    void pipelinedOrdersAnsweredAsTheyComplete() throws Exception {
+        send(OrderProtocol.order(1, "hot_tea", null), OrderProtocol.order(2, "hot_tea", null),
+                OrderProtocol.order(3, "hot_tea", null), OrderProtocol.order(4, "latte", null),
+                OrderProtocol.stock(5, "hot_water"), OrderProtocol.stock(6, "green_mixture"));
+        List<Integer> ids = new ArrayList<>();
+        Map<Integer, ByteBuffer> responses = new HashMap<>();
+        for (int i = 0; i < 6; i++) {
+            ByteBuffer response = receive();
+            int id = response.getInt();
+            ids.add(id);
+            responses.put(id, response);
+        }
+
+        AssertionErrors.assertTrue("stock before the brews", ids.indexOf(5) < ids.indexOf(1) && ids.indexOf(5) < ids.indexOf(2));
+        assertStatus(responses.get(1), OrderProtocol.OK, "hot_tea is prepared");
+        assertStatus(responses.get(2), OrderProtocol.OK, "hot_tea is prepared");
+        assertStatus(responses.get(3), OrderProtocol.REJECTED, "hot_tea cannot be prepared because hot_water is not sufficient");
+        assertStatus(responses.get(4), OrderProtocol.REJECTED, "latte cannot be prepared because beverage not found");
+        ByteBuffer stock = responses.get(5);
+        AssertionErrors.assertEquals("stock", stock.get(), OrderProtocol.OK);
+        AssertionErrors.assertEquals("one ingredient", stock.getShort(), (short) 1);
+        AssertionErrors.assertEquals("name", OrderProtocol.getString(stock), "hot_water");
+        AssertionErrors.assertEquals("hot_water", stock.getInt(), 100);
+        assertStatus(responses.get(6), OrderProtocol.REJECTED, "green_mixture is not available");
+    }
+
+    /**
+     * Tests batches, refills and full stock queries over one connection, and a bad request failing alone.
+     */
+    @Test
+    void batchesRefillsAndStock() throws Exception {
+        ByteBuffer unknown = new OrderProtocol.Frame(1, (byte) 42).toBuffer();
+        send(unknown, OrderProtocol.batch(2, BatchMode.BEST_EFFORT, Arrays.asList("black_tea", "black_tea", "black_tea"), null));
+        assertStatus(receive(1), OrderProtocol.ERROR, "unknown opcode 42");
+        ByteBuffer batch = receive(2);
+        AssertionErrors.assertEquals("batch", batch.get(), OrderProtocol.OK);
+        AssertionErrors.assertEquals("three results", batch.getShort(), (short) 3);
+        for (int i = 0; i < 2; i++) {
+            AssertionErrors.assertEquals("prepared", batch.get(), (byte) OrderStatus.PREPARED.ordinal());
+            AssertionErrors.assertEquals("no ingredient", OrderProtocol.getString(batch), "");
+        }
+        AssertionErrors.assertEquals("third", batch.get(), (byte) OrderStatus.INSUFFICIENT_QUANTITY.ordinal());
+        AssertionErrors.assertEquals("sugar_syrup", OrderProtocol.getString(batch), "sugar_syrup");
+
+        send(OrderProtocol.refill(3, "sugar_syrup", 70), OrderProtocol.stock(4, ""));
+        AssertionErrors.assertEquals("refilled", receive(3).get(), OrderProtocol.OK);
+        ByteBuffer stock = receive(4);
+        AssertionErrors.assertEquals("stock", stock.get(), OrderProtocol.OK);
+        Map<String, Integer> ingredients = new HashMap<>();
+        int count = stock.getShort();
+        for (int i = 0; i < count; i++) {
+            ingredients.put(OrderProtocol.getString(stock), stock.getInt());
+        }
+        AssertionErrors.assertEquals("ingredients", ingredients.size(), 5);
+        AssertionErrors.assertEquals("sugar_syrup", ingredients.get("sugar_syrup"), 70);
+        AssertionErrors.assertEquals("hot_water", ingredients.get("hot_water"), 300);
+
+        send(OrderProtocol.refill(5, "sugar_syrup", -1), OrderProtocol.stock(6, "sugar_syrup"));
+        assertStatus(receive(5), OrderProtocol.ERROR, "quantity of sugar_syrup must not be negative");
+        stock = receive(6);
+        AssertionErrors.assertEquals("still stocked", stock.get(), OrderProtocol.OK);
+        AssertionErrors.assertEquals("one ingredient", stock.getShort(), (short) 1);
+        AssertionErrors.assertEquals("sugar_syrup", OrderProtocol.getString(stock), "sugar_syrup");
+        AssertionErrors.assertEquals("sugar_syrup kept", stock.getInt(), 70);
+    }
+
+    /**
+     * Tests a frame too short for its header closes the connection which sent it, while other clients keep ordering.
+     */
+    @Test
+    void malformedFrameClosesOnlyItsConnection() throws Exception {
+        send(ByteBuffer.allocate(Integer.BYTES).putInt(0, 0));
+        AssertionErrors.assertEquals("connection closed", client.read(ByteBuffer.allocate(1)), -1);
+
+        client.close();
+        client = SocketChannel.open(new InetSocketAddress("127.0.0.1", server.getPort()));
+        send(OrderProtocol.order(1, "black_tea", null));
+        assertStatus(receive(1), OrderProtocol.OK, "black_tea is prepared");
+    }
+
+    /**
+     * Tests a stock query of a sharded ingredient counts what its shards hold.
+     */
+    @Test
+    void stockOfShardedIngredient() throws Exception {
+        String json = "{\"machine\":{\"outlets\":{\"count_n\":1},\"sharded_stock\":true,\"brew_time_ms\":{\"black_tea\":0},\"total_items_quantity\":{\"hot_water\":500,\"ginger_syrup\":100,\"sugar_syrup\":100,\"tea_leaves_syrup\":100},\"beverages\":{\"black_tea\":{\"hot_water\":100,\"ginger_syrup\":30,\"sugar_syrup\":50,\"tea_leaves_syrup\":30}}}}";
+        CoffeeMachineService service = new CoffeeMachineService(new ObjectMapper().readValue(json, Config.class));
+        int water = service.stockStore.find("hot_water");
+        service.stockStore.shard(water);
+        service.getBeverage("black_tea");
+        AssertionErrors.assertTrue("shard holds water", service.stockStore.stock(water) < 400);
+        OrderServer sharded = new OrderServer(service, new InetSocketAddress("127.0.0.1", 0), 1);
+        sharded.start();
+        // the client of the server started for every test is swapped, so tearDown closes this one
+        client.close();
+        client = SocketChannel.open(new InetSocketAddress("127.0.0.1", sharded.getPort()));
+        try {
+            send(OrderProtocol.stock(1, "hot_water"));
+            ByteBuffer stock = receive(1);
+            AssertionErrors.assertEquals("stock", stock.get(), OrderProtocol.OK);
+            AssertionErrors.assertEquals("one ingredient", stock.getShort(), (short) 1);
+            AssertionErrors.assertEquals("name", OrderProtocol.getString(stock), "hot_water");
+            AssertionErrors.assertEquals("hot_water", stock.getInt(), 400);
+        } finally {
+            sharded.close();
+        }
+    }
+
+    private void assertStatus(ByteBuffer response, byte status, String message) {
+        AssertionErrors.assertEquals("status", response.get(), status);
+        AssertionErrors.assertEquals("message", OrderProtocol.getString(response), message);
+    }
+
+    private void send(ByteBuffer... requests) throws IOException {
+        client.write(requests);
+        for (ByteBuffer request : requests) {
+            while (request.hasRemaining()) {
+                client.write(request);
+            }
+        }
+    }
+
+    /**
+     * @return the next response after its id, which must be the one given
+     */
+    private ByteBuffer receive(int id) throws IOException {
+        ByteBuffer response = receive();
+        AssertionErrors.assertEquals("id", response.getInt(), id);
+        return response;
+    }
+
+    private ByteBuffer receive() throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        fill(length);
+        ByteBuffer response = ByteBuffer.allocate(length.getInt(0));
+        fill(response);
+        response.flip();
+        return response;
+    }
+
+    private void fill(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (client.read(buffer) < 0) {
+                throw new IOException("connection closed");
+            }
+        }
+    }
+}
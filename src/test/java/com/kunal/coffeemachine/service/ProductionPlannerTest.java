@@ -0,0 +1,159 @@
+package com.kunal.coffeemachine.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kunal.coffeemachine.pojo.Config;
+import com.kunal.coffeemachine.pojo.ProductionPlan;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.AssertionErrors;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+class ProductionPlannerTest {
+
+    /**
+     * Tests the plan makes the most cups of the default machine, leaving out beverages it cannot make at all.
+     */
+    @Test
+    void plansMostCups() throws Exception {
+        String json = "{\"machine\":{\"outlets\":{\"count_n\":3},\"total_items_quantity\":{\"hot_water\":500,\"hot_milk\":1000,\"ginger_syrup\":100,\"sugar_syrup\":100,\"tea_leaves_syrup\":100},\"beverages\":{\"hot_tea\":{\"hot_water\":200,\"hot_milk\":100,\"ginger_syrup\":10,\"sugar_syrup\":10,\"tea_leaves_syrup\":30},\"hot_coffee\":{\"hot_water\":100,\"ginger_syrup\":30,\"hot_milk\":400,\"sugar_syrup\":50,\"tea_leaves_syrup\":30},\"black_tea\":{\"hot_water\":300,\"ginger_syrup\":30,\"sugar_syrup\":50,\"tea_leaves_syrup\":30},\"green_tea\":{\"hot_water\":100,\"ginger_syrup\":30,\"sugar_syrup\":50,\"green_mixture\":30}}}}";
+        CoffeeMachineService service = new CoffeeMachineService(new ObjectMapper().readValue(json, Config.class));
+
+        ProductionPlan plan = service.planProduction(null);
+        // tea_leaves_syrup makes 3 beverages at most, hot_water leaves room for 2 hot_tea and a hot_coffee
+        AssertionErrors.assertTrue("optimal", plan.isOptimal());
+        AssertionErrors.assertEquals("cups", plan.getTotalCups(), 3L);
+        AssertionErrors.assertEquals("hot_tea", plan.getCups().get("hot_tea"), 2);
+        AssertionErrors.assertEquals("hot_coffee", plan.getCups().get("hot_coffee"), 1);
+        AssertionErrors.assertEquals("green_tea alone", plan.getMaxCups().get("green_tea"), 0);
+        AssertionErrors.assertEquals("hot_tea alone", plan.getMaxCups().get("hot_tea"), 2);
+
+        Map<String, Double> prices = new HashMap<>();
+        prices.put("hot_tea", 1.0);
+        prices.put("black_tea", 5.0);
+        ProductionPlan revenue = service.planProduction(prices);
+        // black_tea uses hot_water a hot_tea needs, one of each beats anything else
+        AssertionErrors.assertEquals("revenue", revenue.getValue(), 6.0);
+        AssertionErrors.assertEquals("black_tea", revenue.getCups().get("black_tea"), 1);
+        AssertionErrors.assertNull("hot_coffee left out", revenue.getCups().get("hot_coffee"));
+
+        service.refillIngredient("hot_water", 2000);
+        AssertionErrors.assertEquals("after refill", service.planProduction(null).getTotalCups(), 3L);
+    }
+
+    /**
+     * Tests plans of small random menus match the best mix found by trying every mix.
+     */
+    @Test
+    void matchesExhaustiveSearch() throws Exception {
+        Random random = new Random(11);
+        for (int round = 0; round < 50; round++) {
+            int beverages = 4;
+            int ingredients = 3;
+            int[][] uses = new int[beverages][ingredients];
+            int[] stock = new int[ingredients];
+            double[] weights = new double[beverages];
+            for (int i = 0; i < ingredients; i++) {
+                stock[i] = 20 + random.nextInt(30);
+            }
+            for (int b = 0; b < beverages; b++) {
+                weights[b] = 1 + random.nextInt(9);
+                for (int i = 0; i < ingredients; i++) {
+                    uses[b][i] = 2 + random.nextInt(14);
+                }
+            }
+            Map<String, Double> demand = new HashMap<>();
+            for (int b = 0; b < beverages; b++) {
+                demand.put("beverage_" + b, weights[b]);
+            }
+            ProductionPlan plan = new CoffeeMachineService(getConfig(uses, stock)).planProduction(demand);
+
+            AssertionErrors.assertTrue("optimal", plan.isOptimal());
+            AssertionErrors.assertEquals("round " + round, plan.getValue(), exhaustive(uses, stock, weights, 0, new int[ingredients]));
+            assertFeasible(plan, uses, stock);
+        }
+    }
+
+    /**
+     * Tests a menu of hundreds of beverages gets a feasible plan close to its bound within the node limit.
+     */
+    @Test
+    void plansLargeMenu() throws Exception {
+        Random random = new Random(5);
+        int beverages = 300;
+        int ingredients = 12;
+        int[][] uses = new int[beverages][ingredients];
+        int[] stock = new int[ingredients];
+        for (int i = 0; i < ingredients; i++) {
+            stock[i] = 5_000 + random.nextInt(20_000);
+        }
+        Map<String, Double> demand = new HashMap<>();
+        for (int b = 0; b < beverages; b++) {
+            demand.put("beverage_" + b, 1.0 + random.nextInt(400) / 100.0);
+            for (int i = 0; i < ingredients; i++) {
+                // every beverage uses a few of the ingredients
+                uses[b][i] = random.nextInt(4) == 0 ? 10 + random.nextInt(200) : 0;
+            }
+            uses[b][b % ingredients] += 10;
+        }
+        ProductionPlan plan = new CoffeeMachineService(getConfig(uses, stock)).planProduction(demand);
+
+        assertFeasible(plan, uses, stock);
+        AssertionErrors.assertTrue("bounded", plan.getUpperBound() >= plan.getValue());
+        AssertionErrors.assertTrue("within 1% of the bound", plan.getValue() >= 0.99 * plan.getUpperBound());
+        AssertionErrors.assertTrue("node limit", plan.getNodes() <= ProductionPlanner.DEFAULT_NODE_LIMIT);
+    }
+
+    private void assertFeasible(ProductionPlan plan, int[][] uses, int[] stock) {
+        for (int i = 0; i < stock.length; i++) {
+            long used = 0;
+            for (int b = 0; b < uses.length; b++) {
+                used += (long) uses[b][i] * plan.getCups().getOrDefault("beverage_" + b, 0);
+            }
+            AssertionErrors.assertTrue("ingredient_" + i + " sufficient", used <= stock[i]);
+        }
+    }
+
+    private double exhaustive(int[][] uses, int[] stock, double[] weights, int beverage, int[] used) {
+        if (beverage == uses.length) {
+            return 0;
+        }
+        double best = 0;
+        for (int cups = 0; ; cups++) {
+            boolean fits = true;
+            for (int i = 0; i < stock.length; i++) {
+                fits &= used[i] + cups * uses[beverage][i] <= stock[i];
+            }
+            if (!fits) {
+                return best;
+            }
+            int[] next = used.clone();
+            for (int i = 0; i < stock.length; i++) {
+                next[i] += cups * uses[beverage][i];
+            }
+            best = Math.max(best, cups * weights[beverage] + exhaustive(uses, stock, weights, beverage + 1, next));
+        }
+    }
+
+    private Config getConfig(int[][] uses, int[] stock) throws IOException {
+        StringBuilder json = new StringBuilder("{\"machine\":{\"outlets\":{\"count_n\":3},\"total_items_quantity\":{");
+        for (int i = 0; i < stock.length; i++) {
+            json.append(i == 0 ? "" : ",").append("\"ingredient_").append(i).append("\":").append(stock[i]);
+        }
+        json.append("},\"beverages\":{");
+        for (int b = 0; b < uses.length; b++) {
+            json.append(b == 0 ? "" : ",").append("\"beverage_").append(b).append("\":{");
+            String separator = "";
+            for (int i = 0; i < uses[b].length; i++) {
+                if (uses[b][i] > 0) {
+                    json.append(separator).append("\"ingredient_").append(i).append("\":").append(uses[b][i]);
+                    separator = ",";
+                }
+            }
+            json.append("}");
+        }
+        return new ObjectMapper().readValue(json.append("}}}").toString(), Config.class);
+    }
+}
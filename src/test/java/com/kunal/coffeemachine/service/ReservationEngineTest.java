@@ -0,0 +1,368 @@
+package com.kunal.coffeemachine.service;
+
+import com.kunal.coffeemachine.exception.IngredientNotFoundException;
+import com.kunal.coffeemachine.exception.InsufficientQuantityException;
+import com.kunal.coffeemachine.pojo.Config;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.AssertionErrors;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class ReservationEngineTest {
+
+    private static final int THREADS = 128;
+
+    /**
+     * Tests a failed reservation takes nothing, even for the ingredients which were sufficient.
+     */
+    @Test
+    void failedReservationTakesNothing() throws Exception {
+        StockStore store = store(500, 500, 5);
+        ReservationEngine engine = new ReservationEngine(store);
+        Exception exception = null;
+        try {
+            engine.reserve(tea(store));
+        } catch (InsufficientQuantityException ex) {
+            exception = ex;
+        }
+        AssertionErrors.assertNotNull("exception thrown", exception);
+        AssertionErrors.assertEquals("sugar_syrup", exception.getMessage(), "sugar_syrup is not sufficient");
+        AssertionErrors.assertEquals("hot_water untouched", stock(store, "hot_water"), 500);
+        AssertionErrors.assertEquals("hot_milk untouched", stock(store, "hot_milk"), 500);
+    }
+
+    /**
+     * Tests a missing ingredient is reported before any stock is taken.
+     */
+    @Test
+    void missingIngredientTakesNothing() throws Exception {
+        StockStore store = new StockStore();
+        store.set("hot_water", 500);
+        store.set("hot_milk", 500);
+        ReservationEngine engine = new ReservationEngine(store);
+        Exception exception = null;
+        try {
+            engine.reserve(tea(store));
+        } catch (IngredientNotFoundException ex) {
+            exception = ex;
+        }
+        AssertionErrors.assertNotNull("exception thrown", exception);
+        AssertionErrors.assertEquals("sugar_syrup", exception.getMessage(), "sugar_syrup is not available");
+        AssertionErrors.assertEquals("hot_water untouched", stock(store, "hot_water"), 500);
+    }
+
+    /**
+     * Tests no stock is lost when many threads race for an ingredient which runs out first.
+     */
+    @Test
+    void noStockLostUnderContention() throws Exception {
+        // sugar_syrup runs out after 50 cups while water and milk would last for 100
+        StockStore store = store(20000, 10000, 500);
+        ReservationEngine engine = new ReservationEngine(store);
+        int prepared = race(engine, tea(store));
+
+        AssertionErrors.assertEquals("cups prepared", prepared, 50);
+        AssertionErrors.assertEquals("hot_water", stock(store, "hot_water"), 20000 - prepared * 200);
+        AssertionErrors.assertEquals("hot_milk", stock(store, "hot_milk"), 10000 - prepared * 100);
+        AssertionErrors.assertEquals("sugar_syrup", stock(store, "sugar_syrup"), 0);
+    }
+
+    /**
+     * Tests overlapping beverages racing in different ingredient orders neither deadlock nor lose stock.
+     */
+    @Test
+    void noStockLostWithOverlappingBeverages() throws Exception {
+        StockStore store = store(15000, 6000, 700);
+        ReservationEngine engine = new ReservationEngine(store);
+        Recipe tea = tea(store);
+        Map<String, Integer> coffeeRecipe = new LinkedHashMap<>();
+        coffeeRecipe.put("sugar_syrup", 20);
+        coffeeRecipe.put("hot_milk", 100);
+        coffeeRecipe.put("hot_water", 100);
+        Recipe coffee = compile(store, "hot_coffee", coffeeRecipe);
+        AtomicInteger teas = new AtomicInteger();
+        AtomicInteger coffees = new AtomicInteger();
+        ExecutorService service = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS * 4; ++t) {
+            boolean orderTea = t % 2 == 0;
+            futures.add(service.submit(() -> {
+                start.await();
+                try {
+                    engine.reserve(orderTea ? tea : coffee);
+                    (orderTea ? teas : coffees).incrementAndGet();
+                } catch (InsufficientQuantityException ignored) {
+                    // expected once stock runs out
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> f : futures) {
+            f.get(30, TimeUnit.SECONDS);
+        }
+        service.shutdown();
+
+        AssertionErrors.assertTrue("some beverages prepared", teas.get() + coffees.get() > 0);
+        AssertionErrors.assertEquals("hot_water", stock(store, "hot_water"), 15000 - teas.get() * 200 - coffees.get() * 100);
+        AssertionErrors.assertEquals("hot_milk", stock(store, "hot_milk"), 6000 - teas.get() * 100 - coffees.get() * 100);
+        AssertionErrors.assertEquals("sugar_syrup", stock(store, "sugar_syrup"), 700 - teas.get() * 10 - coffees.get() * 20);
+        for (int slot = 0; slot < store.size(); slot++) {
+            AssertionErrors.assertTrue(store.name(slot) + " not negative", store.stock(slot) >= 0);
+        }
+    }
+
+    /**
+     * Tests sharded ingredients are never oversold and every shard is handed back once the stock runs short.
+     */
+    @Test
+    void shardedStockNeverOversells() throws Exception {
+        // sugar_syrup runs out after 50 cups while water and milk would last for 100
+        StockStore store = store(20000, 10000, 500);
+        store.enableSharding(8);
+        for (int slot = 0; slot < store.size(); slot++) {
+            store.shard(slot);
+        }
+        ReservationEngine engine = new ReservationEngine(store);
+        int prepared = race(engine, tea(store));
+
+        AssertionErrors.assertEquals("cups prepared", prepared, 50);
+        AssertionErrors.assertEquals("hot_water", store.total(store.find("hot_water")), 20000 - prepared * 200);
+        AssertionErrors.assertEquals("hot_milk", store.total(store.find("hot_milk")), 10000 - prepared * 100);
+        AssertionErrors.assertEquals("sugar_syrup", store.total(store.find("sugar_syrup")), 0);
+        for (int slot = 0; slot < store.size(); slot++) {
+            AssertionErrors.assertTrue(store.name(slot) + " not negative", store.stock(slot) >= 0);
+        }
+    }
+
+    /**
+     * Tests a failed reservation of a sharded beverage gives back what it took from the shards.
+     */
+    @Test
+    void failedShardedReservationTakesNothing() throws Exception {
+        StockStore store = store(500, 500, 5);
+        store.enableSharding(4);
+        store.shard(store.find("hot_water"));
+        ReservationEngine engine = new ReservationEngine(store);
+        Exception exception = null;
+        try {
+            engine.reserve(tea(store));
+        } catch (InsufficientQuantityException ex) {
+            exception = ex;
+        }
+        AssertionErrors.assertNotNull("exception thrown", exception);
+        AssertionErrors.assertEquals("hot_water untouched", store.total(store.find("hot_water")), 500);
+        AssertionErrors.assertEquals("hot_milk untouched", stock(store, "hot_milk"), 500);
+    }
+
+    /**
+     * Tests observers see the stock of the store and its shards: stock handed to a shard is not reported as used, and
+     * orders served by the shards reach the availability and the journal once published.
+     */
+    @Test
+    void shardedStockIsObservedAsTotal(@TempDir Path directory) throws Exception {
+        // two cups of water, the first order hands part of the second cup to its shard
+        StockStore small = store(400, 10000, 500);
+        small.enableSharding(8);
+        small.shard(small.find("hot_water"));
+        Recipe smallTea = tea(small);
+        AvailabilityIndex availability = new AvailabilityIndex(small, Collections.singleton(smallTea),
+                BrewScheduler.shared());
+        new ReservationEngine(small).reserve(smallTea);
+        AssertionErrors.assertTrue("water in the shard", small.stock(small.find("hot_water")) < 200);
+        AssertionErrors.assertTrue("second cup available", availability.isAvailable("hot_tea"));
+
+        StockStore store = store(20000, 10000, 500);
+        store.enableSharding(8);
+        for (int slot = 0; slot < store.size(); slot++) {
+            store.shard(slot);
+        }
+        StockJournal journal = StockJournal.open(directory, store, 4096, 1L, null);
+        Recipe tea = tea(store);
+        availability = new AvailabilityIndex(store, Collections.singleton(tea), BrewScheduler.shared());
+        int prepared = race(new ReservationEngine(store), tea);
+        store.publish();
+        journal.close();
+
+        AssertionErrors.assertEquals("cups prepared", prepared, 50);
+        AssertionErrors.assertFalse("sugar_syrup used up", availability.isAvailable("hot_tea"));
+        Map<String, Integer> recovered = StockJournal.recover(directory);
+        for (int slot = 0; slot < store.size(); slot++) {
+            AssertionErrors.assertEquals(store.name(slot), recovered.get(store.name(slot)), store.total(slot));
+        }
+        AssertionErrors.assertEquals("hot_water", recovered.get("hot_water"), 20000 - prepared * 200);
+    }
+
+    /**
+     * Tests snapshots of sharded stock count what the shards hold and see every order served by a shard: the water
+     * used is always a whole number of cups and never goes back.
+     */
+    @Test
+    void snapshotIncludesShards() throws Exception {
+        StockStore store = store(2_000_000, 1_000_000, 100_000);
+        store.enableSharding(8);
+        for (int slot = 0; slot < store.size(); slot++) {
+            store.shard(slot);
+        }
+        ReservationEngine engine = new ReservationEngine(store);
+        Recipe tea = tea(store);
+        int water = store.find("hot_water");
+        for (int i = 0; i < 10; i++) {
+            engine.reserve(tea);
+        }
+        AssertionErrors.assertTrue("shards hold water", store.stock(water) < store.total(water));
+        AssertionErrors.assertEquals("hot_water", store.snapshot(() -> {
+        })[water], 2_000_000 - 10 * 200);
+
+        Thread orderer = new Thread(() -> {
+            for (int i = 0; i < 9000; i++) {
+                try {
+                    engine.reserve(tea);
+                } catch (InsufficientQuantityException | IngredientNotFoundException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        orderer.start();
+        int lastUsed = 0;
+        while (orderer.isAlive()) {
+            int used = 2_000_000 - store.snapshot(() -> {
+            })[water];
+            AssertionErrors.assertEquals("whole cups", used % 200, 0);
+            AssertionErrors.assertTrue("only drains", used >= lastUsed);
+            lastUsed = used;
+        }
+        orderer.join();
+        AssertionErrors.assertEquals("hot_water", store.snapshot(() -> {
+        })[water], store.total(water));
+    }
+
+    /**
+     * Tests publishing skips shards nobody took from since the last publish, yet still reports every later order.
+     */
+    @Test
+    void publishReportsShardsChangedSinceLastPublish() throws Exception {
+        StockStore store = store(20000, 10000, 500);
+        store.enableSharding(8);
+        int water = store.find("hot_water");
+        store.shard(water);
+        for (int order = 0; order < 10; order++) {
+            AssertionErrors.assertTrue("water taken", store.take(water, 200));
+            store.publish();
+            store.publish();
+            store.lock(water);
+            try {
+                AssertionErrors.assertEquals("observed", store.observed(water), 20000 - (order + 1) * 200);
+            } finally {
+                store.unlock(water);
+            }
+        }
+    }
+
+    /**
+     * Tests a quantity given back to a sharded ingredient while it is refilled lands either before or after the
+     * refill, and the observers see the same stock.
+     */
+    @Test
+    void giveBackRacingRefill() throws Exception {
+        StockStore store = store(20000, 10000, 500);
+        store.enableSharding(8);
+        int water = store.find("hot_water");
+        store.shard(water);
+        ExecutorService service = Executors.newFixedThreadPool(2);
+        for (int round = 0; round < 1000; round++) {
+            AssertionErrors.assertTrue("water taken", store.take(water, 200));
+            CountDownLatch start = new CountDownLatch(1);
+            Future<?> refill = service.submit(() -> {
+                start.await();
+                store.set("hot_water", 1000);
+                return null;
+            });
+            Future<?> giveBack = service.submit(() -> {
+                start.await();
+                store.giveBack(water, 200);
+                return null;
+            });
+            start.countDown();
+            refill.get(30, TimeUnit.SECONDS);
+            giveBack.get(30, TimeUnit.SECONDS);
+            int total = store.total(water);
+            AssertionErrors.assertTrue("given back before or after the refill", total == 1000 || total == 1200);
+            store.lock(water);
+            try {
+                AssertionErrors.assertEquals("observed", store.observed(water), total);
+            } finally {
+                store.unlock(water);
+            }
+        }
+        service.shutdown();
+    }
+
+    /**
+     * Starts all threads at once, each trying to reserve the beverage, and returns the number reserved.
+     */
+    private int race(ReservationEngine engine, Recipe recipe) throws Exception {
+        ExecutorService service = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger reserved = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; ++t) {
+            futures.add(service.submit(() -> {
+                start.await();
+                try {
+                    engine.reserve(recipe);
+                    reserved.incrementAndGet();
+                } catch (InsufficientQuantityException ignored) {
+                    // expected once stock runs out
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> f : futures) {
+            f.get(30, TimeUnit.SECONDS);
+        }
+        service.shutdown();
+        return reserved.get();
+    }
+
+    private Recipe tea(StockStore store) {
+        Map<String, Integer> recipe = new LinkedHashMap<>();
+        recipe.put("hot_water", 200);
+        recipe.put("hot_milk", 100);
+        recipe.put("sugar_syrup", 10);
+        return compile(store, "hot_tea", recipe);
+    }
+
+    private Recipe compile(StockStore store, String name, Map<String, Integer> recipe) {
+        Config.MachineConfig machineConfig = new Config.MachineConfig();
+        machineConfig.setBeverages(Collections.singletonMap(name, recipe));
+        machineConfig.setDefaultBrewTime(0L);
+        return Catalog.compileRecipes(machineConfig, Menu.of(machineConfig), store).get(name);
+    }
+
+    private StockStore store(int water, int milk, int sugar) {
+        StockStore store = new StockStore();
+        store.set("hot_water", water);
+        store.set("hot_milk", milk);
+        store.set("sugar_syrup", sugar);
+        return store;
+    }
+
+    private int stock(StockStore store, String name) {
+        return store.stock(store.find(name));
+    }
+}
@@ -0,0 +1,105 @@
+package com.kunal.coffeemachine.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.AssertionErrors;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.stream.Stream;
+
+class StockJournalTest {
+
+    /**
+     * Tests every change is recovered, across many segments, and old segments are deleted once a snapshot covers them.
+     */
+    @Test
+    void recoversAcrossSegments(@TempDir Path directory) throws Exception {
+        StockStore store = new StockStore();
+        store.set("hot_water", 500);
+        StockJournal journal = StockJournal.open(directory, store, 1024, 1L, null);
+        for (int i = 0; i < 1000; i++) {
+            store.set("hot_water", i);
+            store.set("ingredient_" + (i % 50), i);
+        }
+        journal.close();
+
+        Map<String, Integer> stock = StockJournal.recover(directory);
+        AssertionErrors.assertEquals("hot_water", stock.get("hot_water"), 999);
+        AssertionErrors.assertEquals("ingredient_49", stock.get("ingredient_49"), 999);
+        AssertionErrors.assertEquals("ingredient_0", stock.get("ingredient_0"), 950);
+        AssertionErrors.assertTrue("old segments deleted", count(directory, "journal-") <= 3);
+        AssertionErrors.assertEquals("one snapshot", count(directory, "snapshot-"), 1L);
+    }
+
+    /**
+     * Tests a damaged snapshot is ignored in favour of the previous snapshot and its segments.
+     */
+    @Test
+    void ignoresDamagedSnapshot(@TempDir Path directory) throws Exception {
+        StockStore store = new StockStore();
+        store.set("hot_milk", 500);
+        StockJournal journal = StockJournal.open(directory, store, 4096, 1L, null);
+        store.set("hot_milk", 400);
+        journal.close();
+        // a crash while the next machine wrote its snapshot
+        Files.write(directory.resolve(String.format("snapshot-%016x.bin", 99)), new byte[]{0x53, 0x53});
+
+        Map<String, Integer> stock = StockJournal.recover(directory);
+        AssertionErrors.assertEquals("hot_milk", stock.get("hot_milk"), 400);
+    }
+
+    /**
+     * Tests a restarted journal continues after the existing files and a directory without journal recovers nothing.
+     */
+    @Test
+    void restartContinuesJournal(@TempDir Path directory) throws Exception {
+        AssertionErrors.assertTrue("nothing to recover", StockJournal.recover(directory.resolve("missing")).isEmpty());
+        StockStore first = new StockStore();
+        first.set("sugar_syrup", 100);
+        StockJournal journal = StockJournal.open(directory, first, 4096, 1L, null);
+        first.set("sugar_syrup", 90);
+        journal.close();
+
+        StockStore second = new StockStore();
+        for (Map.Entry<String, Integer> entry : StockJournal.recover(directory).entrySet()) {
+            second.set(entry.getKey(), entry.getValue());
+        }
+        journal = StockJournal.open(directory, second, 4096, 1L, null);
+        second.set("sugar_syrup", 80);
+        journal.close();
+        AssertionErrors.assertEquals("sugar_syrup", StockJournal.recover(directory).get("sugar_syrup"), 80);
+    }
+
+    /**
+     * Tests stock the shards hold is neither lost nor counted as used: the snapshot and the close reclaim it.
+     */
+    @Test
+    void recoversShardedStock(@TempDir Path directory) throws Exception {
+        StockStore store = new StockStore();
+        store.set("hot_water", 10000);
+        store.enableSharding(4);
+        int slot = store.find("hot_water");
+        store.shard(slot);
+        for (int i = 0; i < 50; i++) {
+            AssertionErrors.assertTrue("taken " + i, store.take(slot, 10));
+        }
+        AssertionErrors.assertTrue("shards hold stock", store.stock(slot) < store.total(slot));
+        // the journal starts with a snapshot while the shards hold stock
+        StockJournal journal = StockJournal.open(directory, store, 4096, 1L, null);
+        for (int i = 50; i < 100; i++) {
+            AssertionErrors.assertTrue("taken " + i, store.take(slot, 10));
+        }
+        journal.close();
+
+        AssertionErrors.assertEquals("hot_water", StockJournal.recover(directory).get("hot_water"), 9000);
+        AssertionErrors.assertEquals("total", store.total(slot), 9000);
+    }
+
+    private static long count(Path directory, String prefix) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(prefix)).count();
+        }
+    }
+}